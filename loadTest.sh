@@ -4,6 +4,9 @@ echo Loading for $1
 
 curl http://localhost:8080/v1/loadtest/$1
 
+# Multi-threaded harness with latency percentiles
+# curl "http://localhost:8080/v1/loadtest/harness?producers=4&consumers=4&messages=50000"
+
 # while true; do 
 #     curl http://localhost:8080/v1/status
 #     sleep 10
@@ -1,17 +1,27 @@
 package com.gioorgi.pque;
 
 import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
 
 import javax.annotation.PostConstruct;
+import javax.sql.DataSource;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.annotation.Bean;
 import org.springframework.scheduling.annotation.AsyncConfigurer;
 import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
+import com.gioorgi.pque.client.PQUEClient;
+import com.gioorgi.pque.client.PQUEConsumerAutoscaler;
+import com.gioorgi.pque.client.PQUEConsumerContainer;
+import com.gioorgi.pque.client.PQUEMaintenance;
+import com.gioorgi.pque.client.PQUERpcClient;
+import com.gioorgi.pque.client.json.PQUEJsonProcessor;
+
 import lombok.extern.slf4j.Slf4j;
 
 @SpringBootApplication
@@ -33,13 +43,37 @@ public class Application implements AsyncConfigurer {
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
         executor.setCorePoolSize(2);
         executor.setMaxPoolSize(10);
-        // Queue capacity is infinte by default: set it to show what happens when we start to refuse requests
-        //executor.setQueueCapacity(10);
+        // Queue capacity is infinite by default: tasks queued at shutdown would be lost.
+        // Bounded, the caller runs the task when full, and the queued tasks are completed on shutdown
+        executor.setQueueCapacity(100);
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(10);
         executor.setThreadNamePrefix("AsycExecutor-");
         executor.initialize();
         return executor;
     }
 
+    /** Market requests processed on 2 to 20 threads (see marketRequestAutoscaler), released on shutdown if not processed */
+    @Bean
+    public PQUEConsumerContainer marketRequestConsumer(PQUEClient pqueClient, MarketConsumer marketConsumer) {
+        return pqueClient.queue("market_request").consumerContainer(2, marketConsumer::processMarketRequest);
+    }
+
+    @Bean
+    public PQUEConsumerAutoscaler marketRequestAutoscaler(PQUEClient pqueClient, PQUEConsumerContainer marketRequestConsumer,
+            PQUEMaintenance pqueMaintenance, DataSource dataSource) {
+        var autoscaler = pqueClient.autoscaler(marketRequestConsumer, 2, 20, PQUEConsumerAutoscaler.poolSaturation(dataSource));
+        autoscaler.register(pqueMaintenance);
+        return autoscaler;
+    }
+
+    /** RPC over market_request: the MarketEmulator answers on market_quote_reply */
+    @Bean
+    public PQUERpcClient marketRpcClient(PQUEClient pqueClient, PQUEJsonProcessor jsonProcessor) {
+        return new PQUERpcClient(pqueClient, jsonProcessor, "market_quote_reply");
+    }
+
     public static void main(String[] args) {
         SpringApplication.run(Application.class, args);
     }
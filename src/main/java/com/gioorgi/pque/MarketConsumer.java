@@ -1,23 +1,22 @@
 package com.gioorgi.pque;
 
-import java.beans.Transient;
-import java.util.Optional;
-import java.util.concurrent.Executor;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Qualifier;
-import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
 import com.gioorgi.pque.client.PQUEClient;
-import com.gioorgi.pque.client.json.PQUEJsonProcessor;
+import com.gioorgi.pque.client.PQUEMessage;
 
 import lombok.Setter;
 import lombok.ToString;
 import lombok.extern.slf4j.Slf4j;
 
+/**
+ * Handler of the market_request consumer container (see Application):
+ * requests are leased by the container and removed by the MarketEmulator when it forwards the response.
+ * On shutdown the container releases the requests not processed yet, so other instances get them at once.
+ */
 @Service
 @Setter
 @Slf4j
@@ -27,44 +26,22 @@ public class MarketConsumer {
     @Autowired
     PQUEClient pqueClient;
 
-    @Autowired
-    PQUEJsonProcessor jsonProcessor;
-
     @Autowired
     MarketEmulator marketEmulator;
 
-    @Autowired
-    @Qualifier("applicationTaskExecutor")
-    Executor consumerExcutor;
-
-    static float best_msg_sec=0, worst_msg_sec=10000000000f;
+    @ToString.Exclude
+    private final AtomicLong processedMessages = new AtomicLong();
+    @ToString.Exclude
+    private final long startTime = System.currentTimeMillis();
 
-    @Scheduled(fixedDelay = 5, timeUnit = TimeUnit.SECONDS)
-    @Transactional
-    public void processMarketRequests() {
-        log.trace("Checking for message...");
-        long processedMessages=0;
-        long startTime = System.currentTimeMillis();
-        while (true) {
-            Optional<FIXRequest> request2Process = pqueClient.pop("market_request",FIXRequest.class);
-            if(request2Process.isPresent()){                
-                marketEmulator.send2Market(request2Process.get());
-                processedMessages++;
-                if(processedMessages % 1000 ==0){
-                    printStats(processedMessages, startTime);
-                }
-            }else{
-                break;
-            }
-        }
-        if(processedMessages>0){
-            printStats(processedMessages, startTime);        
-            log.info("No more messages. Executor:{}",this.consumerExcutor);            
+    public void processMarketRequest(PQUEMessage request) {
+        marketEmulator.send2Market(request);
+        long processed = processedMessages.incrementAndGet();
+        if (processed % 1000 == 0) {
+            printStats(processed, startTime);
         }
     }
 
-
-
     private void printStats(long processedMessages, long startTime) {
         float msg_sec;
         float timeframe = System.currentTimeMillis()-startTime;
@@ -73,14 +50,14 @@ public class MarketConsumer {
         }else {
             msg_sec=processedMessages/(timeframe/1000);
         }
-        
-        if(msg_sec > best_msg_sec){
-            best_msg_sec=msg_sec;
-        }
-        if(msg_sec < worst_msg_sec){
-            worst_msg_sec=msg_sec;
+        var stats=pqueClient.getConsumerMetrics().getStats("market_request");
+        if(stats==null){
+            log.info("Dequeue Msg/sec:{} Msg so far:{}", msg_sec, processedMessages);
+        }else{
+            log.info("Dequeue Msg/sec:{} Msg so far:{} Queue wait (us) p50:{} p99:{} max:{}",
+                msg_sec, processedMessages,
+                stats.getWaitTime().getP50(), stats.getWaitTime().getP99(), stats.getWaitTime().getMax());
         }
-        log.info("Dequeue Best Msg/sec:{} Worst:{} Current:{} Msg so far:{} ",best_msg_sec,worst_msg_sec,msg_sec,processedMessages);
     }
 
 }
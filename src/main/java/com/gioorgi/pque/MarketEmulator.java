@@ -1,13 +1,17 @@
 package com.gioorgi.pque;
 
+import java.util.Optional;
 import java.util.Random;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 
 import com.gioorgi.pque.client.PQUEClient;
+import com.gioorgi.pque.client.PQUEMessage;
+import com.gioorgi.pque.client.PQUERpcClient;
+import com.gioorgi.pque.client.PQUERpcEnvelope;
+import com.gioorgi.pque.client.json.PQUEJsonProcessor;
 
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
@@ -20,27 +24,50 @@ public class MarketEmulator {
     @Autowired
     PQUEClient pqueClient;
 
+    @Autowired
+    PQUEJsonProcessor jsonProcessor;
+
+    @Autowired
+    PQUERpcClient rpcClient;
+
     public static AtomicLong processed= new AtomicLong();
 
     ThreadLocal<Random> randomGenerator = ThreadLocal.withInitial(() -> new Random(23));
 
-    @Async
-    public void send2Market(FIXRequest request) {
+    /**
+     * Process the leased request, then atomically remove it and send the response (pque_forward):
+     * if the lease expired and the request was already answered, no duplicate response is sent.
+     * RPC requests are answered to their caller, the others on market_response.
+     * Runs on the market_request consumer container threads, which also record the handler time.
+     */
+    public void send2Market(PQUEMessage message) {
         try {
+            // RPC quotes (/v1/market/quote) are wrapped in an envelope
+            Optional<PQUERpcEnvelope> envelope = rpcClient.unwrap(message);
+            FIXRequest request = envelope.isPresent()
+                    ? rpcClient.payload(envelope.get(), FIXRequest.class)
+                    : jsonProcessor.fromJson(message.getJsonMessage(), FIXRequest.class);
             // Emulate send to market, wait a bit for processing, between 0 and 500ms
             long sleepTime = randomGenerator.get().nextInt(5)*100;
             Thread.sleep(sleepTime);
             String response = "Processed into " + sleepTime + " Req:" + request.getQuoteReqId() + "Qty:"
                     + request.getQuantity();
-            // Optionally, send it back, to minimally stress the database
-            pqueClient.send("market_response", response);
+            // Send it back, to minimally stress the database
+            Optional<Long> sent = envelope.isPresent()
+                    ? rpcClient.reply("market_request", message.id(), envelope.get(), response)
+                    : pqueClient.forward("market_request", message.id(), "market_response", response);
+            if (sent.isEmpty()) {
+                log.warn("Request {} already answered, response dropped", message.id());
+                return;
+            }
             long processedSoFar=processed.incrementAndGet();
             // Show just 5%
             if (randomGenerator.get().nextInt(100) <=5) {
                 log.info("{}) Response: {} SleepTime:{}",processedSoFar,response, sleepTime);
             }
         } catch (InterruptedException ie) {
-            throw new RuntimeException(ie);
+            // Shutdown deadline reached: the container releases the request
+            Thread.currentThread().interrupt();
         }
     }
 
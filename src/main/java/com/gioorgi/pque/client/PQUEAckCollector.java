@@ -0,0 +1,149 @@
+package com.gioorgi.pque.client;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.springframework.util.Assert;
+
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Asynchronous acknowledgements: delete() and archive() only buffer the message id,
+ * the ids are flushed with one pque_delete/pque_archive per queue and operation
+ * when maxBatchSize ids are pending, or at the latest after maxDelay.
+ *
+ * Ids not deleted/archived by the flush (i.e. already acknowledged by someone else after a lost lease)
+ * and failed flushes are reported to the {@link FailureHandler}.
+ * close() flushes the pending acks synchronously.
+ *
+ * @see PQUEClient#ackCollector(FailureHandler)
+ * @author GG
+ */
+@Slf4j
+public class PQUEAckCollector implements AutoCloseable {
+
+    public enum Operation {
+        DELETE,
+        ARCHIVE
+    }
+
+    @FunctionalInterface
+    public interface FailureHandler {
+        /**
+         * @param cause the flush error, or null if the messages were simply not found in the queue
+         */
+        void onFailure(String queue, Operation operation, List<Long> messageIds, Exception cause);
+    }
+
+    @Value
+    private static class Key {
+        String queue;
+        Operation operation;
+    }
+
+    private final PQUEClient client;
+    private final int maxBatchSize;
+    private final FailureHandler failureHandler;
+    private final ScheduledExecutorService scheduler;
+    private Map<Key, List<Long>> pending = new HashMap<>();
+    private boolean closed;
+
+    public PQUEAckCollector(PQUEClient client, int maxBatchSize, Duration maxDelay, FailureHandler failureHandler) {
+        Assert.isTrue(maxBatchSize > 0, "Batch size must be positive!");
+        Assert.isTrue(!maxDelay.isNegative() && !maxDelay.isZero(), "Maximum delay must be positive!");
+        Assert.notNull(failureHandler, "Failure handler must not be null!");
+        this.client = client;
+        this.maxBatchSize = maxBatchSize;
+        this.failureHandler = failureHandler;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "pque-ack");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::flushAll, maxDelay.toMillis(), maxDelay.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    public void delete(String queue, long messageId) {
+        add(new Key(queue, Operation.DELETE), messageId);
+    }
+
+    public void archive(String queue, long messageId) {
+        add(new Key(queue, Operation.ARCHIVE), messageId);
+    }
+
+    private void add(Key key, long messageId) {
+        Assert.notNull(key.getQueue(), "Queue must be not null!");
+        List<Long> full = null;
+        synchronized (this) {
+            Assert.state(!closed, "Ack collector is closed");
+            var ids = pending.computeIfAbsent(key, k -> new ArrayList<>());
+            ids.add(messageId);
+            if (ids.size() >= maxBatchSize) {
+                full = pending.remove(key);
+            }
+        }
+        if (full != null) {
+            final var batch = full;
+            scheduler.execute(() -> flush(key, batch));
+        }
+    }
+
+    /** Number of acks waiting for a flush */
+    public synchronized int getPending() {
+        return pending.values().stream().mapToInt(List::size).sum();
+    }
+
+    /** Flush now all the pending acks, in the calling thread */
+    public void flushAll() {
+        Map<Key, List<Long>> toFlush;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            toFlush = pending;
+            pending = new HashMap<>();
+        }
+        toFlush.forEach(this::flush);
+    }
+
+    private void flush(Key key, List<Long> messageIds) {
+        try {
+            var done = key.getOperation() == Operation.DELETE
+                    ? client.deleteBatch(key.getQueue(), messageIds)
+                    : client.archiveBatch(key.getQueue(), messageIds);
+            if (done.size() != messageIds.size()) {
+                var doneSet = new HashSet<>(done);
+                var missing = messageIds.stream().filter(id -> !doneSet.contains(id)).collect(Collectors.toList());
+                failureHandler.onFailure(key.getQueue(), key.getOperation(), missing, null);
+            }
+            log.trace("{} {} messages of {}", key.getOperation(), done.size(), key.getQueue());
+        } catch (RuntimeException e) {
+            log.error("Failed to {} {} messages of {}", key.getOperation(), messageIds.size(), key.getQueue(), e);
+            failureHandler.onFailure(key.getQueue(), key.getOperation(), messageIds, e);
+        }
+    }
+
+    /** Stop the background flush and flush the pending acks */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushAll();
+    }
+}
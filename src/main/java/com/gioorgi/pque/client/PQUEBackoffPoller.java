@@ -0,0 +1,71 @@
+package com.gioorgi.pque.client;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.function.Supplier;
+
+import org.springframework.util.Assert;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Adaptive poller for idle consumers: every empty fetch doubles the wait before the next one,
+ * up to maxBackoff; the first non-empty fetch resets it to minBackoff.
+ * A busy queue is drained without waiting, an idle one costs one query every maxBackoff.
+ *
+ * Not thread safe: use one poller per consumer thread.
+ *
+ * @see PQUEClient#backoffPoller(String)
+ * @author GG
+ */
+@Slf4j
+public class PQUEBackoffPoller<T> {
+
+    private final Supplier<List<T>> fetcher;
+    private final long minBackoffMs;
+    private final long maxBackoffMs;
+    private long currentBackoffMs;
+
+    public PQUEBackoffPoller(Supplier<List<T>> fetcher, Duration minBackoff, Duration maxBackoff) {
+        Assert.notNull(fetcher, "Fetcher must not be null!");
+        Assert.isTrue(!minBackoff.isNegative() && !minBackoff.isZero(), "Minimum backoff must be positive!");
+        Assert.isTrue(maxBackoff.compareTo(minBackoff) >= 0, "Maximum backoff must be greater than the minimum one!");
+        this.fetcher = fetcher;
+        this.minBackoffMs = minBackoff.toMillis();
+        this.maxBackoffMs = maxBackoff.toMillis();
+        this.currentBackoffMs = this.minBackoffMs;
+    }
+
+    /**
+     * Fetch once. If nothing is found, sleep for the current backoff and double it.
+     * @return the fetched items, possibly empty
+     */
+    public List<T> poll() throws InterruptedException {
+        List<T> items = fetcher.get();
+        if (!items.isEmpty()) {
+            currentBackoffMs = minBackoffMs;
+            return items;
+        }
+        log.trace("Nothing to fetch, sleeping {}ms", currentBackoffMs);
+        Thread.sleep(currentBackoffMs);
+        currentBackoffMs = Math.min(currentBackoffMs * 2, maxBackoffMs);
+        return items;
+    }
+
+    /**
+     * Poll until something is fetched or maxWait is elapsed
+     * @return the fetched items, empty if maxWait elapsed
+     */
+    public List<T> poll(Duration maxWait) throws InterruptedException {
+        long stopAt = System.nanoTime() + maxWait.toNanos();
+        List<T> items;
+        do {
+            items = poll();
+        } while (items.isEmpty() && System.nanoTime() < stopAt);
+        return items;
+    }
+
+    public Duration getCurrentBackoff() {
+        return Duration.ofMillis(currentBackoffMs);
+    }
+}
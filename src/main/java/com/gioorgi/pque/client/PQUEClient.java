@@ -1,18 +1,26 @@
 package com.gioorgi.pque.client;
 
 import java.time.LocalDateTime;
+import java.time.Duration;
 import java.time.OffsetDateTime;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
-import org.springframework.dao.DataAccessException;
 import org.springframework.dao.support.DataAccessUtils;
 import org.springframework.jdbc.core.JdbcOperations;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.util.Assert;
 import org.springframework.util.StringUtils;
 
+import com.gioorgi.pque.client.backend.PQUEBackend;
+import com.gioorgi.pque.client.backend.PQUEJdbcBackend;
 import com.gioorgi.pque.client.config.PQUEConfiguration;
 import com.gioorgi.pque.client.config.PQUEDelay;
 import com.gioorgi.pque.client.config.PQUEVisiblityTimeout;
@@ -26,6 +34,7 @@ import lombok.extern.slf4j.Slf4j;
  * Client heavly refactored from https://github.com/adamalexandru4/pgmq-spring
  * It offers high and low level API to pop/push json-serialized messages.
  * It also offer batch and delay functionalities.
+ * The storage is a {@link PQUEBackend}: PostgreSQL by default, in memory for tests.
  * 
  * @author GG
  */
@@ -43,33 +52,98 @@ public class PQUEClient {
         int newestMsgAgeSec;
         int oldestMsgAgeSec;
         long totalMessages;
+        /** Messages deleted unread because expired, since the queue creation */
+        long expiredMessages;
+        /** Messages waiting in the schedule table, not counted in queueLength */
+        long scheduledMessages;
         LocalDateTime scrapeTime;
     }
 
+    /**
+     * Storage health of a queue table (relationKind "queue"), of its archive (relationKind "archive"),
+     * of its claim check payloads (relationKind "payload") or of its hybrid shadow (relationKind "shadow")
+     */
+    @Getter
+    @ToString
+    @AllArgsConstructor
+    public static class PQUEStorageMetric {
+        String queueName;
+        String relationKind;
+        String relationName;
+        long liveTuples;
+        long deadTuples;
+        long updatedTuples;
+        long hotUpdatedTuples;
+        long tableBytes;
+        long indexBytes;
+        OffsetDateTime lastVacuum;
+        OffsetDateTime lastAutovacuum;
+        LocalDateTime scrapeTime;
+
+        /** Dead tuples over all the tuples, 0 for an empty table */
+        public double getDeadTupleRatio() {
+            long total = liveTuples + deadTuples;
+            return total == 0 ? 0 : (double) deadTuples / total;
+        }
+    }
+
     private void validateQueueName(String queueName){        
         if (!StringUtils.hasText(queueName)) {
                 throw new PQUEException("Name of the queue must not be null with non-empty characters!");
         }
     }
 
-    private final JdbcOperations operations;
+    private final PQUEBackend backend;
     private final PQUEConfiguration configuration;
     private final PQUEJsonProcessor jsonProcessor;
+    private final Map<String, PQUEQueue> queueHandles = new ConcurrentHashMap<>();
+    @Getter
+    private final PQUEConsumerMetrics consumerMetrics = new PQUEConsumerMetrics();
+    // Key of the PQUESendBuffer bound to the current transaction
+    private final Object sendBufferKey = new Object();
 
     public PQUEClient(JdbcOperations operations, PQUEConfiguration configuration, PQUEJsonProcessor jsonProcessor) {
-        Assert.notNull(operations, "JdbcOperations must not be null!");
+        this(new PQUEJdbcBackend(operations), configuration, jsonProcessor);
+    }
+
+    public PQUEClient(PQUEBackend backend, PQUEConfiguration configuration, PQUEJsonProcessor jsonProcessor) {
+        Assert.notNull(backend, "PQUEBackend must not be null!");
         Assert.notNull(configuration, "PGMQConfiguration must not be null!");
         Assert.notNull(jsonProcessor, "PGMQJsonProcessor must not be null!");
 
-        this.operations = operations;
+        this.backend = backend;
         this.configuration = configuration;
         this.jsonProcessor = jsonProcessor;
     }
 
+    /**
+     * Get a handle bound to the queue. The handle is resolved on first use and then cached:
+     * the queue must already exist (queues are created via script).
+     */
+    public PQUEQueue queue(String queueName) {
+        validateQueueName(queueName);
+        return queueHandles.computeIfAbsent(queueName, this::resolveQueue);
+    }
+
+    private PQUEQueue resolveQueue(String queueName) {
+        var meta = backend.queueMeta(queueName)
+                .orElseThrow(() -> new PQUEException("Queue " + queueName + " does not exist"));
+        var handle = new PQUEQueue(queueName,
+                meta.isHybrid() ? PQUEQueue.QueueType.HYBRID
+                        : meta.isUnlogged() ? PQUEQueue.QueueType.UNLOGGED : PQUEQueue.QueueType.LOGGED,
+                meta.getStorageProfile(),
+                configuration.getDelay(queueName),
+                configuration.getVisibilityTimeout(queueName),
+                configuration.getBatchSize(queueName),
+                this);
+        log.debug("Resolved {}", handle);
+        return handle;
+    }
+
 
 
 
-    private final long sendWithDelayLowLevel(String queue, String jsonMessage, PQUEDelay delay) {
+    private final long sendWithDelayLowLevel(String queue, String jsonMessage, PQUEDelay delay, int ttlSeconds) {
         validateQueueName(queue);
 
         if (configuration.isCheckMessage()) {
@@ -77,27 +151,39 @@ public class PQUEClient {
             Assert.isTrue(jsonProcessor.isJson(jsonMessage), "Message should be in JSON format!");
         }
 
-        Long messageId;
-        try {
-            messageId = operations.queryForObject("select * from pque_send(?, ?::JSONB, ?)", (rs, rn) -> rs.getLong(1), queue, jsonMessage, delay.getSeconds());
-            log.trace("Msgid {} Sent with delay {}seconds",messageId,delay.getSeconds());
-        } catch (DataAccessException exception) {
-            throw new PQUEException("Failed to send message on queue " + queue, exception);
-        }
+        return backend.send(queue, jsonMessage, delay.getSeconds(), ttlSeconds);
+    }
 
-        return Optional.ofNullable(messageId)
-                .orElseThrow(() -> new PQUEException("No message id provided for sent message!"));
+    private static int ttlSeconds(Duration timeToLive) {
+        Assert.notNull(timeToLive, "Time to live must not be null!");
+        Assert.isTrue(timeToLive.getSeconds() > 0, "Time to live must be at least one second!");
+        return Math.toIntExact(timeToLive.getSeconds());
     }
 
 
     public <T extends Object> long sendWithDelay(String queue, T objectMessage, PQUEDelay delay) {
-        return sendWithDelayLowLevel(queue, jsonProcessor.toJson(objectMessage), delay);
+        checkMessage(objectMessage);
+        return sendWithDelayLowLevel(queue, jsonProcessor.toJson(objectMessage), delay, 0);
+    }
+
+    /**
+     * Send a message that is never delivered after timeToLive (counted from now, a delay does not extend it),
+     * overriding the queue time to live
+     */
+    public <T extends Object> long sendWithTtl(String queue, T objectMessage, PQUEDelay delay, Duration timeToLive) {
+        checkMessage(objectMessage);
+        return sendWithDelayLowLevel(queue, jsonProcessor.toJson(objectMessage), delay, ttlSeconds(timeToLive));
     }
 
     /** Send one message with default delay
      * 
      */
     public <T extends Object> long send(String queue, T objectMessage) {
+        return sendWithDelay(queue, objectMessage, configuration.getDelay(queue));
+    }
+
+    /** A null message would be sent as the JSON literal null */
+    private void checkMessage(Object objectMessage) {
         if (configuration.isCheckMessage()) {
             if (objectMessage instanceof String) {
                 Assert.isTrue(StringUtils.hasText((String)objectMessage), "Message should not be empty!");
@@ -105,23 +191,28 @@ public class PQUEClient {
                 Assert.notNull(objectMessage,"Message must not be null!");
             }
         }
-        return sendWithDelayLowLevel(queue, jsonProcessor.toJson(objectMessage), configuration.getDelay());
     }
 
 
     public <T extends Object> List<Long> sendBatchWithDelay(String queue, List<T> objectMessageList, PQUEDelay delay) {
         List<String> jsonMessages=objectMessageList.stream().map(jsonProcessor::toJson).collect(Collectors.toList());
-        return sendBatchWithDelayLowLevel(queue, jsonMessages, delay);
+        return sendBatchWithDelayLowLevel(queue, jsonMessages, delay, 0);
+    }
+
+    /** Batched sendWithTtl */
+    public <T extends Object> List<Long> sendBatchWithTtl(String queue, List<T> objectMessageList, PQUEDelay delay, Duration timeToLive) {
+        List<String> jsonMessages=objectMessageList.stream().map(jsonProcessor::toJson).collect(Collectors.toList());
+        return sendBatchWithDelayLowLevel(queue, jsonMessages, delay, ttlSeconds(timeToLive));
     }
 
     /** Send with default configured delay, in batched
      * 
      */
     public <T extends Object> List<Long> sendBatch(String queue, List<T> jsonMessages) {
-        return sendBatchWithDelay(queue, jsonMessages, configuration.getDelay());
+        return sendBatchWithDelay(queue, jsonMessages, configuration.getDelay(queue));
     }
 
-    private List<Long> sendBatchWithDelayLowLevel(String queue, List<String> jsonMessages, PQUEDelay delay) {
+    private List<Long> sendBatchWithDelayLowLevel(String queue, List<String> jsonMessages, PQUEDelay delay, int ttlSeconds) {
         Assert.notNull(queue, QUEUE_MUST_BE_NOT_NULL);
 
         if (configuration.isCheckMessage()) {
@@ -129,11 +220,44 @@ public class PQUEClient {
             Assert.isTrue(jsonMessages.stream().allMatch(jsonProcessor::isJson), "Messages should be in JSON format!");
         }
 
-        return operations.query("select * from pque_send_batch(?, ?::JSONB[], ?)", (rs, rn) -> rs.getLong(1), queue, jsonMessages.toArray(String[]::new), delay.getSeconds());
+        return backend.sendBatch(queue, jsonMessages, delay.getSeconds(), ttlSeconds);
+    }
+
+    /** Send already validated messages */
+    List<Long> sendBatchRaw(String queue, List<String> jsonMessages, PQUEDelay delay) {
+        return backend.sendBatch(queue, jsonMessages, delay.getSeconds(), 0);
+    }
+
+    /**
+     * Transactional outbox: inside a transaction the message is only buffered, and all the buffered
+     * messages are written just before the commit, with one pque_send_batch per queue.
+     * On rollback nothing is written. Outside a transaction the message is sent immediately.
+     * Unlike send(), no message id is returned, because it does not exist yet.
+     */
+    public <T> void sendOnCommit(String queue, T objectMessage) {
+        sendOnCommit(queue, objectMessage, configuration.getDelay(queue));
+    }
+
+    public <T> void sendOnCommit(String queue, T objectMessage, PQUEDelay delay) {
+        validateQueueName(queue);
+        String jsonMessage = toCheckedJson(objectMessage);
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            log.trace("No transaction, sending immediately on {}", queue);
+            sendBatchRaw(queue, List.of(jsonMessage), delay);
+            return;
+        }
+        var buffer = (PQUESendBuffer) TransactionSynchronizationManager.getResource(sendBufferKey);
+        if (buffer == null) {
+            buffer = new PQUESendBuffer(this, sendBufferKey);
+            TransactionSynchronizationManager.bindResource(sendBufferKey, buffer);
+            TransactionSynchronizationManager.registerSynchronization(buffer);
+        }
+        buffer.add(queue, delay, jsonMessage);
     }
 
     public Optional<PQUEMessage> read(String queue) {
-        return read(queue, configuration.getVisibilityTimeout());
+        return read(queue, configuration.getVisibilityTimeout(queue));
     }
 
     public Optional<PQUEMessage> read(String queue, PQUEVisiblityTimeout visibilityTimeout) {
@@ -144,78 +268,222 @@ public class PQUEClient {
         Assert.notNull(queue, QUEUE_MUST_BE_NOT_NULL);
         Assert.isTrue(quantity > 0, "Number of messages for read must be positive!");
 
-        try {
-            return operations.query(
-                    "select * from pque_read(?, ?, ?)",
-                    (rs, rowNum) -> new PQUEMessage(
-                            rs.getLong("msg_id"),
-                            rs.getLong("read_ct"),
-                            rs.getObject("enqueued_at", OffsetDateTime.class),
-                            rs.getObject("vt", OffsetDateTime.class),
-                            rs.getString("message")
-                    ),
-                    queue, visibilityTimeout.getSeconds(), quantity);
-        } catch (DataAccessException exception) {
-            throw new PQUEException("Failed to read messages from queue " + queue, exception);
-        }
+        return recordDequeue(queue, backend.read(queue, visibilityTimeout.getSeconds(), quantity, null));
+    }
+
+    /**
+     * Read only the messages containing the filter (JSONB containment, i.e. Map.of("msgType", "D")).
+     * Claim checked messages are matched on their payload, so large messages are read too.
+     * Create a filter index (pque_create_filter_index) on queues read this way.
+     */
+    public List<PQUEMessage> readBatch(String queue, PQUEVisiblityTimeout visibilityTimeout, int quantity, Object filter) {
+        Assert.notNull(queue, QUEUE_MUST_BE_NOT_NULL);
+        Assert.isTrue(quantity > 0, "Number of messages for read must be positive!");
+        String jsonFilter = toFilter(filter);
+
+        return recordDequeue(queue, backend.read(queue, visibilityTimeout.getSeconds(), quantity, jsonFilter));
+    }
+
+    /**
+     * Read the messages of the consumer slot (msg_id % slots) first, the others only if they are not enough.
+     * Get the slot with {@link #heartbeat}, or use a {@link PQUEPartitionedReader} that does it
+     */
+    public List<PQUEMessage> readPartitioned(String queue, PQUEVisiblityTimeout visibilityTimeout, int quantity,
+            PQUEBackend.ConsumerSlot slot) {
+        Assert.notNull(queue, QUEUE_MUST_BE_NOT_NULL);
+        Assert.isTrue(quantity > 0, "Number of messages for read must be positive!");
+        Assert.notNull(slot, "Slot must not be null!");
+
+        return recordDequeue(queue, backend.readPartitioned(queue, visibilityTimeout.getSeconds(), quantity, slot));
+    }
+
+    /**
+     * Register (or refresh) a consumer of the queue for partitioned reads
+     * @return its slot among the consumers heard in the last timeoutSeconds
+     */
+    public PQUEBackend.ConsumerSlot heartbeat(String queue, String consumerId, int timeoutSeconds) {
+        Assert.notNull(queue, QUEUE_MUST_BE_NOT_NULL);
+        Assert.hasText(consumerId, "Consumer id must not be empty!");
+        return backend.heartbeat(queue, consumerId, timeoutSeconds);
+    }
+
+    /** Unregister a consumer of the queue: the others take its slot at their next heartbeat */
+    public void leave(String queue, String consumerId) {
+        Assert.notNull(queue, QUEUE_MUST_BE_NOT_NULL);
+        backend.leave(queue, consumerId);
+    }
+
+    /** A new consumer of the queue with partitioned claims (pque.claims.*), see {@link PQUEPartitionedReader} */
+    public PQUEPartitionedReader partitionedReader(String queue) {
+        validateQueueName(queue);
+        return new PQUEPartitionedReader(this, queue, configuration.getClaims());
+    }
+
+    /**
+     * Weighted read from several queues in one round trip (pque_read_multi): each queue gets a share of
+     * quantity proportional to its weight, the shares a queue cannot fill go to the others.
+     * A queue with weight 0 is read only when the others are not enough.
+     * Use a LinkedHashMap: ties between equal weights are resolved in the map order.
+     * @return the messages read from each queue
+     */
+    public Map<String, List<PQUEMessage>> readBatch(Map<String, Integer> weightedQueues, PQUEVisiblityTimeout visibilityTimeout, int quantity) {
+        Assert.notEmpty(weightedQueues, "Queues must not be empty!");
+        Assert.isTrue(quantity > 0, "Number of messages for read must be positive!");
+        Assert.isTrue(weightedQueues.values().stream().allMatch(w -> w != null && w >= 0), "Weights must not be negative!");
+        Assert.isTrue(weightedQueues.values().stream().anyMatch(w -> w > 0), "At least one weight must be positive!");
+
+        var queues = new ArrayList<String>(weightedQueues.keySet());
+        var weights = new ArrayList<Integer>(weightedQueues.values());
+        var result = backend.readMulti(queues, weights, visibilityTimeout.getSeconds(), quantity);
+        result.forEach(this::recordDequeue);
+        return result;
     }
 
     public List<PQUEMessage> readBatch(String queue, int quantity) {
-        return readBatch(queue, configuration.getVisibilityTimeout(), quantity);
+        return readBatch(queue, configuration.getVisibilityTimeout(queue), quantity);
     }
 
     /**
-     * Pop directly a typed object
+     * Server-side long poll: wait up to maxWait (rounded up to the second) for messages to be available.
+     * The database is checked every pque.pollIntervalMs.
+     * Beware: a database connection is held for the whole wait.
+     */
+    public List<PQUEMessage> readWithPoll(String queue, PQUEVisiblityTimeout visibilityTimeout, int quantity, Duration maxWait) {
+        Assert.notNull(queue, QUEUE_MUST_BE_NOT_NULL);
+        Assert.isTrue(quantity > 0, "Number of messages for read must be positive!");
+        Assert.isTrue(!maxWait.isNegative(), "Max wait must not be negative!");
+
+        int maxPollSeconds = (int) Math.ceil(maxWait.toMillis() / 1000.0);
+        return recordDequeue(queue, backend.readWithPoll(queue, visibilityTimeout.getSeconds(), quantity,
+                maxPollSeconds, configuration.getPollIntervalMs()));
+    }
+
+    /**
+     * Client-side poller for idle consumers, with exponential backoff between
+     * pque.minBackoffMs and pque.maxBackoffMs. No connection is held while waiting.
+     */
+    public PQUEBackoffPoller<PQUEMessage> backoffPoller(String queue) {
+        validateQueueName(queue);
+        var visibilityTimeout = configuration.getVisibilityTimeout(queue);
+        int batchSize = configuration.getBatchSize(queue);
+        return new PQUEBackoffPoller<>(() -> readBatch(queue, visibilityTimeout, batchSize),
+                Duration.ofMillis(configuration.getMinBackoffMs()),
+                Duration.ofMillis(configuration.getMaxBackoffMs()));
+    }
+
+    /** Receives the typed payload of a lean read */
+    @FunctionalInterface
+    public interface PQUEPayloadHandler<T> {
+        void handle(long messageId, T payload);
+    }
+
+    /**
+     * Pop directly a typed object, parsed from the payload bytes (lean read)
      */
     public <T> Optional<T> pop(String queue, Class<T> requiredType){
-        Optional<PQUEMessage> msg=popMsg(queue);
-        if(msg.isEmpty()){
-            return Optional.ofNullable(null);
-        }else{
-            String json=msg.get().getJsonMessage();
-            return Optional.of(jsonProcessor.fromJson(json, requiredType));
-        }   
+        Assert.notNull(queue, QUEUE_MUST_BE_NOT_NULL);
+        List<T> popped = new ArrayList<>(1);
+        backend.popPayload(queue, (id, readCounter, enqueuedAt, json) -> {
+            recordDequeue(queue, enqueuedAt, readCounter);
+            popped.add(jsonProcessor.fromJson(json, requiredType));
+        });
+        return popped.isEmpty() ? Optional.empty() : Optional.of(popped.get(0));
+    }
+
+    /**
+     * Lean read for hot consumer loops: only id and payload are fetched, and the payload bytes
+     * are parsed straight into requiredType and given to the handler, without PQUEMessage or lists.
+     * The handler runs while the result set is open: keep it short, process the messages afterwards if slow.
+     * @return the number of messages read
+     */
+    public <T> int readEach(String queue, PQUEVisiblityTimeout visibilityTimeout, int quantity,
+            Class<T> requiredType, PQUEPayloadHandler<T> handler) {
+        Assert.notNull(queue, QUEUE_MUST_BE_NOT_NULL);
+        Assert.isTrue(quantity > 0, "Number of messages for read must be positive!");
+
+        return backend.readPayloads(queue, visibilityTimeout.getSeconds(), quantity, (id, readCounter, enqueuedAt, json) -> {
+            recordDequeue(queue, enqueuedAt, readCounter);
+            handler.handle(id, jsonProcessor.fromJson(json, requiredType));
+        });
     }
     
     public Optional<PQUEMessage> popMsg(String queue) {
         Assert.notNull(queue, QUEUE_MUST_BE_NOT_NULL);
 
+        return recordDequeue(queue, backend.pop(queue, null));
+    }
+
+    /** Pop the first message containing the filter, see {@link #readBatch(String, PQUEVisiblityTimeout, int, Object)} */
+    public Optional<PQUEMessage> popMsg(String queue, Object filter) {
+        Assert.notNull(queue, QUEUE_MUST_BE_NOT_NULL);
+        String jsonFilter = toFilter(filter);
+
+        return recordDequeue(queue, backend.pop(queue, jsonFilter));
+    }
+
+    private String toFilter(Object filter) {
+        Assert.notNull(filter, "Filter must not be null!");
+        String jsonFilter = jsonProcessor.toJson(filter);
+        Assert.isTrue(jsonFilter.startsWith("{"), "Filter must be a JSON object!");
+        return jsonFilter;
+    }
+
+    /** Index the messages of the queue for the filtered reads */
+    public void createFilterIndex(String queue) {
+        Assert.notNull(queue, QUEUE_MUST_BE_NOT_NULL);
+        backend.createFilterIndex(queue);
+    }
+
+    /**
+     * Pop a typed message and give it to the handler, recording the handler time in the consumer metrics.
+     * @return false if the queue was empty
+     */
+    public <T> boolean popAndProcess(String queue, Class<T> requiredType, Consumer<T> handler) {
+        Optional<T> message = pop(queue, requiredType);
+        if (message.isEmpty()) {
+            return false;
+        }
+        long start = System.nanoTime();
         try {
-            return Optional.ofNullable(
-                    DataAccessUtils.singleResult(
-                            operations.query(
-                                    "select * from pque_pop(?)",
-                                    (rs, rowNum) -> new PQUEMessage(
-                                            rs.getLong("msg_id"),
-                                            rs.getLong("read_ct"),
-                                            rs.getObject("enqueued_at", OffsetDateTime.class),
-                                            rs.getObject("vt", OffsetDateTime.class),
-                                            rs.getString("message")
-                                    ),
-                                    queue)
-                    )
-            );
-        } catch (DataAccessException exception) {
-            throw new PQUEException("Failed to pop message from queue " + queue, exception);
+            handler.accept(message.get());
+        } finally {
+            consumerMetrics.recordHandlerTime(queue, System.nanoTime() - start);
         }
+        return true;
     }
 
-    public boolean delete(String queue, long messageId) {
-        Assert.notNull(queue, QUEUE_MUST_BE_NOT_NULL);
+    private List<PQUEMessage> recordDequeue(String queue, List<PQUEMessage> messages) {
+        if (configuration.isConsumerMetrics()) {
+            for (var message : messages) {
+                consumerMetrics.recordDequeue(queue, message);
+            }
+        }
+        return messages;
+    }
 
-        Boolean b = operations.queryForObject("select * from pque_delete(?, ?)", Boolean.class, queue, messageId);
+    private void recordDequeue(String queue, long enqueuedAtMillis, long readCounter) {
+        if (configuration.isConsumerMetrics()) {
+            consumerMetrics.recordDequeue(queue, enqueuedAtMillis, readCounter);
+        }
+    }
 
-        if (b == null) {
-            throw new PQUEException("Error during deletion of message from queue!");
+    private Optional<PQUEMessage> recordDequeue(String queue, Optional<PQUEMessage> message) {
+        if (configuration.isConsumerMetrics()) {
+            message.ifPresent(m -> consumerMetrics.recordDequeue(queue, m));
         }
+        return message;
+    }
+
+    public boolean delete(String queue, long messageId) {
+        Assert.notNull(queue, QUEUE_MUST_BE_NOT_NULL);
 
-        return b;
+        return backend.delete(queue, messageId);
     }
 
     public List<Long> deleteBatch(String queue, List<Long> messageIds) {
         Assert.notNull(queue, QUEUE_MUST_BE_NOT_NULL);
 
-        List<Long> messageIdsDeleted = operations.query("select * from pque_delete(?, ?)", (rs, rn) -> rs.getLong(1), queue, messageIds.toArray(Long[]::new));
+        List<Long> messageIdsDeleted = backend.deleteBatch(queue, messageIds);
 
         if (messageIdsDeleted.size() != messageIds.size()) {
             log.warn("Some messages were not deleted!");
@@ -227,19 +495,13 @@ public class PQUEClient {
     public boolean archive(String queue, long messageId) {
         Assert.notNull(queue, QUEUE_MUST_BE_NOT_NULL);
 
-        Boolean b = operations.queryForObject("select * from pque_archive(?, ?)", Boolean.class, queue, messageId);
-
-        if (b == null) {
-            throw new PQUEException("Error during archiving message from queue!");
-        }
-
-        return b;
+        return backend.archive(queue, messageId, configuration.isLazyArchive(queue));
     }
 
     public List<Long> archiveBatch(String queue, List<Long> messageIds) {
         Assert.notNull(queue, QUEUE_MUST_BE_NOT_NULL);
 
-        List<Long> messageIdsDeleted = operations.query("select * from pque_archive(?, ?)", (rs, rn) -> rs.getLong(1), queue, messageIds.toArray(Long[]::new));
+        List<Long> messageIdsDeleted = backend.archiveBatch(queue, messageIds, configuration.isLazyArchive(queue));
 
         if (messageIdsDeleted.size() != messageIds.size()) {
             log.warn("Some messages were not archived!");
@@ -248,12 +510,258 @@ public class PQUEClient {
         return messageIdsDeleted;
     }
 
+    /**
+     * Delete the message from srcQueue and send the reply to dstQueue, atomically in one statement.
+     * @return the id of the reply, empty if the message was no more in srcQueue (nothing is sent)
+     */
+    public <T> Optional<Long> forward(String srcQueue, long messageId, String dstQueue, T reply) {
+        return forward(srcQueue, messageId, dstQueue, reply, false, configuration.getDelay(dstQueue));
+    }
+
+    /**
+     * Like {@link #forward(String, long, String, Object)}, archiving the source message if archive is true
+     */
+    public <T> Optional<Long> forward(String srcQueue, long messageId, String dstQueue, T reply, boolean archive, PQUEDelay delay) {
+        Assert.notNull(srcQueue, QUEUE_MUST_BE_NOT_NULL);
+        Assert.notNull(dstQueue, QUEUE_MUST_BE_NOT_NULL);
+        String jsonMessage = toCheckedJson(reply);
+        return Optional.ofNullable(backend.forward(srcQueue, List.of(messageId), dstQueue, List.of(jsonMessage),
+                archive, delay.getSeconds()).get(messageId));
+    }
+
+    /**
+     * Batch forward: every message id of srcQueue is replaced by its reply in dstQueue, in one statement.
+     * @return source message id to reply id, for the messages still in srcQueue
+     */
+    public <T> Map<Long, Long> forwardBatch(String srcQueue, Map<Long, T> replies, String dstQueue, boolean archive) {
+        Assert.notNull(srcQueue, QUEUE_MUST_BE_NOT_NULL);
+        Assert.notNull(dstQueue, QUEUE_MUST_BE_NOT_NULL);
+        if (replies.isEmpty()) {
+            return new LinkedHashMap<>();
+        }
+        var messageIds = new ArrayList<Long>(replies.size());
+        var jsonMessages = new ArrayList<String>(replies.size());
+        for (var reply : replies.entrySet()) {
+            messageIds.add(reply.getKey());
+            jsonMessages.add(toCheckedJson(reply.getValue()));
+        }
+        var result = backend.forward(srcQueue, messageIds, dstQueue, jsonMessages, archive,
+                configuration.getDelay(dstQueue).getSeconds());
+        if (result.size() != replies.size()) {
+            log.warn("Some messages were not forwarded!");
+        }
+        return result;
+    }
+
+    private String toCheckedJson(Object objectMessage) {
+        String jsonMessage = jsonProcessor.toJson(objectMessage);
+        if (configuration.isCheckMessage()) {
+            Assert.isTrue(StringUtils.hasText(jsonMessage), "Message should not be empty!");
+            Assert.isTrue(jsonProcessor.isJson(jsonMessage), "Message should be in JSON format!");
+        }
+        return jsonMessage;
+    }
+
+    /**
+     * Send the message to every queue subscribed to the topic, with a single call.
+     * @return the id of the message sent to each queue, empty if no subscription matched
+     */
+    public <T> Map<String, Long> publish(String topic, T objectMessage) {
+        var sent = new LinkedHashMap<String, Long>();
+        publishBatch(topic, List.of(objectMessage)).forEach((queue, ids) -> sent.put(queue, ids.get(0)));
+        return sent;
+    }
+
+    /**
+     * Send all the messages to every queue subscribed to the topic, with a single call,
+     * with the delay configured for the topic name (pque.queues.[topic].delay) or the default one.
+     * @return the ids of the messages sent to each queue
+     */
+    public <T> Map<String, List<Long>> publishBatch(String topic, List<T> objectMessages) {
+        Assert.notNull(topic, "Topic must not be null!");
+        List<String> jsonMessages = objectMessages.stream().map(this::toCheckedJson).collect(Collectors.toList());
+        return backend.publish(topic, jsonMessages, configuration.getDelay(topic).getSeconds());
+    }
+
+    /**
+     * Subscribe the queue to the topic, receiving only the messages containing the filter (null for all of them)
+     */
+    public void subscribe(String topic, String queue, Object filter) {
+        Assert.notNull(topic, "Topic must not be null!");
+        Assert.notNull(queue, QUEUE_MUST_BE_NOT_NULL);
+        String jsonFilter = filter == null ? "{}" : toFilter(filter);
+        backend.subscribe(topic, queue, jsonFilter);
+    }
+
+    public boolean unsubscribe(String topic, String queue) {
+        return backend.unsubscribe(topic, queue);
+    }
+
+    /**
+     * Move up to maxRows lazily archived messages to the archive table
+     * @return the number of moved messages
+     */
+    public long flushArchive(String queue, int maxRows) {
+        Assert.notNull(queue, QUEUE_MUST_BE_NOT_NULL);
+        return backend.flushArchive(queue, maxRows);
+    }
+
+    /**
+     * Delete up to maxRows expired messages; reads only delete the ones they meet
+     * @return the number of deleted messages
+     */
+    public long expire(String queue, int maxRows) {
+        Assert.notNull(queue, QUEUE_MUST_BE_NOT_NULL);
+        return backend.expire(queue, maxRows);
+    }
+
+    /**
+     * Claim check: messages bigger than minBytes (as stored JSONB) are kept in a payload table,
+     * so the queue rows stay narrow. Reads get the payload back in the same round trip.
+     * 0 disables it; only the messages sent afterwards are affected
+     */
+    public void setClaimCheck(String queue, int minBytes) {
+        validateQueueName(queue);
+        Assert.isTrue(minBytes >= 0, "Claim check size must not be negative!");
+        backend.setClaimCheck(queue, minBytes);
+    }
+
+    /**
+     * Delete up to maxRows payloads of messages no more in the queue
+     * @return the number of deleted payloads
+     */
+    public long collectPayloads(String queue, int maxRows) {
+        Assert.notNull(queue, QUEUE_MUST_BE_NOT_NULL);
+        return backend.collectPayloads(queue, maxRows);
+    }
+
+    /**
+     * Checkpoint of a hybrid queue (pque_create_hybrid): copy the messages not yet consumed to the logged shadow.
+     * If the queue was lost in a crash, the shadow messages are sent again instead
+     * @return the number of copied (or restored) messages
+     */
+    public long checkpoint(String queue) {
+        validateQueueName(queue);
+        return backend.checkpoint(queue);
+    }
+
+    /** Checkpoint of all the hybrid queues, see {@link #checkpoint(String)} */
+    public long checkpointAll() {
+        return backend.checkpoint(null);
+    }
+
+    /**
+     * Default time to live of the messages sent to the queue from now on, by any producer.
+     * Duration.ZERO: messages never expire
+     */
+    public void setTimeToLive(String queue, Duration timeToLive) {
+        validateQueueName(queue);
+        backend.setTimeToLive(queue, timeToLive.isZero() ? 0 : ttlSeconds(timeToLive));
+    }
+
+    /**
+     * Messages sent with a delay longer than scheduleAfter wait in the schedule table of the queue,
+     * out of the way of the consumers, until promote() moves them to the queue.
+     * Duration.ZERO disables it; only the messages sent afterwards are affected
+     */
+    public void setScheduleAfter(String queue, Duration scheduleAfter) {
+        validateQueueName(queue);
+        Assert.isTrue(!scheduleAfter.isNegative(), "Schedule threshold must not be negative!");
+        backend.setScheduleAfter(queue, Math.toIntExact(scheduleAfter.getSeconds()));
+    }
 
+    /**
+     * Move up to maxRows due scheduled messages to the queue
+     * @return the number of moved messages
+     */
+    public long promote(String queue, int maxRows) {
+        Assert.notNull(queue, QUEUE_MUST_BE_NOT_NULL);
+        return backend.promote(queue, maxRows);
+    }
+
+
+
+    /**
+     * Change the visibility timeout of leased messages, counting from now.
+     * A timeout of 0 releases them: they are visible again immediately.
+     * @return the new visibility time of the messages still in the queue
+     */
+    public Map<Long, OffsetDateTime> setVisibilityTimeoutBatch(String queue, List<Long> messageIds, PQUEVisiblityTimeout visibilityTimeout) {
+        Assert.notNull(queue, QUEUE_MUST_BE_NOT_NULL);
+        if (messageIds.isEmpty()) {
+            return new LinkedHashMap<>();
+        }
+        var result = backend.setVisibilityTimeout(queue, messageIds, visibilityTimeout.getSeconds());
+        if (result.size() != messageIds.size()) {
+            log.warn("Some messages are no more in queue {}", queue);
+        }
+        return result;
+    }
+
+    public boolean setVisibilityTimeout(String queue, long messageId, PQUEVisiblityTimeout visibilityTimeout) {
+        return !setVisibilityTimeoutBatch(queue, List.of(messageId), visibilityTimeout).isEmpty();
+    }
+
+    /** Make leased messages visible again immediately, so other consumers can take them */
+    public List<Long> release(String queue, List<Long> messageIds) {
+        return new ArrayList<>(setVisibilityTimeoutBatch(queue, messageIds, new PQUEVisiblityTimeout(0)).keySet());
+    }
+
+    /**
+     * Prefetching consumer on the queue: capacity messages are kept leased in a local buffer,
+     * topped up when half empty. See {@link PQUEPrefetchConsumer}
+     */
+    public PQUEPrefetchConsumer prefetchConsumer(String queue, int capacity, boolean extendLeases) {
+        validateQueueName(queue);
+        var visibilityTimeout = configuration.getVisibilityTimeout(queue);
+        return new PQUEPrefetchConsumer(this, queue, capacity, Math.max(1, capacity / 2), visibilityTimeout,
+                Duration.ofSeconds(visibilityTimeout.getSeconds()).dividedBy(3), extendLeases);
+    }
+
+    /**
+     * Consumer with graceful shutdown: the handler runs on concurrency threads, and on stop the unprocessed
+     * messages are released within pque.shutdownTimeoutMs. Declare it as a bean to bind it to the application
+     * lifecycle. With pque.claims.partitioned it reads with a {@link PQUEPartitionedReader}.
+     * See {@link PQUEConsumerContainer}
+     */
+    public PQUEConsumerContainer consumerContainer(String queue, int concurrency, Consumer<PQUEMessage> handler) {
+        validateQueueName(queue);
+        return new PQUEConsumerContainer(this, queue, configuration.getVisibilityTimeout(queue),
+                configuration.getBatchSize(queue), concurrency,
+                Duration.ofMillis(configuration.getMinBackoffMs()),
+                Duration.ofMillis(configuration.getMaxBackoffMs()),
+                Duration.ofMillis(configuration.getShutdownTimeoutMs()),
+                configuration.getClaims().isPartitioned() ? partitionedReader(queue) : null, handler);
+    }
+
+    /**
+     * Autoscaler of the container concurrency, between min and max, driven by the queue lag (pque.autoscale.*).
+     * Start it with {@link PQUEConsumerAutoscaler#register(PQUEMaintenance)}.
+     * @param poolSaturated true when the connection pool is saturated, see {@link PQUEConsumerAutoscaler#poolSaturation}
+     */
+    public PQUEConsumerAutoscaler autoscaler(PQUEConsumerContainer container, int minConcurrency, int maxConcurrency,
+            BooleanSupplier poolSaturated) {
+        return new PQUEConsumerAutoscaler(this, container, minConcurrency, maxConcurrency,
+                configuration.getAutoscale(), poolSaturated);
+    }
+
+    /**
+     * Collector batching delete and archive acks, flushed every pque.ackBatchSize acks or pque.ackMaxDelayMs.
+     * Close it on shutdown to flush the pending acks. See {@link PQUEAckCollector}
+     */
+    public PQUEAckCollector ackCollector(PQUEAckCollector.FailureHandler failureHandler) {
+        return new PQUEAckCollector(this, configuration.getAckBatchSize(),
+                Duration.ofMillis(configuration.getAckMaxDelayMs()), failureHandler);
+    }
+
+    /** Ack collector logging the failed acks */
+    public PQUEAckCollector ackCollector() {
+        return ackCollector((queue, operation, messageIds, cause) ->
+                log.warn("{} failed on queue {} for messages {}", operation, queue, messageIds));
+    }
 
     public List<String> listQueues() {
-        // select * from pque_queue_list();
-        List<String> qList=operations.queryForList("select * from pque_queue_list()",String.class);
-        return qList;
+        return backend.listQueues();
     }
 
 
@@ -272,17 +780,29 @@ public class PQUEClient {
 
 
     public PQUEMetric getMetrics(String queue) {
-        PQUEMetric m=operations.queryForObject("select * from pque_metrics(?)",(rs,rn) -> {
-            return new PQUEMetric(
-                rs.getString("queue_name"),
-                rs.getLong("queue_length"),
-                rs.getInt("newest_msg_age_sec"),
-                rs.getInt("oldest_msg_age_sec"),
-                rs.getLong("total_messages"),
-                rs.getTimestamp("scrape_time").toLocalDateTime()
-            );
-        }, queue);
-        return m;
+        return backend.metrics(queue);
+    }
+
+    /** Storage metrics (dead tuples, sizes, last vacuum) of all the queues, in one query */
+    public List<PQUEStorageMetric> getStorageMetrics() {
+        return backend.storageMetrics(null);
+    }
+
+    /** Storage metrics of the queue table and of its archive */
+    public List<PQUEStorageMetric> getStorageMetrics(String queue) {
+        validateQueueName(queue);
+        return backend.storageMetrics(queue);
+    }
+
+    /**
+     * Server-side load generator: inserts count copies of the template (a JSON object) in one statement.
+     * Each copy gets a "load_seq" key.
+     * @return the number of messages inserted
+     */
+    public <T> long generateLoad(String queue, int count, T template) {
+        validateQueueName(queue);
+        Assert.isTrue(count > 0, "Number of messages must be positive!");
+        return backend.generateLoad(queue, count, jsonProcessor.toJson(template));
     }
 
 }
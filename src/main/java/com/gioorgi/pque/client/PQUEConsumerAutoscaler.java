@@ -0,0 +1,130 @@
+package com.gioorgi.pque.client;
+
+import java.time.Duration;
+import java.util.function.BooleanSupplier;
+
+import javax.sql.DataSource;
+
+import org.springframework.util.Assert;
+import org.springframework.util.ClassUtils;
+
+import com.gioorgi.pque.client.config.PQUEConfiguration;
+import com.zaxxer.hikari.HikariDataSource;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Lag-driven concurrency of a {@link PQUEConsumerContainer}, between minConcurrency and maxConcurrency.
+ * Every pque.autoscale.intervalMs the queue depth and the oldest message age (pque_metrics) are compared
+ * with the container throughput:
+ * <ul>
+ * <li>behind: the oldest message is older than pque.autoscale.targetLagSeconds, or the backlog needs more
+ * than targetLagSeconds at the current throughput. Concurrency grows by half, at least by one</li>
+ * <li>idle: empty queue, or lag and backlog below half of the target. Concurrency shrinks by one</li>
+ * </ul>
+ * Hysteresis: the same verdict is needed on scaleUpSamples (scaleDownSamples) consecutive samples before acting.
+ * The container never grows while the connection pool is saturated: more threads would only wait for connections.
+ *
+ * Run it with {@link #register(PQUEMaintenance)}.
+ *
+ * @author GG
+ */
+@Slf4j
+public class PQUEConsumerAutoscaler {
+
+    private final PQUEClient client;
+    private final PQUEConsumerContainer container;
+    private final int minConcurrency;
+    private final int maxConcurrency;
+    private final PQUEConfiguration.Autoscale configuration;
+    private final BooleanSupplier poolSaturated;
+
+    private long lastProcessed;
+    private long lastSampleNanos;
+    private int behindSamples;
+    private int idleSamples;
+
+    public PQUEConsumerAutoscaler(PQUEClient client, PQUEConsumerContainer container, int minConcurrency, int maxConcurrency,
+            PQUEConfiguration.Autoscale configuration, BooleanSupplier poolSaturated) {
+        Assert.isTrue(minConcurrency > 0 && minConcurrency <= maxConcurrency, "Concurrency bounds must be 0 < min <= max!");
+        Assert.notNull(poolSaturated, "Pool saturation must not be null!");
+        this.client = client;
+        this.container = container;
+        this.minConcurrency = minConcurrency;
+        this.maxConcurrency = maxConcurrency;
+        this.configuration = configuration;
+        this.poolSaturated = poolSaturated;
+        this.lastProcessed = container.getProcessed();
+        this.lastSampleNanos = System.nanoTime();
+    }
+
+    /** Schedule adjust() as the "autoscale-[queue]" maintenance job */
+    public void register(PQUEMaintenance maintenance) {
+        maintenance.register("autoscale-" + container.getQueue(),
+                Duration.ofMillis(configuration.getIntervalMs()), this::adjust);
+    }
+
+    /** Take a sample and change the concurrency if needed */
+    public synchronized void adjust() {
+        if (!container.isRunning()) {
+            return;
+        }
+        var metric = client.getMetrics(container.getQueue());
+        long now = System.nanoTime();
+        long processed = container.getProcessed();
+        double seconds = Math.max(0.001, (now - lastSampleNanos) / 1e9);
+        double throughput = (processed - lastProcessed) / seconds;
+        lastProcessed = processed;
+        lastSampleNanos = now;
+
+        int current = container.getConcurrency();
+        int target = target(current, metric.getQueueLength(), metric.getOldestMsgAgeSec(), throughput, poolSaturated.getAsBoolean());
+        if (target != current) {
+            log.info("Scaling {} from {} to {}: length {} oldest {}s throughput {}/s",
+                    container.getQueue(), current, target, metric.getQueueLength(), metric.getOldestMsgAgeSec(), (long) throughput);
+            container.setConcurrency(target);
+        }
+    }
+
+    /** The concurrency for this sample, updating the hysteresis counters */
+    int target(int current, long queueLength, int oldestMsgAgeSec, double throughput, boolean saturated) {
+        int targetLag = configuration.getTargetLagSeconds();
+        // Seconds needed to drain the backlog at the current pace
+        double drainSeconds = throughput > 0 ? queueLength / throughput : (queueLength > 0 ? Double.MAX_VALUE : 0);
+        boolean behind = oldestMsgAgeSec > targetLag || drainSeconds > targetLag;
+        boolean idle = queueLength == 0 || (oldestMsgAgeSec < targetLag / 2.0 && drainSeconds < targetLag / 2.0);
+
+        behindSamples = behind ? behindSamples + 1 : 0;
+        idleSamples = idle ? idleSamples + 1 : 0;
+
+        if (behindSamples >= configuration.getScaleUpSamples() && current < maxConcurrency) {
+            behindSamples = 0;
+            if (saturated) {
+                log.debug("Not scaling {} up: connection pool saturated", container.getQueue());
+                return current;
+            }
+            return Math.min(maxConcurrency, current + Math.max(1, current / 2));
+        }
+        if (idleSamples >= configuration.getScaleDownSamples() && current > minConcurrency) {
+            idleSamples = 0;
+            return current - 1;
+        }
+        return current;
+    }
+
+    /**
+     * Saturation of a Hikari pool: some threads are waiting for a connection.
+     * Never saturated for other pools.
+     */
+    public static BooleanSupplier poolSaturation(DataSource dataSource) {
+        if (ClassUtils.isPresent("com.zaxxer.hikari.HikariDataSource", PQUEConsumerAutoscaler.class.getClassLoader())
+                && dataSource instanceof HikariDataSource) {
+            var hikari = (HikariDataSource) dataSource;
+            return () -> {
+                var pool = hikari.getHikariPoolMXBean();
+                return pool != null && pool.getThreadsAwaitingConnection() > 0;
+            };
+        }
+        return () -> false;
+    }
+}
@@ -0,0 +1,324 @@
+package com.gioorgi.pque.client;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.springframework.context.SmartLifecycle;
+import org.springframework.util.Assert;
+
+import com.gioorgi.pque.client.config.PQUEVisiblityTimeout;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Consumer of a queue with a graceful shutdown, started and stopped with the application context.
+ * A fetcher thread reads batches (with backoff when idle) and hands the messages to concurrency worker threads.
+ * At most concurrency + batchSize messages are leased at once, so nothing piles up in unbounded queues.
+ * Concurrency can be changed while running, i.e. by a {@link PQUEConsumerAutoscaler}.
+ * With a {@link PQUEPartitionedReader} the fetcher reads its own slot first, and leaves it on stop.
+ * The handler owns the message: it must delete, archive or forward it; if it throws the message
+ * stays leased and is read again after the visibility timeout.
+ *
+ * Shutdown, within shutdownTimeout:
+ * <ol>
+ * <li>fetching stops</li>
+ * <li>running handlers finish, messages not yet started are not handled</li>
+ * <li>every message still unprocessed (not started, or whose handler did not finish in time) is released
+ * with one pque_set_vt call, so other consumers get it immediately instead of after the visibility timeout</li>
+ * </ol>
+ *
+ * @see PQUEClient#consumerContainer(String, int, Consumer)
+ * @author GG
+ */
+@Slf4j
+public class PQUEConsumerContainer implements SmartLifecycle {
+
+    private final PQUEClient client;
+    private final String queue;
+    private final PQUEVisiblityTimeout visibilityTimeout;
+    private final int batchSize;
+    private final Duration shutdownTimeout;
+    private final Duration maxBackoff;
+    private final Consumer<PQUEMessage> handler;
+    private final PQUEBackoffPoller<PQUEMessage> poller;
+    private final PQUEPartitionedReader partitionedReader;
+
+    /** Semaphore shrinking with the concurrency */
+    private static class Permits extends Semaphore {
+        Permits(int permits) {
+            super(permits);
+        }
+
+        void reduce(int reduction) {
+            reducePermits(reduction);
+        }
+    }
+
+    private final Permits permits;
+    private final LinkedBlockingQueue<PQUEMessage> pending = new LinkedBlockingQueue<>();
+    // Messages whose handler is running
+    private final Map<Long, PQUEMessage> inFlight = new ConcurrentHashMap<>();
+    private final AtomicInteger workerCount = new AtomicInteger();
+    private final AtomicLong processed = new AtomicLong();
+    private volatile int concurrency;
+    private volatile int requested;
+    private volatile boolean running;
+    private Thread fetcher;
+    private ExecutorService workers;
+
+    public PQUEConsumerContainer(PQUEClient client, String queue, PQUEVisiblityTimeout visibilityTimeout, int batchSize,
+            int concurrency, Duration minBackoff, Duration maxBackoff, Duration shutdownTimeout, Consumer<PQUEMessage> handler) {
+        this(client, queue, visibilityTimeout, batchSize, concurrency, minBackoff, maxBackoff, shutdownTimeout, null, handler);
+    }
+
+    /** @param partitionedReader null to read the whole queue */
+    public PQUEConsumerContainer(PQUEClient client, String queue, PQUEVisiblityTimeout visibilityTimeout, int batchSize,
+            int concurrency, Duration minBackoff, Duration maxBackoff, Duration shutdownTimeout,
+            PQUEPartitionedReader partitionedReader, Consumer<PQUEMessage> handler) {
+        Assert.isTrue(batchSize > 0, "Batch size must be positive!");
+        Assert.isTrue(concurrency > 0, "Concurrency must be positive!");
+        Assert.notNull(handler, "Handler must not be null!");
+        this.client = client;
+        this.queue = queue;
+        this.visibilityTimeout = visibilityTimeout;
+        this.batchSize = batchSize;
+        this.concurrency = concurrency;
+        this.shutdownTimeout = shutdownTimeout;
+        this.maxBackoff = maxBackoff;
+        this.handler = handler;
+        // One message for each worker, plus a batch waiting for them
+        this.permits = new Permits(concurrency + batchSize);
+        this.partitionedReader = partitionedReader;
+        Supplier<List<PQUEMessage>> fetch = partitionedReader == null
+                ? () -> client.readBatch(queue, visibilityTimeout, requested)
+                : () -> partitionedReader.read(visibilityTimeout, requested);
+        this.poller = new PQUEBackoffPoller<>(fetch, minBackoff, maxBackoff);
+    }
+
+    @Override
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        workers = Executors.newCachedThreadPool(r -> new Thread(r, "pque-consumer-" + queue));
+        spawnWorkers();
+        fetcher = new Thread(this::fetch, "pque-fetcher-" + queue);
+        fetcher.setDaemon(true);
+        fetcher.start();
+        log.info("Started {} consumers on {}", concurrency, queue);
+    }
+
+    private void fetch() {
+        while (running) {
+            int acquired = 0;
+            boolean failed = false;
+            try {
+                permits.acquire();
+                acquired = 1;
+                int more = Math.min(batchSize - 1, permits.availablePermits());
+                if (more > 0 && permits.tryAcquire(more)) {
+                    acquired += more;
+                }
+                requested = acquired;
+                var messages = poller.poll();
+                acquired -= messages.size();
+                pending.addAll(messages);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.error("Fetch failed on {}", queue, e);
+                failed = true;
+            } finally {
+                permits.release(acquired);
+            }
+            if (failed && !pause(maxBackoff)) {
+                return;
+            }
+        }
+    }
+
+    /** @return false if interrupted */
+    private static boolean pause(Duration duration) {
+        try {
+            Thread.sleep(duration.toMillis());
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void spawnWorkers() {
+        while (workerCount.get() < concurrency) {
+            workerCount.incrementAndGet();
+            workers.execute(this::work);
+        }
+    }
+
+    /** Stop this worker if there are more workers than the concurrency */
+    private boolean retire() {
+        int current;
+        do {
+            current = workerCount.get();
+            if (current <= concurrency) {
+                return false;
+            }
+        } while (!workerCount.compareAndSet(current, current - 1));
+        return true;
+    }
+
+    private void work() {
+        boolean retired = false;
+        try {
+            while (running) {
+                if (retire()) {
+                    retired = true;
+                    return;
+                }
+                PQUEMessage message;
+                try {
+                    message = pending.poll(100, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (message == null) {
+                    continue;
+                }
+                // A shutdown between poll and put leaves the message to the release in stop()
+                if (!running) {
+                    pending.add(message);
+                    return;
+                }
+                handle(message);
+            }
+        } finally {
+            if (!retired) {
+                workerCount.decrementAndGet();
+            }
+        }
+    }
+
+    private void handle(PQUEMessage message) {
+        inFlight.put(message.id(), message);
+        long start = System.nanoTime();
+        try {
+            handler.accept(message);
+        } catch (RuntimeException e) {
+            log.error("Handler failed on message {} of {}", message.id(), queue, e);
+        } finally {
+            client.getConsumerMetrics().recordHandlerTime(queue, System.nanoTime() - start);
+            inFlight.remove(message.id());
+            processed.incrementAndGet();
+            permits.release();
+        }
+    }
+
+    /**
+     * Change the number of handler threads: new workers start at once,
+     * the extra ones stop after their current message.
+     */
+    public synchronized void setConcurrency(int newConcurrency) {
+        Assert.isTrue(newConcurrency > 0, "Concurrency must be positive!");
+        int delta = newConcurrency - concurrency;
+        if (delta == 0) {
+            return;
+        }
+        concurrency = newConcurrency;
+        if (delta > 0) {
+            permits.release(delta);
+        } else {
+            permits.reduce(-delta);
+        }
+        if (running) {
+            spawnWorkers();
+        }
+        log.info("Concurrency of {} set to {}", queue, newConcurrency);
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public String getQueue() {
+        return queue;
+    }
+
+    /** Messages handled since the start, successfully or not */
+    public long getProcessed() {
+        return processed.get();
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        long stopAt = System.nanoTime() + shutdownTimeout.toNanos();
+        running = false;
+        List<Long> unfinished = new ArrayList<>();
+        try {
+            fetcher.interrupt();
+            fetcher.join(Math.max(1, shutdownTimeout.toMillis()));
+            workers.shutdown();
+            if (!workers.awaitTermination(Math.max(0, stopAt - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                log.warn("Handlers of {} still running after {}, interrupting them", queue, shutdownTimeout);
+                // Taken before the interrupt: an interrupted handler leaves in-flight at once
+                unfinished.addAll(inFlight.keySet());
+                workers.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            unfinished.addAll(inFlight.keySet());
+            workers.shutdownNow();
+        }
+        releaseUnprocessed(unfinished);
+        if (partitionedReader != null) {
+            try {
+                partitionedReader.leave();
+            } catch (RuntimeException e) {
+                log.warn("Cannot leave the slot of {}: taken over after the consumer timeout", queue, e);
+            }
+        }
+    }
+
+    private void releaseUnprocessed(List<Long> ids) {
+        PQUEMessage message;
+        while ((message = pending.poll()) != null) {
+            ids.add(message.id());
+        }
+        if (ids.isEmpty()) {
+            log.info("Stopped consumers on {}", queue);
+            return;
+        }
+        try {
+            var released = client.release(queue, ids);
+            log.info("Stopped consumers on {}, released {} unprocessed messages", queue, released.size());
+        } catch (RuntimeException e) {
+            log.error("Cannot release {} messages of {}: visible again after the visibility timeout", ids.size(), queue, e);
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /** Messages leased and not yet processed */
+    public int getPending() {
+        return pending.size() + inFlight.size();
+    }
+}
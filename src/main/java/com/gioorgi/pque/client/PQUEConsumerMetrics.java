@@ -0,0 +1,102 @@
+package com.gioorgi.pque.client;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Consumer-side instrumentation, per queue: time spent in the queue, time spent in the handler and read count.
+ * Recording is wait-free (HdrHistogram Recorder), so it can be called from any consumer thread;
+ * only the (rare) snapshot synchronizes.
+ *
+ * The wait time compares enqueued_at (database clock) with the client clock: keep them in sync.
+ *
+ * @author GG
+ */
+public class PQUEConsumerMetrics {
+
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private static class QueueMetrics {
+        final Recorder waitTime = new Recorder(SIGNIFICANT_DIGITS);
+        final Recorder handlerTime = new Recorder(SIGNIFICANT_DIGITS);
+        final Recorder readCount = new Recorder(SIGNIFICANT_DIGITS);
+        // Accumulated by snapshot(), guarded by this
+        final Histogram totalWaitTime = new Histogram(SIGNIFICANT_DIGITS);
+        final Histogram totalHandlerTime = new Histogram(SIGNIFICANT_DIGITS);
+        final Histogram totalReadCount = new Histogram(SIGNIFICANT_DIGITS);
+
+        synchronized PQUELatencyStats snapshot(String queue) {
+            totalWaitTime.add(waitTime.getIntervalHistogram());
+            totalHandlerTime.add(handlerTime.getIntervalHistogram());
+            totalReadCount.add(readCount.getIntervalHistogram());
+            return new PQUELatencyStats(queue,
+                    PQUELatencyStats.Summary.of(totalWaitTime),
+                    PQUELatencyStats.Summary.of(totalHandlerTime),
+                    PQUELatencyStats.Summary.of(totalReadCount));
+        }
+
+        synchronized void reset() {
+            waitTime.reset();
+            handlerTime.reset();
+            readCount.reset();
+            totalWaitTime.reset();
+            totalHandlerTime.reset();
+            totalReadCount.reset();
+        }
+    }
+
+    private final Map<String, QueueMetrics> queues = new ConcurrentHashMap<>();
+
+    private QueueMetrics of(String queue) {
+        return queues.computeIfAbsent(queue, q -> new QueueMetrics());
+    }
+
+    /** Record a message just taken from the queue (read or pop) */
+    public void recordDequeue(String queue, PQUEMessage message) {
+        var metrics = of(queue);
+        if (message.getEnqueuedAt() != null) {
+            long waitMicros = Duration.between(message.getEnqueuedAt().toInstant(), Instant.now()).toNanos() / 1000;
+            // A client clock behind the database one gives a negative wait
+            metrics.waitTime.recordValue(Math.max(0, waitMicros));
+        }
+        if (message.getReadCounter() != null) {
+            metrics.readCount.recordValue(Math.max(0, message.getReadCounter()));
+        }
+    }
+
+    /** Same as {@link #recordDequeue(String, PQUEMessage)}, for the lean reads */
+    public void recordDequeue(String queue, long enqueuedAtMillis, long readCounter) {
+        var metrics = of(queue);
+        metrics.waitTime.recordValue(Math.max(0, (System.currentTimeMillis() - enqueuedAtMillis) * 1000));
+        metrics.readCount.recordValue(Math.max(0, readCounter));
+    }
+
+    /** Record the time spent by the handler of one message */
+    public void recordHandlerTime(String queue, long nanos) {
+        of(queue).handlerTime.recordValue(Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos)));
+    }
+
+    /** Statistics since the start (or the last reset), null if nothing was consumed from the queue */
+    public PQUELatencyStats getStats(String queue) {
+        var metrics = queues.get(queue);
+        return metrics == null ? null : metrics.snapshot(queue);
+    }
+
+    /** Statistics of all the consumed queues, by queue name */
+    public Map<String, PQUELatencyStats> getStats() {
+        var stats = new TreeMap<String, PQUELatencyStats>();
+        queues.forEach((queue, metrics) -> stats.put(queue, metrics.snapshot(queue)));
+        return stats;
+    }
+
+    public void reset() {
+        queues.values().forEach(QueueMetrics::reset);
+    }
+}
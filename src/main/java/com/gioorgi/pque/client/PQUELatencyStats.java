@@ -0,0 +1,45 @@
+package com.gioorgi.pque.client;
+
+import org.HdrHistogram.Histogram;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Snapshot of the consumer-side statistics of a queue, see {@link PQUEConsumerMetrics}.
+ * Times are in microseconds.
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class PQUELatencyStats {
+
+    @Getter
+    @ToString
+    @AllArgsConstructor
+    public static class Summary {
+        long count;
+        double mean;
+        long p50;
+        long p90;
+        long p99;
+        long p999;
+        long max;
+
+        static Summary of(Histogram h) {
+            return new Summary(h.getTotalCount(), h.getMean(),
+                    h.getValueAtPercentile(50), h.getValueAtPercentile(90),
+                    h.getValueAtPercentile(99), h.getValueAtPercentile(99.9),
+                    h.getMaxValue());
+        }
+    }
+
+    String queueName;
+    /** Time spent in the queue: dequeue time minus enqueued_at */
+    Summary waitTime;
+    /** Time spent in the handler */
+    Summary handlerTime;
+    /** read_ct at dequeue: above 1 (0 for pop) the message was already delivered and not acknowledged */
+    Summary readCount;
+}
@@ -0,0 +1,211 @@
+package com.gioorgi.pque.client;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.springframework.context.SmartLifecycle;
+import org.springframework.util.Assert;
+
+import com.gioorgi.pque.client.config.PQUEConfiguration;
+
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Background maintenance of the queues: jobs run with a fixed delay on a single daemon thread,
+ * started and stopped with the application context.
+ * A failing job is logged and retried at the next round.
+ *
+ * Built-in jobs are registered from the configuration:
+ * <ul>
+ * <li>archive-flush: moves the lazily archived messages to the archive tables (pque.lazyArchive)</li>
+ * <li>expire: deletes the expired messages the consumers did not reach (pque.expireIntervalMs)</li>
+ * <li>payload-gc: deletes the claim check payloads of removed messages (pque.payloadGcIntervalMs)</li>
+ * <li>promote: moves the due scheduled messages to their queue (pque.promoteIntervalMs)</li>
+ * <li>checkpoint: copies the hybrid queues to their shadow, restoring them after a crash (pque.checkpointIntervalMs)</li>
+ * </ul>
+ *
+ * @author GG
+ */
+@Slf4j
+public class PQUEMaintenance implements SmartLifecycle {
+
+    @Value
+    private static class Job {
+        String name;
+        Duration interval;
+        Runnable task;
+    }
+
+    private final PQUEClient client;
+    private final PQUEConfiguration configuration;
+    private final List<Job> jobs = new CopyOnWriteArrayList<>();
+    private volatile ScheduledExecutorService scheduler;
+
+    public PQUEMaintenance(PQUEClient client, PQUEConfiguration configuration) {
+        this.client = client;
+        this.configuration = configuration;
+        if (configuration.isLazyArchive() || !lazyArchiveQueues().isEmpty()) {
+            register("archive-flush", Duration.ofMillis(configuration.getArchiveFlushIntervalMs()), this::flushArchives);
+        }
+        if (configuration.getExpireIntervalMs() > 0) {
+            register("expire", Duration.ofMillis(configuration.getExpireIntervalMs()), this::expire);
+        }
+        if (configuration.getPayloadGcIntervalMs() > 0) {
+            register("payload-gc", Duration.ofMillis(configuration.getPayloadGcIntervalMs()), this::collectPayloads);
+        }
+        if (configuration.getPromoteIntervalMs() > 0) {
+            register("promote", Duration.ofMillis(configuration.getPromoteIntervalMs()), this::promote);
+        }
+        if (configuration.getCheckpointIntervalMs() > 0) {
+            register("checkpoint", Duration.ofMillis(configuration.getCheckpointIntervalMs()), this::checkpoint);
+        }
+    }
+
+    /** Add a job, scheduled immediately if the maintenance is running */
+    public synchronized void register(String name, Duration interval, Runnable task) {
+        Assert.isTrue(!interval.isNegative() && !interval.isZero(), "Interval must be positive!");
+        var job = new Job(name, interval, task);
+        jobs.add(job);
+        if (isRunning()) {
+            schedule(job);
+        }
+    }
+
+    public List<String> getJobNames() {
+        return jobs.stream().map(Job::getName).collect(Collectors.toList());
+    }
+
+    private void schedule(Job job) {
+        long intervalMs = job.getInterval().toMillis();
+        scheduler.scheduleWithFixedDelay(() -> run(job), intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        log.info("Scheduled {} every {}", job.getName(), job.getInterval());
+    }
+
+    private void run(Job job) {
+        try {
+            job.getTask().run();
+        } catch (RuntimeException e) {
+            log.error("Maintenance job {} failed", job.getName(), e);
+        }
+    }
+
+    private List<String> lazyArchiveQueues() {
+        return configuration.getQueues().keySet().stream()
+                .filter(configuration::isLazyArchive)
+                .collect(Collectors.toList());
+    }
+
+    /** Drain every lazy archive queue, archiveFlushBatchSize messages per statement */
+    void flushArchives() {
+        int batchSize = configuration.getArchiveFlushBatchSize();
+        var queues = configuration.isLazyArchive() ? client.listQueues() : lazyArchiveQueues();
+        for (var queue : queues) {
+            if (!configuration.isLazyArchive(queue)) {
+                continue;
+            }
+            long moved;
+            long total = 0;
+            do {
+                moved = client.flushArchive(queue, batchSize);
+                total += moved;
+            } while (moved == batchSize && isRunning());
+            if (total > 0) {
+                log.debug("Archived {} messages of {}", total, queue);
+            }
+        }
+    }
+
+    /** Sweep every queue, expireBatchSize messages per statement */
+    void expire() {
+        int batchSize = configuration.getExpireBatchSize();
+        for (var queue : client.listQueues()) {
+            long deleted;
+            long total = 0;
+            do {
+                deleted = client.expire(queue, batchSize);
+                total += deleted;
+            } while (deleted == batchSize && isRunning());
+            if (total > 0) {
+                log.debug("Expired {} messages of {}", total, queue);
+            }
+        }
+    }
+
+    /** Sweep every queue, payloadGcBatchSize payloads per statement */
+    void collectPayloads() {
+        int batchSize = configuration.getPayloadGcBatchSize();
+        for (var queue : client.listQueues()) {
+            long deleted;
+            long total = 0;
+            do {
+                deleted = client.collectPayloads(queue, batchSize);
+                total += deleted;
+            } while (deleted == batchSize && isRunning());
+            if (total > 0) {
+                log.debug("Deleted {} payloads of {}", total, queue);
+            }
+        }
+    }
+
+    /** Sweep every queue, promoteBatchSize messages per statement */
+    void promote() {
+        int batchSize = configuration.getPromoteBatchSize();
+        for (var queue : client.listQueues()) {
+            long moved;
+            long total = 0;
+            do {
+                moved = client.promote(queue, batchSize);
+                total += moved;
+            } while (moved == batchSize && isRunning());
+            if (total > 0) {
+                log.debug("Promoted {} scheduled messages of {}", total, queue);
+            }
+        }
+    }
+
+    void checkpoint() {
+        long copied = client.checkpointAll();
+        if (copied > 0) {
+            log.debug("Checkpointed {} messages", copied);
+        }
+    }
+
+    @Override
+    public synchronized void start() {
+        if (isRunning()) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "pque-maintenance");
+            t.setDaemon(true);
+            return t;
+        });
+        jobs.forEach(this::schedule);
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (!isRunning()) {
+            return;
+        }
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        scheduler = null;
+    }
+
+    @Override
+    public boolean isRunning() {
+        var current = scheduler;
+        return current != null && !current.isShutdown();
+    }
+}
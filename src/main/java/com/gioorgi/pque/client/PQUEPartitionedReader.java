@@ -0,0 +1,78 @@
+package com.gioorgi.pque.client;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+
+import org.springframework.util.Assert;
+
+import com.gioorgi.pque.client.backend.PQUEBackend.ConsumerSlot;
+import com.gioorgi.pque.client.config.PQUEConfiguration;
+import com.gioorgi.pque.client.config.PQUEVisiblityTimeout;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Partitioned claims of one consumer of a queue: many consumers no more race on the same first rows.
+ * The consumer registers in t_pque_consumer and gets slot k of N (the live consumers);
+ * each read takes the messages with msg_id % N = k first, and steals from the other slots only
+ * when its own cannot fill the read (pque_read_partitioned).
+ * The heartbeat runs on read, every pque.claims.heartbeatIntervalMs, and follows the membership changes.
+ * Call {@link #leave()} when done, or the slot stays taken until pque.claims.timeoutSeconds.
+ *
+ * @see PQUEClient#partitionedReader(String)
+ * @author GG
+ */
+@Slf4j
+public class PQUEPartitionedReader {
+
+    private final PQUEClient client;
+    private final String queue;
+    private final String consumerId;
+    private final long heartbeatIntervalNanos;
+    private final int timeoutSeconds;
+
+    private ConsumerSlot slot;
+    private long lastHeartbeatNanos;
+
+    public PQUEPartitionedReader(PQUEClient client, String queue, PQUEConfiguration.Claims configuration) {
+        Assert.isTrue(configuration.getTimeoutSeconds() * 1000L > configuration.getHeartbeatIntervalMs(),
+                "Consumer timeout must be longer than the heartbeat interval!");
+        this.client = client;
+        this.queue = queue;
+        this.consumerId = UUID.randomUUID().toString();
+        this.heartbeatIntervalNanos = Duration.ofMillis(configuration.getHeartbeatIntervalMs()).toNanos();
+        this.timeoutSeconds = configuration.getTimeoutSeconds();
+    }
+
+    /** Lease up to quantity messages, the ones of this consumer slot first */
+    public synchronized List<PQUEMessage> read(PQUEVisiblityTimeout visibilityTimeout, int quantity) {
+        long now = System.nanoTime();
+        if (slot == null || now - lastHeartbeatNanos >= heartbeatIntervalNanos) {
+            var current = client.heartbeat(queue, consumerId, timeoutSeconds);
+            if (!current.equals(slot)) {
+                log.info("Consumer {} of {} now on slot {} of {}", consumerId, queue, current.getSlot(), current.getSlots());
+            }
+            slot = current;
+            lastHeartbeatNanos = now;
+        }
+        return client.readPartitioned(queue, visibilityTimeout, quantity, slot);
+    }
+
+    /** Give the slot to the other consumers now */
+    public synchronized void leave() {
+        if (slot != null) {
+            client.leave(queue, consumerId);
+            slot = null;
+        }
+    }
+
+    public String getConsumerId() {
+        return consumerId;
+    }
+
+    /** The slot of the last heartbeat, null before the first read */
+    public synchronized ConsumerSlot getSlot() {
+        return slot;
+    }
+}
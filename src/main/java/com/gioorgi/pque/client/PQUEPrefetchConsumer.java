@@ -0,0 +1,215 @@
+package com.gioorgi.pque.client;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.springframework.util.Assert;
+
+import com.gioorgi.pque.client.config.PQUEVisiblityTimeout;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Prefetching consumer: keeps up to capacity messages leased in a local buffer, so handlers
+ * do not wait for a database round trip. When the buffer falls below lowWaterMark it is topped up
+ * asynchronously with readBatch.
+ *
+ * Buffered messages are still leased (read with visibilityTimeout): when the remaining lease drops
+ * below leaseMargin they are extended with pque_set_vt if extendLeases is true, otherwise they are
+ * released (made visible again) for other consumers. A release means the buffer is larger than what the
+ * caller consumes: the buffer shrinks by the released messages, and is not topped up in background
+ * until the next take, so released messages are not leased again at once. Takes grow it back to capacity.
+ * Once taken, the message belongs to the caller: it must be deleted or archived before its lease expires.
+ *
+ * Leases are tracked with the local clock from the read request, so they are not affected by the
+ * skew between client and database clocks.
+ *
+ * @author GG
+ */
+@Slf4j
+public class PQUEPrefetchConsumer implements AutoCloseable {
+
+    private static class Lease {
+        final PQUEMessage message;
+        volatile long deadlineNanos;
+
+        Lease(PQUEMessage message, long deadlineNanos) {
+            this.message = message;
+            this.deadlineNanos = deadlineNanos;
+        }
+    }
+
+    private final PQUEClient client;
+    private final String queue;
+    private final int capacity;
+    private final int lowWaterMark;
+    private final PQUEVisiblityTimeout visibilityTimeout;
+    private final long leaseMarginNanos;
+    private final boolean extendLeases;
+
+    private final LinkedBlockingDeque<Lease> buffer = new LinkedBlockingDeque<>();
+    private final AtomicBoolean fetching = new AtomicBoolean();
+    // Messages to keep buffered, between 1 and capacity
+    private final AtomicInteger target;
+    // Set by a release, cleared by a take: no background fetch meanwhile
+    private volatile boolean idle;
+    private final ScheduledExecutorService scheduler;
+    private volatile boolean closed;
+
+    public PQUEPrefetchConsumer(PQUEClient client, String queue, int capacity, int lowWaterMark,
+            PQUEVisiblityTimeout visibilityTimeout, Duration leaseMargin, boolean extendLeases) {
+        Assert.isTrue(capacity > 0, "Capacity must be positive!");
+        Assert.isTrue(lowWaterMark > 0 && lowWaterMark <= capacity, "Low water mark must be between 1 and capacity!");
+        Assert.isTrue(leaseMargin.getSeconds() < visibilityTimeout.getSeconds(), "Lease margin must be shorter than the visibility timeout!");
+        this.client = client;
+        this.queue = queue;
+        this.capacity = capacity;
+        this.lowWaterMark = lowWaterMark;
+        this.visibilityTimeout = visibilityTimeout;
+        this.leaseMarginNanos = leaseMargin.toNanos();
+        this.extendLeases = extendLeases;
+        this.target = new AtomicInteger(capacity);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "pque-prefetch-" + queue);
+            t.setDaemon(true);
+            return t;
+        });
+        // Check the leases often enough to never miss the margin
+        long checkMs = Math.max(100, leaseMargin.toMillis() / 2);
+        scheduler.scheduleWithFixedDelay(this::maintain, 0, checkMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Take the next leased message, waiting up to timeout for one.
+     * @return empty if nothing arrived within the timeout
+     */
+    public Optional<PQUEMessage> take(Duration timeout) throws InterruptedException {
+        Assert.state(!closed, "Consumer is closed");
+        long stopAt = System.nanoTime() + timeout.toNanos();
+        while (true) {
+            if (buffer.size() < lowWaterMark) {
+                triggerFetch();
+            }
+            Lease lease = buffer.poll(Math.max(0, stopAt - System.nanoTime()), TimeUnit.NANOSECONDS);
+            if (lease == null) {
+                return Optional.empty();
+            }
+            if (lease.deadlineNanos - System.nanoTime() > 0) {
+                idle = false;
+                target.updateAndGet(t -> Math.min(capacity, t + 1));
+                return Optional.of(lease.message);
+            }
+            // Lease expired while buffered: another consumer may own the message now
+            log.debug("Dropped message {} of {}: lease expired", lease.message.id(), queue);
+        }
+    }
+
+    public int getBuffered() {
+        return buffer.size();
+    }
+
+    private void triggerFetch() {
+        if (!closed && fetching.compareAndSet(false, true)) {
+            scheduler.execute(this::fetch);
+        }
+    }
+
+    private void fetch() {
+        try {
+            int missing = target.get() - buffer.size();
+            if (closed || missing <= 0) {
+                return;
+            }
+            long readAt = System.nanoTime();
+            long deadline = readAt + TimeUnit.SECONDS.toNanos(visibilityTimeout.getSeconds());
+            for (var message : client.readBatch(queue, visibilityTimeout, missing)) {
+                buffer.add(new Lease(message, deadline));
+            }
+        } catch (RuntimeException e) {
+            log.error("Prefetch failed on {}", queue, e);
+        } finally {
+            fetching.set(false);
+        }
+    }
+
+    private void maintain() {
+        try {
+            if (!idle && buffer.size() < lowWaterMark) {
+                fetch();
+            }
+            long limit = System.nanoTime() + leaseMarginNanos;
+            List<Lease> expiring = buffer.stream()
+                    .filter(lease -> lease.deadlineNanos - limit < 0)
+                    .collect(Collectors.toList());
+            if (expiring.isEmpty()) {
+                return;
+            }
+            if (extendLeases) {
+                extend(expiring);
+            } else {
+                // Give them to other consumers, unless taken in the meantime
+                List<Long> released = new ArrayList<>();
+                for (var lease : expiring) {
+                    if (buffer.remove(lease)) {
+                        released.add(lease.message.id());
+                    }
+                }
+                idle = true;
+                target.updateAndGet(t -> Math.max(1, t - released.size()));
+                client.release(queue, released);
+                log.debug("Released {} messages of {}, buffering {}", released.size(), queue, target.get());
+            }
+        } catch (RuntimeException e) {
+            log.error("Lease maintenance failed on {}", queue, e);
+        }
+    }
+
+    private void extend(List<Lease> expiring) {
+        long extendedAt = System.nanoTime();
+        var extended = client.setVisibilityTimeoutBatch(queue,
+                expiring.stream().map(lease -> lease.message.id()).collect(Collectors.toList()),
+                visibilityTimeout);
+        long deadline = extendedAt + TimeUnit.SECONDS.toNanos(visibilityTimeout.getSeconds());
+        for (var lease : expiring) {
+            var vt = extended.get(lease.message.id());
+            if (vt != null) {
+                lease.deadlineNanos = deadline;
+                lease.message.setVisibilityTime(vt);
+            } else {
+                // Deleted by someone else
+                buffer.remove(lease);
+            }
+        }
+        log.trace("Extended {} leases of {}", extended.size(), queue);
+    }
+
+    /** Stop prefetching and release all the buffered messages */
+    @Override
+    public void close() {
+        closed = true;
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(visibilityTimeout.getSeconds(), TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        List<Long> ids = new ArrayList<>();
+        Lease lease;
+        while ((lease = buffer.poll()) != null) {
+            ids.add(lease.message.id());
+        }
+        if (!ids.isEmpty()) {
+            client.release(queue, ids);
+            log.info("Released {} prefetched messages of {}", ids.size(), queue);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.gioorgi.pque.client;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+import com.gioorgi.pque.client.PQUEClient.PQUEMetric;
+import com.gioorgi.pque.client.config.PQUEDelay;
+import com.gioorgi.pque.client.config.PQUEVisiblityTimeout;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Handle bound to a single queue, obtained via {@link PQUEClient#queue(String)}.
+ * The queue name is validated and resolved against t_pque_meta once, and the per-queue
+ * settings (pque.queues.[name].*) are resolved once too, so the hot path only binds parameters.
+ *
+ * @author GG
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class PQUEQueue {
+
+    public enum QueueType {
+        LOGGED,
+        UNLOGGED,
+        /** Unlogged, with periodic checkpoints to a logged shadow: a crash loses only the last interval */
+        HYBRID
+    }
+
+    private final String name;
+    private final QueueType type;
+    /** Storage profile the queue was created with, see t_pque_storage_profile */
+    private final String storageProfile;
+    private final PQUEDelay delay;
+    private final PQUEVisiblityTimeout visibilityTimeout;
+    private final int batchSize;
+
+    @ToString.Exclude
+    private final PQUEClient client;
+
+    public <T> long send(T objectMessage) {
+        return client.sendWithDelay(name, objectMessage, delay);
+    }
+
+    public <T> long sendWithDelay(T objectMessage, PQUEDelay delay) {
+        return client.sendWithDelay(name, objectMessage, delay);
+    }
+
+    /** See {@link PQUEClient#sendWithTtl(String, Object, PQUEDelay, Duration)} */
+    public <T> long sendWithTtl(T objectMessage, Duration timeToLive) {
+        return client.sendWithTtl(name, objectMessage, delay, timeToLive);
+    }
+
+    /** See {@link PQUEClient#sendOnCommit(String, Object)} */
+    public <T> void sendOnCommit(T objectMessage) {
+        client.sendOnCommit(name, objectMessage, delay);
+    }
+
+    public <T> List<Long> sendBatch(List<T> objectMessages) {
+        return client.sendBatchWithDelay(name, objectMessages, delay);
+    }
+
+    public Optional<PQUEMessage> read() {
+        return client.read(name, visibilityTimeout);
+    }
+
+    /** Read up to the configured batch size */
+    public List<PQUEMessage> readBatch() {
+        return client.readBatch(name, visibilityTimeout, batchSize);
+    }
+
+    public List<PQUEMessage> readBatch(int quantity) {
+        return client.readBatch(name, visibilityTimeout, quantity);
+    }
+
+    /** Read up to the configured batch size the messages containing the filter */
+    public List<PQUEMessage> readBatch(Object filter) {
+        return client.readBatch(name, visibilityTimeout, batchSize, filter);
+    }
+
+    /** Server-side long poll for up to the configured batch size */
+    public List<PQUEMessage> readWithPoll(Duration maxWait) {
+        return client.readWithPoll(name, visibilityTimeout, batchSize, maxWait);
+    }
+
+    /** Lean read of up to the configured batch size, see {@link PQUEClient#readEach} */
+    public <T> int readEach(Class<T> requiredType, PQUEClient.PQUEPayloadHandler<T> handler) {
+        return client.readEach(name, visibilityTimeout, batchSize, requiredType, handler);
+    }
+
+    public PQUEBackoffPoller<PQUEMessage> backoffPoller() {
+        return client.backoffPoller(name);
+    }
+
+    public <T> Optional<T> pop(Class<T> requiredType) {
+        return client.pop(name, requiredType);
+    }
+
+    public Optional<PQUEMessage> popMsg() {
+        return client.popMsg(name);
+    }
+
+    public Optional<PQUEMessage> popMsg(Object filter) {
+        return client.popMsg(name, filter);
+    }
+
+    public boolean delete(long messageId) {
+        return client.delete(name, messageId);
+    }
+
+    public List<Long> deleteBatch(List<Long> messageIds) {
+        return client.deleteBatch(name, messageIds);
+    }
+
+    public boolean archive(long messageId) {
+        return client.archive(name, messageId);
+    }
+
+    public List<Long> archiveBatch(List<Long> messageIds) {
+        return client.archiveBatch(name, messageIds);
+    }
+
+    /** See {@link PQUEClient#forward(String, long, String, Object)} */
+    public <T> Optional<Long> forward(long messageId, String dstQueue, T reply) {
+        return client.forward(name, messageId, dstQueue, reply);
+    }
+
+    public boolean setVisibilityTimeout(long messageId, PQUEVisiblityTimeout visibilityTimeout) {
+        return client.setVisibilityTimeout(name, messageId, visibilityTimeout);
+    }
+
+    public List<Long> release(List<Long> messageIds) {
+        return client.release(name, messageIds);
+    }
+
+    /** Prefetching consumer leasing twice the configured batch size */
+    public PQUEPrefetchConsumer prefetchConsumer(boolean extendLeases) {
+        return client.prefetchConsumer(name, batchSize * 2, extendLeases);
+    }
+
+    /** See {@link PQUEClient#consumerContainer(String, int, Consumer)} */
+    public PQUEConsumerContainer consumerContainer(int concurrency, Consumer<PQUEMessage> handler) {
+        return client.consumerContainer(name, concurrency, handler);
+    }
+
+    public PQUEMetric getMetrics() {
+        return client.getMetrics(name);
+    }
+}
@@ -0,0 +1,216 @@
+package com.gioorgi.pque.client;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.util.Assert;
+
+import com.gioorgi.pque.client.config.PQUEVisiblityTimeout;
+import com.gioorgi.pque.client.json.PQUEJsonProcessor;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Request/reply over two queues.
+ *
+ * Caller side: call() sends the request wrapped in a {@link PQUERpcEnvelope} with a new correlation id,
+ * and returns a future completed when the reply arrives. A single dispatcher thread long polls the reply queue
+ * for all the callers (only while some call is pending), deletes the replies and completes the matching futures.
+ * A timed out call is forgotten: its late reply is just deleted.
+ *
+ * Replier side: unwrap() the request, then reply(), which removes the request and sends the reply atomically
+ * (see {@link PQUEClient#forward(String, long, String, Object)}).
+ *
+ * Every application instance needs its own reply queue, otherwise instances steal each other's replies.
+ *
+ * @author GG
+ */
+@Slf4j
+public class PQUERpcClient implements AutoCloseable {
+
+    @AllArgsConstructor
+    private class PendingCall<R> {
+        final Class<R> replyType;
+        final CompletableFuture<R> future;
+
+        void complete(Object payload) {
+            try {
+                future.complete(convert(payload, replyType));
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private final PQUEClient client;
+    private final PQUEJsonProcessor jsonProcessor;
+    @Getter
+    private final String replyQueue;
+    private final int batchSize;
+    private final Duration pollWait;
+    private final PQUEVisiblityTimeout visibilityTimeout = new PQUEVisiblityTimeout(30);
+
+    private final Map<String, PendingCall<?>> pending = new ConcurrentHashMap<>();
+    private final Object dispatcherLock = new Object();
+    private Thread dispatcher;
+    private volatile boolean closed;
+
+    public PQUERpcClient(PQUEClient client, PQUEJsonProcessor jsonProcessor, String replyQueue) {
+        this(client, jsonProcessor, replyQueue, 100, Duration.ofSeconds(1));
+    }
+
+    public PQUERpcClient(PQUEClient client, PQUEJsonProcessor jsonProcessor, String replyQueue, int batchSize, Duration pollWait) {
+        Assert.notNull(replyQueue, PQUEClient.QUEUE_MUST_BE_NOT_NULL);
+        Assert.isTrue(batchSize > 0, "Batch size must be positive!");
+        this.client = client;
+        this.jsonProcessor = jsonProcessor;
+        this.replyQueue = replyQueue;
+        this.batchSize = batchSize;
+        this.pollWait = pollWait;
+    }
+
+    /**
+     * Send the request on requestQueue and wait asynchronously for the reply.
+     * @return future of the reply, completed exceptionally with a TimeoutException after timeout
+     */
+    public <T, R> CompletableFuture<R> call(String requestQueue, T request, Class<R> replyType, Duration timeout) {
+        Assert.state(!closed, "RPC client is closed");
+        String correlationId = UUID.randomUUID().toString();
+        var future = new CompletableFuture<R>();
+        // Registered before sending: the reply can be faster than us
+        pending.put(correlationId, new PendingCall<>(replyType, future));
+        future.orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS)
+              .whenComplete((reply, error) -> pending.remove(correlationId));
+        try {
+            client.send(requestQueue, new PQUERpcEnvelope(correlationId, replyQueue, request));
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            return future;
+        }
+        wakeUpDispatcher();
+        return future;
+    }
+
+    public int getPendingCalls() {
+        return pending.size();
+    }
+
+    /** The envelope of a request sent by call(), empty if the message is not an RPC request */
+    public Optional<PQUERpcEnvelope> unwrap(PQUEMessage message) {
+        try {
+            var envelope = jsonProcessor.fromJson(message.getJsonMessage(), PQUERpcEnvelope.class);
+            return Optional.ofNullable(envelope).filter(e -> e.getCorrelationId() != null && e.getReplyTo() != null);
+        } catch (PQUEException notAnEnvelope) {
+            return Optional.empty();
+        }
+    }
+
+    public <T> T payload(PQUERpcEnvelope envelope, Class<T> type) {
+        return convert(envelope.getPayload(), type);
+    }
+
+    /**
+     * Remove the request from requestQueue and send the reply to its caller, atomically
+     * @return the reply id, empty if the request was no more in requestQueue (already answered)
+     */
+    public Optional<Long> reply(String requestQueue, long requestId, PQUERpcEnvelope request, Object reply) {
+        return client.forward(requestQueue, requestId, request.getReplyTo(),
+                new PQUERpcEnvelope(request.getCorrelationId(), null, reply));
+    }
+
+    private <T> T convert(Object payload, Class<T> type) {
+        return jsonProcessor.fromJson(jsonProcessor.toJson(payload), type);
+    }
+
+    private void wakeUpDispatcher() {
+        synchronized (dispatcherLock) {
+            if (dispatcher == null) {
+                dispatcher = new Thread(this::dispatch, "pque-rpc-" + replyQueue);
+                dispatcher.setDaemon(true);
+                dispatcher.start();
+            }
+            dispatcherLock.notifyAll();
+        }
+    }
+
+    private void dispatch() {
+        while (!closed) {
+            try {
+                synchronized (dispatcherLock) {
+                    while (pending.isEmpty() && !closed) {
+                        dispatcherLock.wait();
+                    }
+                }
+                var replies = client.readWithPoll(replyQueue, visibilityTimeout, batchSize, pollWait);
+                if (replies.isEmpty()) {
+                    continue;
+                }
+                List<Long> ids = new ArrayList<>(replies.size());
+                replies.forEach(reply -> ids.add(reply.id()));
+                client.deleteBatch(replyQueue, ids);
+                replies.forEach(this::complete);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.error("Failed to dispatch replies of {}", replyQueue, e);
+                sleepQuietly();
+            }
+        }
+    }
+
+    private void complete(PQUEMessage message) {
+        PQUERpcEnvelope envelope;
+        try {
+            envelope = jsonProcessor.fromJson(message.getJsonMessage(), PQUERpcEnvelope.class);
+        } catch (PQUEException e) {
+            log.warn("Dropped reply {} of {}: not an RPC reply", message.id(), replyQueue);
+            return;
+        }
+        var call = envelope.getCorrelationId() == null ? null : pending.remove(envelope.getCorrelationId());
+        if (call == null) {
+            log.debug("Dropped reply {} of {}: no pending call for {}", message.id(), replyQueue, envelope.getCorrelationId());
+            return;
+        }
+        call.complete(envelope.getPayload());
+    }
+
+    private void sleepQuietly() {
+        try {
+            Thread.sleep(pollWait.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Stop the dispatcher and fail the pending calls */
+    @Override
+    public void close() {
+        closed = true;
+        Thread current;
+        synchronized (dispatcherLock) {
+            current = dispatcher;
+            dispatcherLock.notifyAll();
+        }
+        if (current != null) {
+            current.interrupt();
+            try {
+                current.join(pollWait.toMillis() * 2);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        var closedException = new PQUEException("RPC client closed");
+        pending.values().forEach(call -> call.future.completeExceptionally(closedException));
+        pending.clear();
+    }
+}
@@ -0,0 +1,21 @@
+package com.gioorgi.pque.client;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Message exchanged by {@link PQUERpcClient}: the request carries the queue where to send the reply,
+ * the reply carries the same correlation id of its request.
+ *
+ * @author GG
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PQUERpcEnvelope {
+    String correlationId;
+    /** Queue of the reply, null in the reply itself */
+    String replyTo;
+    Object payload;
+}
@@ -0,0 +1,70 @@
+package com.gioorgi.pque.client;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.gioorgi.pque.client.config.PQUEDelay;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Messages sent with {@link PQUEClient#sendOnCommit} inside a transaction.
+ * They are written just before the commit, with one pque_send_batch per queue and delay,
+ * inside the same transaction: on rollback nothing reaches the database.
+ *
+ * One buffer per transaction, bound as transaction resource.
+ *
+ * @author GG
+ */
+@Slf4j
+class PQUESendBuffer implements TransactionSynchronization {
+
+    private final PQUEClient client;
+    private final Object resourceKey;
+    // queue -> delay seconds -> json messages, in send order
+    private final Map<String, Map<Integer, List<String>>> pending = new LinkedHashMap<>();
+
+    PQUESendBuffer(PQUEClient client, Object resourceKey) {
+        this.client = client;
+        this.resourceKey = resourceKey;
+    }
+
+    void add(String queue, PQUEDelay delay, String jsonMessage) {
+        pending.computeIfAbsent(queue, q -> new LinkedHashMap<>())
+                .computeIfAbsent(delay.getSeconds(), d -> new ArrayList<>())
+                .add(jsonMessage);
+    }
+
+    @Override
+    public void beforeCommit(boolean readOnly) {
+        pending.forEach((queue, byDelay) -> byDelay.forEach((delay, jsonMessages) -> {
+            client.sendBatchRaw(queue, jsonMessages, new PQUEDelay(delay));
+            log.trace("Flushed {} messages on {} with delay {}", jsonMessages.size(), queue, delay);
+        }));
+        pending.clear();
+    }
+
+    @Override
+    public void suspend() {
+        TransactionSynchronizationManager.unbindResource(resourceKey);
+    }
+
+    @Override
+    public void resume() {
+        TransactionSynchronizationManager.bindResource(resourceKey, this);
+    }
+
+    @Override
+    public void afterCompletion(int status) {
+        TransactionSynchronizationManager.unbindResourceIfPossible(resourceKey);
+        if (status != STATUS_COMMITTED && !pending.isEmpty()) {
+            log.debug("Transaction not committed, discarded messages for {}", pending.keySet());
+        }
+        pending.clear();
+    }
+}
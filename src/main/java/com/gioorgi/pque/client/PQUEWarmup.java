@@ -0,0 +1,104 @@
+package com.gioorgi.pque.client;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.util.ClassUtils;
+
+import com.gioorgi.pque.client.config.PQUEConfiguration;
+import com.gioorgi.pque.client.json.PQUEJsonProcessor;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Startup warm-up (pque.warmup.*), run before the application is reported ready:
+ * <ul>
+ * <li>the message types (de)serializers are built</li>
+ * <li>the queue handles are resolved</li>
+ * <li>pque.warmup.connections connections are opened together, filling the pool,
+ * and pque_warmup() is called on each of them for every queue, so PL/pgSQL functions are compiled in every backend</li>
+ * </ul>
+ * A failed warm-up is logged and does not stop the application: it is only slower on the first messages.
+ *
+ * @author GG
+ */
+@Slf4j
+public class PQUEWarmup implements ApplicationRunner {
+
+    private final PQUEClient client;
+    private final DataSource dataSource;
+    private final PQUEJsonProcessor jsonProcessor;
+    private final PQUEConfiguration.Warmup configuration;
+
+    public PQUEWarmup(PQUEClient client, DataSource dataSource, PQUEJsonProcessor jsonProcessor, PQUEConfiguration configuration) {
+        this.client = client;
+        this.dataSource = dataSource;
+        this.jsonProcessor = jsonProcessor;
+        this.configuration = configuration.getWarmup();
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        long start = System.currentTimeMillis();
+        primeSerializers();
+        try {
+            var queues = configuration.getQueues().isEmpty() ? client.listQueues() : configuration.getQueues();
+            queues.forEach(client::queue);
+            int warmed = warmConnections(queues);
+            log.info("Warmed up {} queues on {} connections in {}ms", queues.size(), warmed, System.currentTimeMillis() - start);
+        } catch (RuntimeException e) {
+            log.warn("Queue warm-up failed", e);
+        }
+    }
+
+    void primeSerializers() {
+        for (var typeName : configuration.getMessageTypes()) {
+            try {
+                jsonProcessor.warmup(ClassUtils.forName(typeName, getClass().getClassLoader()));
+            } catch (ClassNotFoundException | LinkageError | RuntimeException e) {
+                log.warn("Cannot warm up message type {}", typeName, e);
+            }
+        }
+    }
+
+    /** Connections are all held until the end, so the pool hands out distinct ones */
+    private int warmConnections(List<String> queues) {
+        var connections = new ArrayList<Connection>();
+        try {
+            for (int i = 0; i < configuration.getConnections(); i++) {
+                var connection = dataSource.getConnection();
+                connections.add(connection);
+                warm(connection, queues);
+            }
+        } catch (SQLException e) {
+            log.warn("Warm-up stopped after {} connections", connections.size(), e);
+        } finally {
+            for (var connection : connections) {
+                try {
+                    connection.close();
+                } catch (SQLException e) {
+                    log.debug("Cannot close warm-up connection", e);
+                }
+            }
+        }
+        return connections.size();
+    }
+
+    private void warm(Connection connection, List<String> queues) throws SQLException {
+        try (var statement = connection.prepareStatement("select pque_warmup(?)")) {
+            for (var queue : queues) {
+                statement.setString(1, queue);
+                statement.execute();
+            }
+        }
+        if (!connection.getAutoCommit()) {
+            connection.commit();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.gioorgi.pque.client.actuator;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.boot.actuate.health.AbstractHealthIndicator;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.Status;
+
+import com.gioorgi.pque.client.PQUEClient;
+import com.gioorgi.pque.client.PQUEClient.PQUEStorageMetric;
+import com.gioorgi.pque.client.config.PQUEConfiguration;
+
+/**
+ * Reports queue tables whose dead tuples or size are above the pque.health.* thresholds.
+ * A bloated queue is reported as WARNING and not DOWN: it is still working, but it is going to slow down,
+ * and restarting the application would not fix it.
+ * UNKNOWN with a backend without storage metrics, like PQUEInMemoryBackend.
+ *
+ * @author GG
+ */
+public class PQUEStorageHealthIndicator extends AbstractHealthIndicator {
+
+    public static final Status WARNING = new Status("WARNING", "Some queue tables are bloated");
+
+    private final PQUEClient pqueClient;
+    private final PQUEConfiguration.Health thresholds;
+
+    public PQUEStorageHealthIndicator(PQUEClient pqueClient, PQUEConfiguration configuration) {
+        super("PQUE storage health check failed");
+        this.pqueClient = pqueClient;
+        this.thresholds = configuration.getHealth();
+    }
+
+    @Override
+    protected void doHealthCheck(Health.Builder builder) throws Exception {
+        List<PQUEStorageMetric> metrics;
+        try {
+            metrics = pqueClient.getStorageMetrics();
+        } catch (UnsupportedOperationException e) {
+            builder.unknown().withDetail("reason", e.getMessage());
+            return;
+        }
+        Map<String, Object> bloated = new LinkedHashMap<>();
+        for (PQUEStorageMetric metric : metrics) {
+            if (!"queue".equals(metric.getRelationKind())) {
+                continue;
+            }
+            String problem = check(metric);
+            if (problem != null) {
+                bloated.put(metric.getQueueName(), problem);
+            }
+        }
+        if (bloated.isEmpty()) {
+            builder.up();
+        } else {
+            builder.status(WARNING).withDetails(bloated);
+        }
+    }
+
+    private String check(PQUEStorageMetric metric) {
+        if (metric.getDeadTuples() >= thresholds.getMinDeadTuples()
+                && metric.getDeadTupleRatio() > thresholds.getMaxDeadTupleRatio()) {
+            return String.format("dead tuples %d (%.0f%%), last autovacuum %s",
+                    metric.getDeadTuples(), metric.getDeadTupleRatio() * 100, metric.getLastAutovacuum());
+        }
+        long size = metric.getTableBytes() + metric.getIndexBytes();
+        if (thresholds.getMaxQueueBytes() > 0 && size > thresholds.getMaxQueueBytes()) {
+            return String.format("size %d bytes, last autovacuum %s", size, metric.getLastAutovacuum());
+        }
+        return null;
+    }
+}
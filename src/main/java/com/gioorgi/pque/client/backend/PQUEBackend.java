@@ -0,0 +1,265 @@
+package com.gioorgi.pque.client.backend;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import com.gioorgi.pque.client.PQUEClient.PQUEMetric;
+import com.gioorgi.pque.client.PQUEClient.PQUEStorageMetric;
+import com.gioorgi.pque.client.PQUEMessage;
+
+import lombok.Value;
+
+/**
+ * Storage of the queues used by {@link com.gioorgi.pque.client.PQUEClient}.
+ * Messages are already serialized and validated JSON, times are in seconds.
+ *
+ * The core operations have the semantic of the pque_* functions: visibility timeout, delay, archive.
+ * PostgreSQL specific features (topics, storage metrics, filter indexes...) are optional,
+ * and throw UnsupportedOperationException by default.
+ *
+ * @see PQUEJdbcBackend
+ * @see PQUEInMemoryBackend
+ * @author GG
+ */
+public interface PQUEBackend {
+
+    /** What the storage knows about a queue */
+    @Value
+    class QueueMeta {
+        boolean unlogged;
+        /** Unlogged queue with a logged shadow, see {@link #checkpoint(String)} */
+        boolean hybrid;
+        String storageProfile;
+    }
+
+    /** Slot of a consumer among the live consumers of a queue, see {@link #heartbeat(String, String, int)} */
+    @Value
+    class ConsumerSlot {
+        int slot;
+        int slots;
+    }
+
+    /** Receives one message of a lean read, see {@link #readPayloads(String, int, int, PayloadReader)} */
+    @FunctionalInterface
+    interface PayloadReader {
+        /** @param json the UTF-8 payload, valid only during the call */
+        void accept(long messageId, long readCounter, long enqueuedAtMillis, InputStream json);
+    }
+
+    void createQueue(String queue);
+
+    void dropQueue(String queue);
+
+    List<String> listQueues();
+
+    /** Empty if the queue does not exist */
+    Optional<QueueMeta> queueMeta(String queue);
+
+    /** @param ttlSeconds time to live of the message, 0 for the queue default */
+    long send(String queue, String jsonMessage, int delaySeconds, int ttlSeconds);
+
+    List<Long> sendBatch(String queue, List<String> jsonMessages, int delaySeconds, int ttlSeconds);
+
+    /**
+     * Lease up to quantity visible messages, in msg_id order.
+     * Expired messages met on the way are deleted and not counted
+     * @param jsonFilter only the messages containing it, null for all
+     */
+    List<PQUEMessage> read(String queue, int visibilityTimeoutSeconds, int quantity, String jsonFilter);
+
+    /**
+     * Register (or refresh) a consumer of the queue, forgetting the ones silent for timeoutSeconds.
+     * A single slot by default: without lock contention there is nothing to partition
+     */
+    default ConsumerSlot heartbeat(String queue, String consumerId, int timeoutSeconds) {
+        return new ConsumerSlot(0, 1);
+    }
+
+    /** Unregister a consumer, its slot goes to the others */
+    default void leave(String queue, String consumerId) {
+    }
+
+    /**
+     * Like read, but the messages of the slot (msg_id % slots) first, the others only if they are not enough.
+     * A plain read by default
+     */
+    default List<PQUEMessage> readPartitioned(String queue, int visibilityTimeoutSeconds, int quantity, ConsumerSlot slot) {
+        return read(queue, visibilityTimeoutSeconds, quantity, null);
+    }
+
+    /**
+     * Read up to quantity messages from several queues, each getting a share proportional to its weight;
+     * shares a queue cannot fill go to the other queues, heaviest first. Same semantic of pque_read_multi.
+     * @return the messages read from each queue, in the queues order
+     */
+    default Map<String, List<PQUEMessage>> readMulti(List<String> queues, List<Integer> weights, int visibilityTimeoutSeconds, int quantity) {
+        int n = queues.size();
+        long totalWeight = weights.stream().mapToLong(Integer::longValue).sum();
+        var result = new LinkedHashMap<String, List<PQUEMessage>>();
+        queues.forEach(q -> result.put(q, new ArrayList<>()));
+        // Shares rounded down, then one leftover slot to each queue by decreasing weight
+        var byWeight = new ArrayList<Integer>();
+        var quotas = new int[n];
+        int remaining = quantity;
+        for (int i = 0; i < n; i++) {
+            quotas[i] = (int) (quantity * (long) weights.get(i) / totalWeight);
+            remaining -= quotas[i];
+            byWeight.add(i);
+        }
+        byWeight.sort(Comparator.comparing((Integer i) -> weights.get(i)).reversed());
+        for (int i = 0; i < n && remaining > 0; i++, remaining--) {
+            quotas[byWeight.get(i)]++;
+        }
+        var exhausted = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            if (quotas[i] > 0) {
+                var read = read(queues.get(i), visibilityTimeoutSeconds, quotas[i], null);
+                result.get(queues.get(i)).addAll(read);
+                exhausted[i] = read.size() < quotas[i];
+                remaining += quotas[i] - read.size();
+            }
+        }
+        for (int i : byWeight) {
+            if (remaining == 0) {
+                break;
+            }
+            if (!exhausted[i]) {
+                var read = read(queues.get(i), visibilityTimeoutSeconds, remaining, null);
+                result.get(queues.get(i)).addAll(read);
+                remaining -= read.size();
+            }
+        }
+        return result;
+    }
+
+    /** Like read, waiting up to maxPollSeconds for messages, checking every pollIntervalMs */
+    List<PQUEMessage> readWithPoll(String queue, int visibilityTimeoutSeconds, int quantity, int maxPollSeconds, int pollIntervalMs);
+
+    /** Remove and return the first visible message not expired */
+    Optional<PQUEMessage> pop(String queue, String jsonFilter);
+
+    /**
+     * Like read, giving each message to the reader without building a PQUEMessage.
+     * @return the number of messages read
+     */
+    default int readPayloads(String queue, int visibilityTimeoutSeconds, int quantity, PayloadReader reader) {
+        var messages = read(queue, visibilityTimeoutSeconds, quantity, null);
+        messages.forEach(m -> accept(m, reader));
+        return messages.size();
+    }
+
+    /** Like pop, giving the message to the reader. @return false if no message was visible */
+    default boolean popPayload(String queue, PayloadReader reader) {
+        var message = pop(queue, null);
+        message.ifPresent(m -> accept(m, reader));
+        return message.isPresent();
+    }
+
+    private static void accept(PQUEMessage m, PayloadReader reader) {
+        reader.accept(m.getId(), m.getReadCounter(), m.getEnqueuedAt().toInstant().toEpochMilli(),
+                new ByteArrayInputStream(m.getJsonMessage().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    boolean delete(String queue, long messageId);
+
+    /** @return the ids actually deleted */
+    List<Long> deleteBatch(String queue, List<Long> messageIds);
+
+    /** @param lazy only mark the message as archived, see {@link #flushArchive(String, int)} */
+    boolean archive(String queue, long messageId, boolean lazy);
+
+    /** @return the ids actually archived */
+    List<Long> archiveBatch(String queue, List<Long> messageIds, boolean lazy);
+
+    /** @return the new visibility time of the messages still in the queue */
+    Map<Long, OffsetDateTime> setVisibilityTimeout(String queue, List<Long> messageIds, int visibilityTimeoutSeconds);
+
+    /**
+     * Remove messageIds[i] from srcQueue and send jsonMessages[i] to dstQueue, atomically
+     * @return source message id to new message id, for the messages still in srcQueue
+     */
+    Map<Long, Long> forward(String srcQueue, List<Long> messageIds, String dstQueue, List<String> jsonMessages, boolean archive, int delaySeconds);
+
+    PQUEMetric metrics(String queue);
+
+    /** Move up to maxRows lazily archived messages to the archive, returns how many were moved */
+    default long flushArchive(String queue, int maxRows) {
+        throw new UnsupportedOperationException("Lazy archive is not supported by " + getClass().getSimpleName());
+    }
+
+    /** Delete up to maxRows expired messages not leased, returns how many were deleted */
+    default long expire(String queue, int maxRows) {
+        throw new UnsupportedOperationException("Message expiry is not supported by " + getClass().getSimpleName());
+    }
+
+    /** Default time to live of the messages sent to the queue, 0 for none */
+    default void setTimeToLive(String queue, int ttlSeconds) {
+        throw new UnsupportedOperationException("Message expiry is not supported by " + getClass().getSimpleName());
+    }
+
+    /** Messages bigger than minBytes are stored apart from the queue row, 0 to disable */
+    default void setClaimCheck(String queue, int minBytes) {
+        throw new UnsupportedOperationException("Claim check is not supported by " + getClass().getSimpleName());
+    }
+
+    /** Delete up to maxRows stored payloads of removed messages. Nothing to do without claim check */
+    default long collectPayloads(String queue, int maxRows) {
+        return 0;
+    }
+
+    /** Messages sent with a delay over scheduleAfterSeconds wait in a separate table, 0 to disable */
+    default void setScheduleAfter(String queue, int scheduleAfterSeconds) {
+        throw new UnsupportedOperationException("Scheduled messages are not supported by " + getClass().getSimpleName());
+    }
+
+    /** Move up to maxRows due scheduled messages to the queue, returns how many were moved. Nothing to do without schedule */
+    default long promote(String queue, int maxRows) {
+        return 0;
+    }
+
+    /**
+     * Copy the new messages of a hybrid queue to its shadow, or restore the queue if it was lost in a crash.
+     * @param queue null for all the hybrid queues
+     * @return the number of copied (or restored) messages
+     */
+    default long checkpoint(String queue) {
+        if (queue == null) {
+            return 0;
+        }
+        throw new UnsupportedOperationException("Hybrid queues are not supported by " + getClass().getSimpleName());
+    }
+
+    default void createFilterIndex(String queue) {
+        throw new UnsupportedOperationException("Filter indexes are not supported by " + getClass().getSimpleName());
+    }
+
+    /** @return the ids of the messages sent to each subscribed queue */
+    default Map<String, List<Long>> publish(String topic, List<String> jsonMessages, int delaySeconds) {
+        throw new UnsupportedOperationException("Topics are not supported by " + getClass().getSimpleName());
+    }
+
+    default void subscribe(String topic, String queue, String jsonFilter) {
+        throw new UnsupportedOperationException("Topics are not supported by " + getClass().getSimpleName());
+    }
+
+    default boolean unsubscribe(String topic, String queue) {
+        throw new UnsupportedOperationException("Topics are not supported by " + getClass().getSimpleName());
+    }
+
+    /** @param queue null for all the queues */
+    default List<PQUEStorageMetric> storageMetrics(String queue) {
+        throw new UnsupportedOperationException("Storage metrics are not supported by " + getClass().getSimpleName());
+    }
+
+    default long generateLoad(String queue, int count, String jsonTemplate) {
+        throw new UnsupportedOperationException("Load generation is not supported by " + getClass().getSimpleName());
+    }
+}
@@ -0,0 +1,457 @@
+package com.gioorgi.pque.client.backend;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.springframework.util.Assert;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gioorgi.pque.client.PQUEClient.PQUEMetric;
+import com.gioorgi.pque.client.PQUEException;
+import com.gioorgi.pque.client.PQUEMessage;
+
+/**
+ * Queues kept in memory, for tests and local runs without PostgreSQL.
+ * Nothing survives a restart.
+ *
+ * Each queue is a skip list ordered by msg_id. Reads are lock-free: a message is leased
+ * with a compare-and-set on its visibility time, so concurrent consumers never get the same message.
+ * Times come from the clock: with a {@link PQUEVirtualClock} timeouts and delays are tested without sleeping.
+ *
+ * Expired messages are deleted by reads and pops, like pque_read and pque_pop.
+ * Filtered reads check the JSONB containment (message @> filter) on the parsed messages.
+ * A lazily archived message stays invisible in the queue until flushArchive moves it, like pque_archive_lazy.
+ *
+ * Not supported: topics, storage metrics and load generation.
+ *
+ * @author GG
+ */
+public class PQUEInMemoryBackend implements PQUEBackend {
+
+    private static final class Entry {
+        final long id;
+        final String json;
+        final long enqueuedAt;
+        final long expiresAt;
+        final AtomicLong vt;
+        final AtomicInteger readCt = new AtomicInteger();
+        // Lazily archived, waiting for flushArchive
+        volatile boolean archived;
+        // Parsed on the first filtered read
+        volatile JsonNode node;
+
+        Entry(long id, String json, long enqueuedAt, long vt, long expiresAt) {
+            this.id = id;
+            this.json = json;
+            this.enqueuedAt = enqueuedAt;
+            this.expiresAt = expiresAt;
+            this.vt = new AtomicLong(vt);
+        }
+    }
+
+    private static final class MemoryQueue {
+        final String name;
+        final AtomicLong sequence = new AtomicLong();
+        final ConcurrentSkipListMap<Long, Entry> messages = new ConcurrentSkipListMap<>();
+        final ConcurrentSkipListMap<Long, Entry> archive = new ConcurrentSkipListMap<>();
+        final AtomicLong expired = new AtomicLong();
+        volatile int ttlSeconds;
+
+        MemoryQueue(String name) {
+            this.name = name;
+        }
+    }
+
+    private final Clock clock;
+    private final Map<String, MemoryQueue> queues = new ConcurrentHashMap<>();
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    public PQUEInMemoryBackend() {
+        this(Clock.systemUTC());
+    }
+
+    public PQUEInMemoryBackend(Clock clock) {
+        Assert.notNull(clock, "Clock must not be null!");
+        this.clock = clock;
+    }
+
+    private MemoryQueue queue(String queue) {
+        var q = queues.get(queue);
+        if (q == null) {
+            throw new PQUEException("Queue " + queue + " does not exist");
+        }
+        return q;
+    }
+
+    private OffsetDateTime toTime(long millis) {
+        return OffsetDateTime.ofInstant(Instant.ofEpochMilli(millis), clock.getZone());
+    }
+
+    private PQUEMessage toMessage(Entry e) {
+        return new PQUEMessage(e.id, (long) e.readCt.get(), toTime(e.enqueuedAt), toTime(e.vt.get()), e.json);
+    }
+
+    /** Lease the message if visible, lock-free */
+    private static boolean claim(Entry e, long now, long vtMillis) {
+        long current;
+        do {
+            current = e.vt.get();
+            if (current > now) {
+                return false;
+            }
+        } while (!e.vt.compareAndSet(current, now + vtMillis));
+        e.readCt.incrementAndGet();
+        return true;
+    }
+
+    /** Delete the message if visible and expired */
+    private static boolean discardExpired(MemoryQueue q, Entry e, long now) {
+        long current = e.vt.get();
+        if (e.expiresAt > now || current > now || !e.vt.compareAndSet(current, Long.MAX_VALUE)) {
+            return false;
+        }
+        if (q.messages.remove(e.id, e)) {
+            q.expired.incrementAndGet();
+        }
+        return true;
+    }
+
+    private JsonNode parseFilter(String jsonFilter) {
+        if (jsonFilter == null) {
+            return null;
+        }
+        try {
+            return mapper.readTree(jsonFilter);
+        } catch (JsonProcessingException e) {
+            throw new PQUEException("Invalid filter " + jsonFilter, e);
+        }
+    }
+
+    /** message @> filter, always true without filter */
+    private boolean matches(Entry e, JsonNode filter) {
+        if (filter == null) {
+            return true;
+        }
+        var node = e.node;
+        if (node == null) {
+            try {
+                node = mapper.readTree(e.json);
+            } catch (JsonProcessingException ex) {
+                throw new PQUEException("Invalid message " + e.id, ex);
+            }
+            e.node = node;
+        }
+        if (node.isArray() && filter.isValueNode()) {
+            // Only at top level, an array contains the primitive values it holds
+            for (var element : node) {
+                if (contains(element, filter)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return contains(node, filter);
+    }
+
+    /** JSONB containment: objects by subset of keys, arrays by subset of elements, scalars by equality */
+    static boolean contains(JsonNode value, JsonNode filter) {
+        if (filter.isObject()) {
+            if (!value.isObject()) {
+                return false;
+            }
+            for (var it = filter.fields(); it.hasNext();) {
+                var field = it.next();
+                var v = value.get(field.getKey());
+                if (v == null || !contains(v, field.getValue())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (filter.isArray()) {
+            if (!value.isArray()) {
+                return false;
+            }
+            for (var wanted : filter) {
+                boolean found = false;
+                for (var element : value) {
+                    if (contains(element, wanted)) {
+                        found = true;
+                        break;
+                    }
+                }
+                if (!found) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (filter.isNumber() && value.isNumber()) {
+            // 1 and 1.0 are the same jsonb number
+            return value.decimalValue().compareTo(filter.decimalValue()) == 0;
+        }
+        return value.equals(filter);
+    }
+
+    @Override
+    public void createQueue(String queue) {
+        queues.putIfAbsent(queue, new MemoryQueue(queue));
+    }
+
+    @Override
+    public void dropQueue(String queue) {
+        queues.remove(queue);
+    }
+
+    @Override
+    public List<String> listQueues() {
+        return queues.keySet().stream().sorted().collect(Collectors.toList());
+    }
+
+    @Override
+    public Optional<QueueMeta> queueMeta(String queue) {
+        // Memory is not crash-safe, like an unlogged table
+        return queues.containsKey(queue) ? Optional.of(new QueueMeta(true, false, "default")) : Optional.empty();
+    }
+
+    @Override
+    public long send(String queue, String jsonMessage, int delaySeconds, int ttlSeconds) {
+        return sendBatch(queue, List.of(jsonMessage), delaySeconds, ttlSeconds).get(0);
+    }
+
+    @Override
+    public List<Long> sendBatch(String queue, List<String> jsonMessages, int delaySeconds, int ttlSeconds) {
+        var q = queue(queue);
+        long now = clock.millis();
+        int ttl = ttlSeconds > 0 ? ttlSeconds : q.ttlSeconds;
+        long expiresAt = ttl > 0 ? now + TimeUnit.SECONDS.toMillis(ttl) : Long.MAX_VALUE;
+        var ids = new ArrayList<Long>(jsonMessages.size());
+        for (var json : jsonMessages) {
+            long id = q.sequence.incrementAndGet();
+            q.messages.put(id, new Entry(id, json, now, now + TimeUnit.SECONDS.toMillis(delaySeconds), expiresAt));
+            ids.add(id);
+        }
+        synchronized (q) {
+            q.notifyAll();
+        }
+        return ids;
+    }
+
+    @Override
+    public List<PQUEMessage> read(String queue, int visibilityTimeoutSeconds, int quantity, String jsonFilter) {
+        var filter = parseFilter(jsonFilter);
+        var q = queue(queue);
+        long now = clock.millis();
+        long vtMillis = TimeUnit.SECONDS.toMillis(visibilityTimeoutSeconds);
+        var read = new ArrayList<PQUEMessage>(quantity);
+        for (var e : q.messages.values()) {
+            if (matches(e, filter) && !discardExpired(q, e, now) && claim(e, now, vtMillis)) {
+                read.add(toMessage(e));
+                if (read.size() == quantity) {
+                    break;
+                }
+            }
+        }
+        return read;
+    }
+
+    /** The wait uses the real time: a virtual clock may never move while waiting */
+    @Override
+    public List<PQUEMessage> readWithPoll(String queue, int visibilityTimeoutSeconds, int quantity, int maxPollSeconds, int pollIntervalMs) {
+        var q = queue(queue);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(maxPollSeconds);
+        while (true) {
+            var read = read(queue, visibilityTimeoutSeconds, quantity, null);
+            long left = deadline - System.nanoTime();
+            if (!read.isEmpty() || left <= 0) {
+                return read;
+            }
+            synchronized (q) {
+                try {
+                    q.wait(Math.max(1, Math.min(pollIntervalMs, TimeUnit.NANOSECONDS.toMillis(left))));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return read;
+                }
+            }
+        }
+    }
+
+    @Override
+    public Optional<PQUEMessage> pop(String queue, String jsonFilter) {
+        var filter = parseFilter(jsonFilter);
+        var q = queue(queue);
+        long now = clock.millis();
+        for (var e : q.messages.values()) {
+            if (!matches(e, filter) || discardExpired(q, e, now)) {
+                continue;
+            }
+            long current = e.vt.get();
+            // Make it invisible forever, then remove it
+            if (current <= now && e.vt.compareAndSet(current, Long.MAX_VALUE) && q.messages.remove(e.id, e)) {
+                return Optional.of(new PQUEMessage(e.id, (long) e.readCt.get(), toTime(e.enqueuedAt), toTime(current), e.json));
+            }
+        }
+        return Optional.empty();
+    }
+
+    @Override
+    public boolean delete(String queue, long messageId) {
+        return queue(queue).messages.remove(messageId) != null;
+    }
+
+    @Override
+    public List<Long> deleteBatch(String queue, List<Long> messageIds) {
+        return messageIds.stream().filter(id -> delete(queue, id)).collect(Collectors.toList());
+    }
+
+    @Override
+    public boolean archive(String queue, long messageId, boolean lazy) {
+        var q = queue(queue);
+        if (lazy) {
+            var e = q.messages.get(messageId);
+            if (e == null) {
+                return false;
+            }
+            long current;
+            do {
+                current = e.vt.get();
+                if (current == Long.MAX_VALUE) {
+                    // Already archived, or being removed
+                    return false;
+                }
+            } while (!e.vt.compareAndSet(current, Long.MAX_VALUE));
+            e.archived = true;
+            return true;
+        }
+        var e = q.messages.remove(messageId);
+        if (e == null) {
+            return false;
+        }
+        q.archive.put(messageId, e);
+        return true;
+    }
+
+    @Override
+    public List<Long> archiveBatch(String queue, List<Long> messageIds, boolean lazy) {
+        return messageIds.stream().filter(id -> archive(queue, id, lazy)).collect(Collectors.toList());
+    }
+
+    @Override
+    public long flushArchive(String queue, int maxRows) {
+        var q = queue(queue);
+        long moved = 0;
+        for (var e : q.messages.values()) {
+            if (moved == maxRows) {
+                break;
+            }
+            if (e.archived && q.messages.remove(e.id, e)) {
+                q.archive.put(e.id, e);
+                moved++;
+            }
+        }
+        return moved;
+    }
+
+    @Override
+    public long expire(String queue, int maxRows) {
+        var q = queue(queue);
+        long now = clock.millis();
+        long deleted = 0;
+        for (var e : q.messages.values()) {
+            if (deleted == maxRows) {
+                break;
+            }
+            if (discardExpired(q, e, now)) {
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    @Override
+    public void setTimeToLive(String queue, int ttlSeconds) {
+        Assert.isTrue(ttlSeconds >= 0, "Time to live must not be negative!");
+        queue(queue).ttlSeconds = ttlSeconds;
+    }
+
+    @Override
+    public Map<Long, OffsetDateTime> setVisibilityTimeout(String queue, List<Long> messageIds, int visibilityTimeoutSeconds) {
+        var q = queue(queue);
+        long vt = clock.millis() + TimeUnit.SECONDS.toMillis(visibilityTimeoutSeconds);
+        var result = new LinkedHashMap<Long, OffsetDateTime>();
+        for (var id : messageIds) {
+            var e = q.messages.get(id);
+            if (e == null) {
+                continue;
+            }
+            long current;
+            do {
+                current = e.vt.get();
+            } while (current != Long.MAX_VALUE && !e.vt.compareAndSet(current, vt));
+            // Lazily archived messages are left alone
+            if (current != Long.MAX_VALUE) {
+                result.put(id, toTime(vt));
+            }
+        }
+        return result;
+    }
+
+    /** Each message is removed from srcQueue before its reply is sent, so it is forwarded at most once */
+    @Override
+    public Map<Long, Long> forward(String srcQueue, List<Long> messageIds, String dstQueue, List<String> jsonMessages,
+            boolean archive, int delaySeconds) {
+        Assert.isTrue(messageIds.size() == jsonMessages.size(), "One message for each id is required!");
+        queue(dstQueue);
+        var result = new LinkedHashMap<Long, Long>();
+        for (int i = 0; i < messageIds.size(); i++) {
+            long id = messageIds.get(i);
+            if (result.containsKey(id)) {
+                continue;
+            }
+            boolean removed = archive ? archive(srcQueue, id, false) : delete(srcQueue, id);
+            if (removed) {
+                result.put(id, send(dstQueue, jsonMessages.get(i), delaySeconds, 0));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public PQUEMetric metrics(String queue) {
+        var q = queue(queue);
+        long now = clock.millis();
+        // Lazily archived messages are no more in the queue
+        var live = q.messages.values().stream().filter(e -> !e.archived).collect(Collectors.toList());
+        var oldest = live.isEmpty() ? null : live.get(0);
+        var newest = live.isEmpty() ? null : live.get(live.size() - 1);
+        return new PQUEMetric(q.name,
+                (long) live.size(),
+                newest == null ? 0 : (int) TimeUnit.MILLISECONDS.toSeconds(now - newest.enqueuedAt),
+                oldest == null ? 0 : (int) TimeUnit.MILLISECONDS.toSeconds(now - oldest.enqueuedAt),
+                q.sequence.get(),
+                q.expired.get(),
+                0,
+                LocalDateTime.now(clock));
+    }
+
+    /** Archived messages of the queue, oldest first */
+    public List<PQUEMessage> getArchived(String queue) {
+        return queue(queue).archive.values().stream().map(this::toMessage).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,457 @@
+package com.gioorgi.pque.client.backend;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.support.DataAccessUtils;
+import org.springframework.jdbc.core.JdbcOperations;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.util.Assert;
+
+import com.gioorgi.pque.client.PQUEClient.PQUEMetric;
+import com.gioorgi.pque.client.PQUEClient.PQUEStorageMetric;
+import com.gioorgi.pque.client.PQUEException;
+import com.gioorgi.pque.client.PQUEMessage;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * PostgreSQL backend: every operation is a call to the pque_* functions.
+ *
+ * @author GG
+ */
+@Slf4j
+public class PQUEJdbcBackend implements PQUEBackend {
+
+    static final String SEND_SQL = "select * from pque_send(?, ?::JSONB, ?, ?)";
+    static final String SEND_BATCH_SQL = "select * from pque_send_batch(?, ?::JSONB[], ?, ?)";
+    static final String READ_SQL = "select * from pque_read(?, ?, ?)";
+    static final String READ_WITH_POLL_SQL = "select * from pque_read_with_poll(?, ?, ?, ?, ?)";
+    static final String READ_MULTI_SQL = "select * from pque_read_multi(?, ?, ?, ?)";
+    static final String READ_PARTITIONED_SQL = "select * from pque_read_partitioned(?, ?, ?, ?, ?)";
+    static final String HEARTBEAT_SQL = "select slot, slots from pque_consumer_heartbeat(?, ?, ?)";
+    static final String LEAVE_SQL = "select pque_consumer_leave(?, ?)";
+    static final String READ_FILTERED_SQL = "select * from pque_read(?, ?, ?, ?::JSONB)";
+    static final String POP_SQL = "select * from pque_pop(?)";
+    // Lean reads: no vt, enqueued_at as epoch millis, the payload is read as bytes
+    static final String LEAN_COLUMNS = "msg_id, read_ct, (extract(epoch from enqueued_at) * 1000)::bigint as enqueued_ms, message";
+    static final String READ_LEAN_SQL = "select " + LEAN_COLUMNS + " from pque_read(?, ?, ?)";
+    static final String POP_LEAN_SQL = "select " + LEAN_COLUMNS + " from pque_pop(?)";
+    static final String POP_FILTERED_SQL = "select * from pque_pop(?, ?::JSONB)";
+    static final String DELETE_SQL = "select * from pque_delete(?, ?)";
+    static final String ARCHIVE_SQL = "select * from pque_archive(?, ?)";
+    static final String ARCHIVE_LAZY_SQL = "select * from pque_archive_lazy(?, ?)";
+    static final String ARCHIVE_FLUSH_SQL = "select pque_archive_flush(?, ?)";
+    static final String EXPIRE_SQL = "select pque_expire(?, ?)";
+    static final String PAYLOAD_GC_SQL = "select pque_payload_gc(?, ?)";
+    static final String FORWARD_BATCH_SQL = "select src_msg_id, msg_id from pque_forward_batch(?, ?, ?, ?::JSONB[], ?, ?)";
+    static final String PUBLISH_BATCH_SQL = "select queue_name, msg_id from pque_publish_batch(?, ?::JSONB[], ?)";
+    static final String SET_VT_SQL = "select msg_id, vt from pque_set_vt(?, ?, ?)";
+    static final String PROMOTE_SQL = "select pque_promote(?, ?)";
+    static final String CHECKPOINT_SQL = "select pque_checkpoint(?)";
+    static final String CHECKPOINT_ALL_SQL = "select pque_checkpoint_all()";
+    static final String QUEUE_META_SQL = "select is_unlogged, is_hybrid, storage_profile from t_pque_meta where queue_name = ?";
+
+    static final RowMapper<PQUEStorageMetric> STORAGE_METRIC_ROW_MAPPER = (rs, rowNum) -> new PQUEStorageMetric(
+            rs.getString("queue_name"),
+            rs.getString("relation_kind"),
+            rs.getString("relation_name"),
+            rs.getLong("live_tuples"),
+            rs.getLong("dead_tuples"),
+            rs.getLong("updated_tuples"),
+            rs.getLong("hot_updated_tuples"),
+            rs.getLong("table_bytes"),
+            rs.getLong("index_bytes"),
+            rs.getObject("last_vacuum", OffsetDateTime.class),
+            rs.getObject("last_autovacuum", OffsetDateTime.class),
+            rs.getTimestamp("scrape_time").toLocalDateTime()
+    );
+
+    static final RowMapper<PQUEMessage> MESSAGE_ROW_MAPPER = (rs, rowNum) -> new PQUEMessage(
+            rs.getLong("msg_id"),
+            rs.getLong("read_ct"),
+            rs.getObject("enqueued_at", OffsetDateTime.class),
+            rs.getObject("vt", OffsetDateTime.class),
+            rs.getString("message")
+    );
+
+    private final JdbcOperations operations;
+
+    public PQUEJdbcBackend(JdbcOperations operations) {
+        Assert.notNull(operations, "JdbcOperations must not be null!");
+        this.operations = operations;
+    }
+
+    @Override
+    public void createQueue(String queue) {
+        try {
+            operations.queryForList("select pque_create(?)", queue);
+        } catch (DataAccessException exception) {
+            throw new PQUEException("Failed to create queue " + queue, exception);
+        }
+    }
+
+    @Override
+    public void dropQueue(String queue) {
+        try {
+            operations.queryForList("select pque_drop_queue(?)", queue);
+        } catch (DataAccessException exception) {
+            throw new PQUEException("Failed to drop queue " + queue, exception);
+        }
+    }
+
+    @Override
+    public List<String> listQueues() {
+        return operations.queryForList("select * from pque_queue_list()", String.class);
+    }
+
+    @Override
+    public Optional<QueueMeta> queueMeta(String queue) {
+        try {
+            return Optional.ofNullable(DataAccessUtils.singleResult(operations.query(QUEUE_META_SQL,
+                    (rs, rn) -> new QueueMeta(rs.getBoolean("is_unlogged"), rs.getBoolean("is_hybrid"),
+                            rs.getString("storage_profile")), queue)));
+        } catch (DataAccessException exception) {
+            throw new PQUEException("Failed to resolve queue " + queue, exception);
+        }
+    }
+
+    @Override
+    public long send(String queue, String jsonMessage, int delaySeconds, int ttlSeconds) {
+        Long messageId;
+        try {
+            messageId = operations.queryForObject(SEND_SQL, (rs, rn) -> rs.getLong(1), queue, jsonMessage, delaySeconds, ttlSeconds);
+            log.trace("Msgid {} Sent with delay {}seconds", messageId, delaySeconds);
+        } catch (DataAccessException exception) {
+            throw new PQUEException("Failed to send message on queue " + queue, exception);
+        }
+
+        return Optional.ofNullable(messageId)
+                .orElseThrow(() -> new PQUEException("No message id provided for sent message!"));
+    }
+
+    @Override
+    public List<Long> sendBatch(String queue, List<String> jsonMessages, int delaySeconds, int ttlSeconds) {
+        try {
+            return operations.query(SEND_BATCH_SQL, (rs, rn) -> rs.getLong(1), queue, jsonMessages.toArray(String[]::new),
+                    delaySeconds, ttlSeconds);
+        } catch (DataAccessException exception) {
+            throw new PQUEException("Failed to send messages on queue " + queue, exception);
+        }
+    }
+
+    @Override
+    public List<PQUEMessage> read(String queue, int visibilityTimeoutSeconds, int quantity, String jsonFilter) {
+        try {
+            return jsonFilter == null
+                    ? operations.query(READ_SQL, MESSAGE_ROW_MAPPER, queue, visibilityTimeoutSeconds, quantity)
+                    : operations.query(READ_FILTERED_SQL, MESSAGE_ROW_MAPPER, queue, visibilityTimeoutSeconds, quantity, jsonFilter);
+        } catch (DataAccessException exception) {
+            throw new PQUEException("Failed to read messages from queue " + queue, exception);
+        }
+    }
+
+    @Override
+    public ConsumerSlot heartbeat(String queue, String consumerId, int timeoutSeconds) {
+        try {
+            return operations.queryForObject(HEARTBEAT_SQL,
+                    (rs, rn) -> new ConsumerSlot(rs.getInt("slot"), rs.getInt("slots")), queue, consumerId, timeoutSeconds);
+        } catch (DataAccessException exception) {
+            throw new PQUEException("Failed to register consumer " + consumerId + " of queue " + queue, exception);
+        }
+    }
+
+    @Override
+    public void leave(String queue, String consumerId) {
+        try {
+            operations.queryForList(LEAVE_SQL, queue, consumerId);
+        } catch (DataAccessException exception) {
+            throw new PQUEException("Failed to unregister consumer " + consumerId + " of queue " + queue, exception);
+        }
+    }
+
+    @Override
+    public List<PQUEMessage> readPartitioned(String queue, int visibilityTimeoutSeconds, int quantity, ConsumerSlot slot) {
+        try {
+            return operations.query(READ_PARTITIONED_SQL, MESSAGE_ROW_MAPPER,
+                    queue, visibilityTimeoutSeconds, quantity, slot.getSlot(), slot.getSlots());
+        } catch (DataAccessException exception) {
+            throw new PQUEException("Failed to read messages from queue " + queue, exception);
+        }
+    }
+
+    @Override
+    public Map<String, List<PQUEMessage>> readMulti(List<String> queues, List<Integer> weights, int visibilityTimeoutSeconds, int quantity) {
+        var result = new LinkedHashMap<String, List<PQUEMessage>>();
+        queues.forEach(q -> result.put(q, new ArrayList<>()));
+        try {
+            operations.query(READ_MULTI_SQL, rs -> {
+                result.get(rs.getString("queue_name")).add(MESSAGE_ROW_MAPPER.mapRow(rs, 0));
+            }, queues.toArray(String[]::new), weights.toArray(Integer[]::new), visibilityTimeoutSeconds, quantity);
+        } catch (DataAccessException exception) {
+            throw new PQUEException("Failed to read messages from queues " + queues, exception);
+        }
+        return result;
+    }
+
+    @Override
+    public List<PQUEMessage> readWithPoll(String queue, int visibilityTimeoutSeconds, int quantity, int maxPollSeconds, int pollIntervalMs) {
+        try {
+            return operations.query(READ_WITH_POLL_SQL, MESSAGE_ROW_MAPPER,
+                    queue, visibilityTimeoutSeconds, quantity, maxPollSeconds, pollIntervalMs);
+        } catch (DataAccessException exception) {
+            throw new PQUEException("Failed to read messages from queue " + queue, exception);
+        }
+    }
+
+    @Override
+    public Optional<PQUEMessage> pop(String queue, String jsonFilter) {
+        try {
+            return Optional.ofNullable(DataAccessUtils.singleResult(jsonFilter == null
+                    ? operations.query(POP_SQL, MESSAGE_ROW_MAPPER, queue)
+                    : operations.query(POP_FILTERED_SQL, MESSAGE_ROW_MAPPER, queue, jsonFilter)));
+        } catch (DataAccessException exception) {
+            throw new PQUEException("Failed to pop message from queue " + queue, exception);
+        }
+    }
+
+    @Override
+    public int readPayloads(String queue, int visibilityTimeoutSeconds, int quantity, PayloadReader reader) {
+        var count = new int[1];
+        try {
+            operations.query(READ_LEAN_SQL, rs -> {
+                reader.accept(rs.getLong(1), rs.getLong(2), rs.getLong(3), rs.getBinaryStream(4));
+                count[0]++;
+            }, queue, visibilityTimeoutSeconds, quantity);
+        } catch (DataAccessException exception) {
+            throw new PQUEException("Failed to read messages from queue " + queue, exception);
+        }
+        return count[0];
+    }
+
+    @Override
+    public boolean popPayload(String queue, PayloadReader reader) {
+        var count = new int[1];
+        try {
+            operations.query(POP_LEAN_SQL, rs -> {
+                reader.accept(rs.getLong(1), rs.getLong(2), rs.getLong(3), rs.getBinaryStream(4));
+                count[0]++;
+            }, queue);
+        } catch (DataAccessException exception) {
+            throw new PQUEException("Failed to pop message from queue " + queue, exception);
+        }
+        return count[0] > 0;
+    }
+
+    @Override
+    public boolean delete(String queue, long messageId) {
+        Boolean b = operations.queryForObject(DELETE_SQL, Boolean.class, queue, messageId);
+
+        if (b == null) {
+            throw new PQUEException("Error during deletion of message from queue!");
+        }
+
+        return b;
+    }
+
+    @Override
+    public List<Long> deleteBatch(String queue, List<Long> messageIds) {
+        return operations.query(DELETE_SQL, (rs, rn) -> rs.getLong(1), queue, messageIds.toArray(Long[]::new));
+    }
+
+    @Override
+    public boolean archive(String queue, long messageId, boolean lazy) {
+        Boolean b = operations.queryForObject(lazy ? ARCHIVE_LAZY_SQL : ARCHIVE_SQL, Boolean.class, queue, messageId);
+
+        if (b == null) {
+            throw new PQUEException("Error during archiving message from queue!");
+        }
+
+        return b;
+    }
+
+    @Override
+    public List<Long> archiveBatch(String queue, List<Long> messageIds, boolean lazy) {
+        return operations.query(lazy ? ARCHIVE_LAZY_SQL : ARCHIVE_SQL, (rs, rn) -> rs.getLong(1), queue, messageIds.toArray(Long[]::new));
+    }
+
+    @Override
+    public Map<Long, OffsetDateTime> setVisibilityTimeout(String queue, List<Long> messageIds, int visibilityTimeoutSeconds) {
+        var result = new LinkedHashMap<Long, OffsetDateTime>();
+        try {
+            operations.query(SET_VT_SQL, rs -> {
+                result.put(rs.getLong("msg_id"), rs.getObject("vt", OffsetDateTime.class));
+            }, queue, messageIds.toArray(Long[]::new), visibilityTimeoutSeconds);
+        } catch (DataAccessException exception) {
+            throw new PQUEException("Failed to set visibility timeout on queue " + queue, exception);
+        }
+        return result;
+    }
+
+    @Override
+    public Map<Long, Long> forward(String srcQueue, List<Long> messageIds, String dstQueue, List<String> jsonMessages,
+            boolean archive, int delaySeconds) {
+        var result = new LinkedHashMap<Long, Long>();
+        try {
+            operations.query(FORWARD_BATCH_SQL, rs -> {
+                result.put(rs.getLong("src_msg_id"), rs.getLong("msg_id"));
+            }, srcQueue, messageIds.toArray(Long[]::new), dstQueue, jsonMessages.toArray(String[]::new), archive, delaySeconds);
+        } catch (DataAccessException exception) {
+            throw new PQUEException("Failed to forward messages from queue " + srcQueue + " to " + dstQueue, exception);
+        }
+        return result;
+    }
+
+    @Override
+    public PQUEMetric metrics(String queue) {
+        return operations.queryForObject("select * from pque_metrics(?)", (rs, rn) -> new PQUEMetric(
+                rs.getString("queue_name"),
+                rs.getLong("queue_length"),
+                rs.getInt("newest_msg_age_sec"),
+                rs.getInt("oldest_msg_age_sec"),
+                rs.getLong("total_messages"),
+                rs.getLong("expired_messages"),
+                rs.getLong("scheduled_messages"),
+                rs.getTimestamp("scrape_time").toLocalDateTime()
+        ), queue);
+    }
+
+    @Override
+    public long flushArchive(String queue, int maxRows) {
+        try {
+            Long moved = operations.queryForObject(ARCHIVE_FLUSH_SQL, Long.class, queue, maxRows);
+            return moved == null ? 0 : moved;
+        } catch (DataAccessException exception) {
+            throw new PQUEException("Failed to flush the archive of queue " + queue, exception);
+        }
+    }
+
+    @Override
+    public long expire(String queue, int maxRows) {
+        try {
+            Long deleted = operations.queryForObject(EXPIRE_SQL, Long.class, queue, maxRows);
+            return deleted == null ? 0 : deleted;
+        } catch (DataAccessException exception) {
+            throw new PQUEException("Failed to expire messages of queue " + queue, exception);
+        }
+    }
+
+    @Override
+    public void setTimeToLive(String queue, int ttlSeconds) {
+        try {
+            operations.queryForList("select pque_set_ttl(?, ?)", queue, ttlSeconds);
+        } catch (DataAccessException exception) {
+            throw new PQUEException("Failed to set the time to live of queue " + queue, exception);
+        }
+    }
+
+    @Override
+    public void setClaimCheck(String queue, int minBytes) {
+        try {
+            operations.queryForList("select pque_set_claim_check(?, ?)", queue, minBytes);
+        } catch (DataAccessException exception) {
+            throw new PQUEException("Failed to set the claim check of queue " + queue, exception);
+        }
+    }
+
+    @Override
+    public long collectPayloads(String queue, int maxRows) {
+        try {
+            Long deleted = operations.queryForObject(PAYLOAD_GC_SQL, Long.class, queue, maxRows);
+            return deleted == null ? 0 : deleted;
+        } catch (DataAccessException exception) {
+            throw new PQUEException("Failed to collect the payloads of queue " + queue, exception);
+        }
+    }
+
+    @Override
+    public void setScheduleAfter(String queue, int scheduleAfterSeconds) {
+        try {
+            operations.queryForList("select pque_set_schedule_after(?, ?)", queue, scheduleAfterSeconds);
+        } catch (DataAccessException exception) {
+            throw new PQUEException("Failed to set the schedule of queue " + queue, exception);
+        }
+    }
+
+    @Override
+    public long promote(String queue, int maxRows) {
+        try {
+            Long moved = operations.queryForObject(PROMOTE_SQL, Long.class, queue, maxRows);
+            return moved == null ? 0 : moved;
+        } catch (DataAccessException exception) {
+            throw new PQUEException("Failed to promote the scheduled messages of queue " + queue, exception);
+        }
+    }
+
+    @Override
+    public long checkpoint(String queue) {
+        try {
+            Long copied = queue == null
+                    ? operations.queryForObject(CHECKPOINT_ALL_SQL, Long.class)
+                    : operations.queryForObject(CHECKPOINT_SQL, Long.class, queue);
+            return copied == null ? 0 : copied;
+        } catch (DataAccessException exception) {
+            throw new PQUEException("Failed to checkpoint queue " + (queue == null ? "(all)" : queue), exception);
+        }
+    }
+
+    @Override
+    public void createFilterIndex(String queue) {
+        try {
+            operations.queryForList("select pque_create_filter_index(?)", queue);
+        } catch (DataAccessException exception) {
+            throw new PQUEException("Failed to create the filter index on queue " + queue, exception);
+        }
+    }
+
+    @Override
+    public Map<String, List<Long>> publish(String topic, List<String> jsonMessages, int delaySeconds) {
+        var sent = new LinkedHashMap<String, List<Long>>();
+        try {
+            operations.query(PUBLISH_BATCH_SQL, rs -> {
+                sent.computeIfAbsent(rs.getString("queue_name"), q -> new ArrayList<>()).add(rs.getLong("msg_id"));
+            }, topic, jsonMessages.toArray(String[]::new), delaySeconds);
+        } catch (DataAccessException exception) {
+            throw new PQUEException("Failed to publish messages on topic " + topic, exception);
+        }
+        return sent;
+    }
+
+    @Override
+    public void subscribe(String topic, String queue, String jsonFilter) {
+        try {
+            operations.queryForList("select pque_subscribe(?, ?, ?::JSONB)", topic, queue, jsonFilter);
+        } catch (DataAccessException exception) {
+            throw new PQUEException("Failed to subscribe queue " + queue + " to topic " + topic, exception);
+        }
+    }
+
+    @Override
+    public boolean unsubscribe(String topic, String queue) {
+        Boolean removed = operations.queryForObject("select pque_unsubscribe(?, ?)", Boolean.class, topic, queue);
+        return Boolean.TRUE.equals(removed);
+    }
+
+    @Override
+    public List<PQUEStorageMetric> storageMetrics(String queue) {
+        return queue == null
+                ? operations.query("select * from pque_storage_metrics_all()", STORAGE_METRIC_ROW_MAPPER)
+                : operations.query("select * from pque_storage_metrics(?)", STORAGE_METRIC_ROW_MAPPER, queue);
+    }
+
+    @Override
+    public long generateLoad(String queue, int count, String jsonTemplate) {
+        try {
+            Long inserted = operations.queryForObject("select pque_generate_load(?, ?, ?::JSONB)", Long.class,
+                    queue, count, jsonTemplate);
+            return inserted == null ? 0 : inserted;
+        } catch (DataAccessException exception) {
+            throw new PQUEException("Failed to generate load on queue " + queue, exception);
+        }
+    }
+}
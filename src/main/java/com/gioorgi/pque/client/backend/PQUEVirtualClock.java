@@ -0,0 +1,61 @@
+package com.gioorgi.pque.client.backend;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.util.Assert;
+
+/**
+ * Clock moving only when told to, so visibility timeouts and delays
+ * of the {@link PQUEInMemoryBackend} can be tested without sleeping.
+ *
+ * @author GG
+ */
+public class PQUEVirtualClock extends Clock {
+
+    private final AtomicLong millis;
+    private final ZoneId zone;
+
+    public PQUEVirtualClock() {
+        this(Instant.now(), ZoneOffset.UTC);
+    }
+
+    public PQUEVirtualClock(Instant start, ZoneId zone) {
+        this(new AtomicLong(start.toEpochMilli()), zone);
+    }
+
+    private PQUEVirtualClock(AtomicLong millis, ZoneId zone) {
+        this.millis = millis;
+        this.zone = zone;
+    }
+
+    /** Move the time forward, for every clock sharing this time */
+    public void advance(Duration duration) {
+        Assert.isTrue(!duration.isNegative(), "Duration must not be negative!");
+        millis.addAndGet(duration.toMillis());
+    }
+
+    @Override
+    public ZoneId getZone() {
+        return zone;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+        return new PQUEVirtualClock(millis, zone);
+    }
+
+    @Override
+    public long millis() {
+        return millis.get();
+    }
+
+    @Override
+    public Instant instant() {
+        return Instant.ofEpochMilli(millis());
+    }
+}
@@ -2,18 +2,30 @@ package com.gioorgi.pque.client.config;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.gioorgi.pque.client.PQUEClient;
+import com.gioorgi.pque.client.PQUEMaintenance;
+import com.gioorgi.pque.client.PQUEWarmup;
+import com.gioorgi.pque.client.actuator.PQUEStorageHealthIndicator;
+import com.gioorgi.pque.client.backend.PQUEBackend;
+import com.gioorgi.pque.client.backend.PQUEJdbcBackend;
 import com.gioorgi.pque.client.json.PQUEJsonProcessor;
 import com.gioorgi.pque.client.json.PQUEJsonProcessorJackson;
 
+import org.springframework.boot.actuate.autoconfigure.health.ConditionalOnEnabledHealthIndicator;
+import org.springframework.boot.actuate.health.HealthIndicator;
 import org.springframework.boot.autoconfigure.AutoConfiguration;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.autoconfigure.jackson.JacksonAutoConfiguration;
 import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
 import org.springframework.jdbc.core.JdbcOperations;
 
+import javax.sql.DataSource;
+
 @AutoConfiguration(after = {
         JacksonAutoConfiguration.class,
         DataSourceAutoConfiguration.class
@@ -28,12 +40,48 @@ public class PQUEAutoConfiguration {
         return new PQUEJsonProcessorJackson(objectMapper);
     }
 
+    /** Define a PQUEInMemoryBackend bean to run without PostgreSQL */
+    @Bean
+    @ConditionalOnMissingBean(PQUEBackend.class)
+    public PQUEBackend pqueBackend(JdbcOperations jdbcOperations) {
+        return new PQUEJdbcBackend(jdbcOperations);
+    }
+
     @Bean
     @ConditionalOnBean(PQUEJsonProcessor.class)
-    public PQUEClient pqueClient(JdbcOperations jdbcOperations,
+    public PQUEClient pqueClient(PQUEBackend pqueBackend,
                                  PQUEConfiguration pqueConfiguration,
                                  PQUEJsonProcessor pqueJsonProcessor) {
-        return new PQUEClient(jdbcOperations, pqueConfiguration, pqueJsonProcessor);
+        return new PQUEClient(pqueBackend, pqueConfiguration, pqueJsonProcessor);
+    }
+
+    @Bean
+    @ConditionalOnBean(PQUEClient.class)
+    @ConditionalOnMissingBean(PQUEMaintenance.class)
+    public PQUEMaintenance pqueMaintenance(PQUEClient pqueClient, PQUEConfiguration pqueConfiguration) {
+        return new PQUEMaintenance(pqueClient, pqueConfiguration);
+    }
+
+    @Bean
+    @ConditionalOnBean({PQUEClient.class, DataSource.class})
+    @ConditionalOnMissingBean(PQUEWarmup.class)
+    @ConditionalOnProperty(prefix = "pque.warmup", name = "enabled", havingValue = "true")
+    public PQUEWarmup pqueWarmup(PQUEClient pqueClient, DataSource dataSource,
+                                 PQUEJsonProcessor pqueJsonProcessor, PQUEConfiguration pqueConfiguration) {
+        return new PQUEWarmup(pqueClient, dataSource, pqueJsonProcessor, pqueConfiguration);
+    }
+
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(HealthIndicator.class)
+    static class PQUEHealthConfiguration {
+
+        @Bean
+        @ConditionalOnBean(PQUEClient.class)
+        @ConditionalOnMissingBean(name = "pqueHealthIndicator")
+        @ConditionalOnEnabledHealthIndicator("pque")
+        public PQUEStorageHealthIndicator pqueHealthIndicator(PQUEClient pqueClient, PQUEConfiguration pqueConfiguration) {
+            return new PQUEStorageHealthIndicator(pqueClient, pqueConfiguration);
+        }
     }
 
 }
@@ -1,5 +1,10 @@
 package com.gioorgi.pque.client.config;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
 @ConfigurationProperties(prefix = "pque")
@@ -11,6 +16,243 @@ public class PQUEConfiguration {
 
     private boolean checkMessage = true;
 
+    private int batchSize = 10;
+
+    private Map<String, PQUEQueueConfiguration> queues = new HashMap<>();
+
+    private int pollIntervalMs = 100;
+
+    private int minBackoffMs = 10;
+
+    private int maxBackoffMs = 5000;
+
+    private boolean consumerMetrics = true;
+
+    private int ackBatchSize = 100;
+
+    private int ackMaxDelayMs = 50;
+
+    private boolean lazyArchive = false;
+
+    private int archiveFlushIntervalMs = 1000;
+
+    private int archiveFlushBatchSize = 10000;
+
+    private int expireIntervalMs = 60000;
+
+    private int expireBatchSize = 10000;
+
+    private int payloadGcIntervalMs = 60000;
+
+    private int payloadGcBatchSize = 10000;
+
+    private int promoteIntervalMs = 1000;
+
+    private int promoteBatchSize = 10000;
+
+    private int checkpointIntervalMs = 5000;
+
+    private int shutdownTimeoutMs = 10000;
+
+    private Health health = new Health();
+
+    private Warmup warmup = new Warmup();
+
+    private Autoscale autoscale = new Autoscale();
+
+    private Claims claims = new Claims();
+
+    /** Thresholds of the storage health indicator (pque.health.*) */
+    public static class Health {
+
+        /** Dead tuples ratio above which a queue table is reported as bloated */
+        private double maxDeadTupleRatio = 0.2;
+
+        /** Below this number of dead tuples the ratio is not checked, to ignore tiny tables */
+        private long minDeadTuples = 10000;
+
+        /** Queue table (heap and indexes) size above which the queue is reported, 0 to disable */
+        private long maxQueueBytes = 1024L * 1024 * 1024;
+
+        public double getMaxDeadTupleRatio() {
+            return maxDeadTupleRatio;
+        }
+
+        public void setMaxDeadTupleRatio(double maxDeadTupleRatio) {
+            if (maxDeadTupleRatio <= 0 || maxDeadTupleRatio > 1) {
+                throw new IllegalArgumentException("Dead tuple ratio must be in (0,1]");
+            }
+            this.maxDeadTupleRatio = maxDeadTupleRatio;
+        }
+
+        public long getMinDeadTuples() {
+            return minDeadTuples;
+        }
+
+        public void setMinDeadTuples(long minDeadTuples) {
+            this.minDeadTuples = minDeadTuples;
+        }
+
+        public long getMaxQueueBytes() {
+            return maxQueueBytes;
+        }
+
+        public void setMaxQueueBytes(long maxQueueBytes) {
+            this.maxQueueBytes = maxQueueBytes;
+        }
+    }
+
+    /** Startup warm-up (pque.warmup.*), see PQUEWarmup */
+    public static class Warmup {
+
+        private boolean enabled = false;
+
+        /** Queues to warm up, empty for all the queues */
+        private List<String> queues = new ArrayList<>();
+
+        /** Fully qualified names of the message classes whose serializers are built at startup */
+        private List<String> messageTypes = new ArrayList<>();
+
+        /** Connections opened and warmed up, keep it below the pool maximum size */
+        private int connections = 10;
+
+        public boolean isEnabled() {
+            return enabled;
+        }
+
+        public void setEnabled(boolean enabled) {
+            this.enabled = enabled;
+        }
+
+        public List<String> getQueues() {
+            return queues;
+        }
+
+        public void setQueues(List<String> queues) {
+            this.queues = queues;
+        }
+
+        public List<String> getMessageTypes() {
+            return messageTypes;
+        }
+
+        public void setMessageTypes(List<String> messageTypes) {
+            this.messageTypes = messageTypes;
+        }
+
+        public int getConnections() {
+            return connections;
+        }
+
+        public void setConnections(int connections) {
+            if (connections <= 0) {
+                throw new IllegalArgumentException("Warm-up connections must be >0");
+            }
+            this.connections = connections;
+        }
+    }
+
+    /** Consumer autoscaling (pque.autoscale.*), see PQUEConsumerAutoscaler */
+    public static class Autoscale {
+
+        private int intervalMs = 5000;
+
+        /** Oldest message age, and backlog drain time, that the consumers should keep below */
+        private int targetLagSeconds = 10;
+
+        /** Consecutive samples behind the target before scaling up */
+        private int scaleUpSamples = 2;
+
+        /** Consecutive idle samples before scaling down */
+        private int scaleDownSamples = 6;
+
+        public int getIntervalMs() {
+            return intervalMs;
+        }
+
+        public void setIntervalMs(int intervalMs) {
+            if (intervalMs <= 0) {
+                throw new IllegalArgumentException("Autoscale interval must be >0");
+            }
+            this.intervalMs = intervalMs;
+        }
+
+        public int getTargetLagSeconds() {
+            return targetLagSeconds;
+        }
+
+        public void setTargetLagSeconds(int targetLagSeconds) {
+            if (targetLagSeconds <= 0) {
+                throw new IllegalArgumentException("Target lag must be >0");
+            }
+            this.targetLagSeconds = targetLagSeconds;
+        }
+
+        public int getScaleUpSamples() {
+            return scaleUpSamples;
+        }
+
+        public void setScaleUpSamples(int scaleUpSamples) {
+            if (scaleUpSamples <= 0) {
+                throw new IllegalArgumentException("Scale up samples must be >0");
+            }
+            this.scaleUpSamples = scaleUpSamples;
+        }
+
+        public int getScaleDownSamples() {
+            return scaleDownSamples;
+        }
+
+        public void setScaleDownSamples(int scaleDownSamples) {
+            if (scaleDownSamples <= 0) {
+                throw new IllegalArgumentException("Scale down samples must be >0");
+            }
+            this.scaleDownSamples = scaleDownSamples;
+        }
+    }
+
+    /** Partitioned consumer claims (pque.claims.*), see PQUEPartitionedReader */
+    public static class Claims {
+
+        /** Consumer containers read their own slot first */
+        private boolean partitioned = false;
+
+        private int heartbeatIntervalMs = 5000;
+
+        /** Consumers without heartbeat for this long lose their slot */
+        private int timeoutSeconds = 30;
+
+        public boolean isPartitioned() {
+            return partitioned;
+        }
+
+        public void setPartitioned(boolean partitioned) {
+            this.partitioned = partitioned;
+        }
+
+        public int getHeartbeatIntervalMs() {
+            return heartbeatIntervalMs;
+        }
+
+        public void setHeartbeatIntervalMs(int heartbeatIntervalMs) {
+            if (heartbeatIntervalMs <= 0) {
+                throw new IllegalArgumentException("Heartbeat interval must be >0");
+            }
+            this.heartbeatIntervalMs = heartbeatIntervalMs;
+        }
+
+        public int getTimeoutSeconds() {
+            return timeoutSeconds;
+        }
+
+        public void setTimeoutSeconds(int timeoutSeconds) {
+            if (timeoutSeconds <= 0) {
+                throw new IllegalArgumentException("Consumer timeout must be >0");
+            }
+            this.timeoutSeconds = timeoutSeconds;
+        }
+    }
+
     public PQUEDelay getDelay() {
         return delay;
     }
@@ -34,4 +276,248 @@ public class PQUEConfiguration {
     public void setCheckMessage(boolean checkMessage) {
         this.checkMessage = checkMessage;
     }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be >0");
+        }
+        this.batchSize = batchSize;
+    }
+
+    public Map<String, PQUEQueueConfiguration> getQueues() {
+        return queues;
+    }
+
+    public void setQueues(Map<String, PQUEQueueConfiguration> queues) {
+        this.queues = queues;
+    }
+
+    public int getPollIntervalMs() {
+        return pollIntervalMs;
+    }
+
+    public void setPollIntervalMs(int pollIntervalMs) {
+        if (pollIntervalMs <= 0) {
+            throw new IllegalArgumentException("Poll interval must be >0");
+        }
+        this.pollIntervalMs = pollIntervalMs;
+    }
+
+    public int getMinBackoffMs() {
+        return minBackoffMs;
+    }
+
+    public void setMinBackoffMs(int minBackoffMs) {
+        if (minBackoffMs <= 0) {
+            throw new IllegalArgumentException("Minimum backoff must be >0");
+        }
+        this.minBackoffMs = minBackoffMs;
+    }
+
+    public int getMaxBackoffMs() {
+        return maxBackoffMs;
+    }
+
+    public void setMaxBackoffMs(int maxBackoffMs) {
+        if (maxBackoffMs <= 0) {
+            throw new IllegalArgumentException("Maximum backoff must be >0");
+        }
+        this.maxBackoffMs = maxBackoffMs;
+    }
+
+    public boolean isConsumerMetrics() {
+        return consumerMetrics;
+    }
+
+    public void setConsumerMetrics(boolean consumerMetrics) {
+        this.consumerMetrics = consumerMetrics;
+    }
+
+    public int getAckBatchSize() {
+        return ackBatchSize;
+    }
+
+    public void setAckBatchSize(int ackBatchSize) {
+        if (ackBatchSize <= 0) {
+            throw new IllegalArgumentException("Ack batch size must be >0");
+        }
+        this.ackBatchSize = ackBatchSize;
+    }
+
+    public int getAckMaxDelayMs() {
+        return ackMaxDelayMs;
+    }
+
+    public void setAckMaxDelayMs(int ackMaxDelayMs) {
+        if (ackMaxDelayMs <= 0) {
+            throw new IllegalArgumentException("Ack maximum delay must be >0");
+        }
+        this.ackMaxDelayMs = ackMaxDelayMs;
+    }
+
+    public boolean isLazyArchive() {
+        return lazyArchive;
+    }
+
+    public void setLazyArchive(boolean lazyArchive) {
+        this.lazyArchive = lazyArchive;
+    }
+
+    public int getArchiveFlushIntervalMs() {
+        return archiveFlushIntervalMs;
+    }
+
+    public void setArchiveFlushIntervalMs(int archiveFlushIntervalMs) {
+        if (archiveFlushIntervalMs <= 0) {
+            throw new IllegalArgumentException("Archive flush interval must be >0");
+        }
+        this.archiveFlushIntervalMs = archiveFlushIntervalMs;
+    }
+
+    public int getArchiveFlushBatchSize() {
+        return archiveFlushBatchSize;
+    }
+
+    public void setArchiveFlushBatchSize(int archiveFlushBatchSize) {
+        if (archiveFlushBatchSize <= 0) {
+            throw new IllegalArgumentException("Archive flush batch size must be >0");
+        }
+        this.archiveFlushBatchSize = archiveFlushBatchSize;
+    }
+
+    public int getExpireIntervalMs() {
+        return expireIntervalMs;
+    }
+
+    /** 0 disables the expired messages sweeper */
+    public void setExpireIntervalMs(int expireIntervalMs) {
+        if (expireIntervalMs < 0) {
+            throw new IllegalArgumentException("Expire interval must be >=0");
+        }
+        this.expireIntervalMs = expireIntervalMs;
+    }
+
+    public int getExpireBatchSize() {
+        return expireBatchSize;
+    }
+
+    public void setExpireBatchSize(int expireBatchSize) {
+        if (expireBatchSize <= 0) {
+            throw new IllegalArgumentException("Expire batch size must be >0");
+        }
+        this.expireBatchSize = expireBatchSize;
+    }
+
+    public int getPayloadGcIntervalMs() {
+        return payloadGcIntervalMs;
+    }
+
+    /** 0 disables the payload collector */
+    public void setPayloadGcIntervalMs(int payloadGcIntervalMs) {
+        if (payloadGcIntervalMs < 0) {
+            throw new IllegalArgumentException("Payload gc interval must be >=0");
+        }
+        this.payloadGcIntervalMs = payloadGcIntervalMs;
+    }
+
+    public int getPayloadGcBatchSize() {
+        return payloadGcBatchSize;
+    }
+
+    public void setPayloadGcBatchSize(int payloadGcBatchSize) {
+        if (payloadGcBatchSize <= 0) {
+            throw new IllegalArgumentException("Payload gc batch size must be >0");
+        }
+        this.payloadGcBatchSize = payloadGcBatchSize;
+    }
+
+    public int getPromoteIntervalMs() {
+        return promoteIntervalMs;
+    }
+
+    /** 0 disables the promotion of the scheduled messages */
+    public void setPromoteIntervalMs(int promoteIntervalMs) {
+        if (promoteIntervalMs < 0) {
+            throw new IllegalArgumentException("Promote interval must be >=0");
+        }
+        this.promoteIntervalMs = promoteIntervalMs;
+    }
+
+    public int getPromoteBatchSize() {
+        return promoteBatchSize;
+    }
+
+    public void setPromoteBatchSize(int promoteBatchSize) {
+        if (promoteBatchSize <= 0) {
+            throw new IllegalArgumentException("Promote batch size must be >0");
+        }
+        this.promoteBatchSize = promoteBatchSize;
+    }
+
+    public int getCheckpointIntervalMs() {
+        return checkpointIntervalMs;
+    }
+
+    /** 0 disables the checkpoints (and the automatic restore) of the hybrid queues */
+    public void setCheckpointIntervalMs(int checkpointIntervalMs) {
+        if (checkpointIntervalMs < 0) {
+            throw new IllegalArgumentException("Checkpoint interval must be >=0");
+        }
+        this.checkpointIntervalMs = checkpointIntervalMs;
+    }
+
+    public int getShutdownTimeoutMs() {
+        return shutdownTimeoutMs;
+    }
+
+    public void setShutdownTimeoutMs(int shutdownTimeoutMs) {
+        if (shutdownTimeoutMs <= 0) {
+            throw new IllegalArgumentException("Shutdown timeout must be >0");
+        }
+        this.shutdownTimeoutMs = shutdownTimeoutMs;
+    }
+
+    public Health getHealth() {
+        return health;
+    }
+
+    public Warmup getWarmup() {
+        return warmup;
+    }
+
+    public Autoscale getAutoscale() {
+        return autoscale;
+    }
+
+    public Claims getClaims() {
+        return claims;
+    }
+
+    /** Delay of the queue, or the default one if not overridden */
+    public PQUEDelay getDelay(String queue) {
+        var q = queues.get(queue);
+        return (q == null || q.getDelay() == null) ? delay : new PQUEDelay(q.getDelay());
+    }
+
+    /** Visibility timeout of the queue, or the default one if not overridden */
+    public PQUEVisiblityTimeout getVisibilityTimeout(String queue) {
+        var q = queues.get(queue);
+        return (q == null || q.getVisibilityTimeout() == null) ? visibilityTimeout : new PQUEVisiblityTimeout(q.getVisibilityTimeout());
+    }
+
+    /** Batch size of the queue, or the default one if not overridden */
+    public int getBatchSize(String queue) {
+        var q = queues.get(queue);
+        return (q == null || q.getBatchSize() == null) ? batchSize : q.getBatchSize();
+    }
+
+    /** Lazy archive mode of the queue, or the default one if not overridden */
+    public boolean isLazyArchive(String queue) {
+        var q = queues.get(queue);
+        return (q == null || q.getLazyArchive() == null) ? lazyArchive : q.getLazyArchive();
+    }
 }
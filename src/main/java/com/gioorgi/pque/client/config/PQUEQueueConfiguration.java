@@ -0,0 +1,38 @@
+package com.gioorgi.pque.client.config;
+
+import lombok.Data;
+
+/**
+ * Per-queue overrides, bound from pque.queues.[queue_name].*
+ * Every unset (null) value falls back to the global one in {@link PQUEConfiguration},
+ * and is checked as the global one when set.
+ */
+@Data
+public class PQUEQueueConfiguration {
+    Integer delay;
+    Integer visibilityTimeout;
+    Integer batchSize;
+    /** Archive by marking the message done, moved to the archive later by {@link com.gioorgi.pque.client.PQUEMaintenance} */
+    Boolean lazyArchive;
+
+    public void setDelay(Integer delay) {
+        if (delay != null && delay < 0) {
+            throw new IllegalArgumentException("Delay must be >=0");
+        }
+        this.delay = delay;
+    }
+
+    public void setVisibilityTimeout(Integer visibilityTimeout) {
+        if (visibilityTimeout != null && visibilityTimeout < 0) {
+            throw new IllegalArgumentException("Visibility timeout must be >=0");
+        }
+        this.visibilityTimeout = visibilityTimeout;
+    }
+
+    public void setBatchSize(Integer batchSize) {
+        if (batchSize != null && batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be >0");
+        }
+        this.batchSize = batchSize;
+    }
+}
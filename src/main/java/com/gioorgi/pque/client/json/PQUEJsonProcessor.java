@@ -1,5 +1,11 @@
 package com.gioorgi.pque.client.json;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import com.gioorgi.pque.client.PQUEException;
+
 public interface PQUEJsonProcessor {
 
     boolean isJson(String json);
@@ -7,4 +13,17 @@ public interface PQUEJsonProcessor {
     String toJson(Object object);
 
     <T> T fromJson(String json, Class<T> toClazz);
+
+    /** Parse UTF-8 JSON bytes; override to parse the stream without building a String */
+    default <T> T fromJson(InputStream json, Class<T> toClazz) {
+        try {
+            return fromJson(new String(json.readAllBytes(), StandardCharsets.UTF_8), toClazz);
+        } catch (IOException e) {
+            throw new PQUEException("Failed to read JSON stream", e);
+        }
+    }
+
+    /** Build and cache the (de)serializers of the type, so the first message is not slower */
+    default void warmup(Class<?> type) {
+    }
 }
@@ -1,5 +1,8 @@
 package com.gioorgi.pque.client.json;
 
+import java.io.IOException;
+import java.io.InputStream;
+
 import org.springframework.util.Assert;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
@@ -44,4 +47,20 @@ public class PQUEJsonProcessorJackson implements PQUEJsonProcessor {
             throw new PQUEException("Failed to deserialize from JSON string to object", e);
         }
     }
+
+    /** Readers and writers fetch the root (de)serializer eagerly, and the mapper caches it */
+    @Override
+    public void warmup(Class<?> type) {
+        objectMapper.writerFor(type);
+        objectMapper.readerFor(type);
+    }
+
+    @Override
+    public <T> T fromJson(InputStream json, Class<T> toClazz) {
+        try {
+            return objectMapper.readValue(json, toClazz);
+        } catch (IOException e) {
+            throw new PQUEException("Failed to deserialize from JSON stream to object", e);
+        }
+    }
 }
@@ -2,21 +2,32 @@ package com.gioorgi.pque.controllers;
 import static com.gioorgi.pque.FIXRequest.FixMessageType.QUOTE;
 
 import java.math.BigDecimal;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import com.gioorgi.pque.FIXRequest;
 import com.gioorgi.pque.client.PQUEClient;
+import com.gioorgi.pque.client.PQUELatencyStats;
+import com.gioorgi.pque.client.PQUERpcClient;
 import com.gioorgi.pque.client.PQUEClient.PQUEMetric;
+import com.gioorgi.pque.client.PQUEClient.PQUEStorageMetric;
 import com.gioorgi.pque.client.config.PQUEConfiguration;
+import com.gioorgi.pque.client.json.PQUEJsonProcessor;
+import com.gioorgi.pque.load.LoadHarness;
+import com.gioorgi.pque.load.LoadReport;
 
 import lombok.extern.slf4j.Slf4j;
 
@@ -30,6 +41,12 @@ public class LoadTestApi{
     @Autowired
     PQUEConfiguration pqueConfiguration;
 
+    @Autowired
+    PQUEJsonProcessor jsonProcessor;
+
+    @Autowired
+    PQUERpcClient marketRpcClient;
+
     @GetMapping("/v1/info")
     public ResponseEntity<String> info(){
         var list=pqueClient.listQueues();
@@ -46,11 +63,37 @@ public class LoadTestApi{
     public ResponseEntity<List<PQUEMetric>> status(){
         return ResponseEntity.ok(pqueClient.getMetrics());
     }
+    /** Consumer side: time spent in queue, in the handler and read count, per queue (microseconds) */
+    @GetMapping("/v1/status/latency")
+    public ResponseEntity<Map<String, PQUELatencyStats>> latencyStatus(){
+        return ResponseEntity.ok(pqueClient.getConsumerMetrics().getStats());
+    }
+
+    @GetMapping("/v1/status/storage")
+    public ResponseEntity<List<PQUEStorageMetric>> storageStatus(){
+        return ResponseEntity.ok(pqueClient.getStorageMetrics());
+    }
+
+    /** Ask a quote to the MarketEmulator and wait for its answer, up to 10 seconds */
+    @GetMapping("/v1/market/quote")
+    public CompletableFuture<ResponseEntity<String>> quote(@RequestParam(defaultValue = "EURUSD") String symbol,
+            @RequestParam(defaultValue = "100") BigDecimal quantity){
+        var request=
+            FIXRequest
+            .builder()
+            .msgType(QUOTE)
+            .quoteReqId(UUID.randomUUID().toString())
+            .symbol(symbol)
+            .quantity(quantity)
+            .transactTime(LocalDateTime.now())
+            .build();
+        return marketRpcClient.call("market_request", request, String.class, Duration.ofSeconds(10))
+            .thenApply(ResponseEntity::ok);
+    }
+
     /**
-     * To be truly correct, we should avoid loading messages with the same system we are examining.
-     * TODO: Replace this method with a PLSQL procedure
-     * @param multiplexer
-     * @return
+     * Load the market_request queue with 10*multiplexer+1 quotes.
+     * Messages are generated by the database (pque_generate_load), so we do not measure our own round trip.
      */
     @GetMapping("/v1/loadtest/{multiplexer}")
     public ResponseEntity<PQUEMetric> load(@PathVariable("multiplexer") Long multiplexer){    
@@ -74,16 +117,34 @@ public class LoadTestApi{
         DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyMMddHHSS");
         String formattedDate = now.format(formatter);    
         request.setQuantity(new BigDecimal(multiplexer));
-        for(int i=0; i<=10*multiplexer; i++){
-            String finalId=formattedDate+"_"+i;
-            request.setQuoteReqId(finalId);           
-            pqueClient.send("market_request", request);
-            if(i%950 == 0){
-                log.info("** Loaded {} msg so far",i);
-            }
-        }
+        request.setQuoteReqId(formattedDate);
+        long loaded=pqueClient.generateLoad("market_request", (int)(10*multiplexer+1), request);
+        log.info("** Loaded {} msg",loaded);
 
         return ResponseEntity.ok(
             pqueClient.getMetrics("market_request"));
     }
+
+    /**
+     * Multi-threaded producers/consumers load test, with latency percentiles (in microseconds).
+     * Use a queue nobody else is consuming, like load_test
+     */
+    @GetMapping("/v1/loadtest/harness")
+    public ResponseEntity<LoadReport> harness(
+            @RequestParam(defaultValue = "load_test") String queue,
+            @RequestParam(defaultValue = "2") int producers,
+            @RequestParam(defaultValue = "2") int consumers,
+            @RequestParam(defaultValue = "10000") long messages,
+            @RequestParam(defaultValue = "10") int batchSize,
+            @RequestParam(defaultValue = "256") int payloadBytes) throws InterruptedException {
+        var settings = LoadHarness.Settings.builder()
+            .queue(queue)
+            .producers(producers)
+            .consumers(consumers)
+            .messages(messages)
+            .batchSize(batchSize)
+            .payloadBytes(payloadBytes)
+            .build();
+        return ResponseEntity.ok(new LoadHarness(pqueClient, jsonProcessor).run(settings));
+    }
 }
@@ -0,0 +1,187 @@
+package com.gioorgi.pque.load;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.springframework.util.Assert;
+
+import com.gioorgi.pque.client.PQUEClient;
+import com.gioorgi.pque.client.PQUEException;
+import com.gioorgi.pque.client.PQUEMessage;
+import com.gioorgi.pque.client.config.PQUEVisiblityTimeout;
+import com.gioorgi.pque.client.json.PQUEJsonProcessor;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Multi-threaded load test: N producers send, M consumers read and delete, and the
+ * send, read and end-to-end latencies are collected in HdrHistograms.
+ * The end-to-end latency is measured with System.nanoTime() carried in the message, so
+ * producers and consumers must run in the same JVM, as they do here.
+ *
+ * Use a queue dedicated to the test: messages written by someone else are consumed too,
+ * but they are not in the end-to-end latency.
+ */
+@Slf4j
+public class LoadHarness {
+
+    @Data
+    @Builder
+    public static class Settings {
+        String queue;
+        @Builder.Default
+        int producers = 2;
+        @Builder.Default
+        int consumers = 2;
+        @Builder.Default
+        long messages = 10000;
+        /** Messages per send and per read: 1 means send() and read(), more uses the batch API */
+        @Builder.Default
+        int batchSize = 10;
+        @Builder.Default
+        int payloadBytes = 256;
+        @Builder.Default
+        Duration timeout = Duration.ofMinutes(5);
+    }
+
+    /** Message sent by the producers */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class LoadMessage {
+        long seq;
+        long sentAtNanos;
+        String padding;
+    }
+
+    private final PQUEClient pqueClient;
+    private final PQUEJsonProcessor jsonProcessor;
+
+    public LoadHarness(PQUEClient pqueClient, PQUEJsonProcessor jsonProcessor) {
+        this.pqueClient = pqueClient;
+        this.jsonProcessor = jsonProcessor;
+    }
+
+    public LoadReport run(Settings settings) throws InterruptedException {
+        Assert.hasText(settings.getQueue(), "Queue must not be empty!");
+        Assert.isTrue(settings.getProducers() > 0 && settings.getConsumers() > 0, "At least one producer and one consumer are needed!");
+        Assert.isTrue(settings.getBatchSize() > 0, "Batch size must be positive!");
+
+        Histogram sendLatency = new ConcurrentHistogram(3);
+        Histogram readLatency = new ConcurrentHistogram(3);
+        Histogram endToEndLatency = new ConcurrentHistogram(3);
+        AtomicLong nextSeq = new AtomicLong();
+        AtomicLong sent = new AtomicLong();
+        AtomicLong consumed = new AtomicLong();
+        String padding = "x".repeat(settings.getPayloadBytes());
+        long deadline = System.nanoTime() + settings.getTimeout().toNanos();
+
+        ExecutorService executor = Executors.newFixedThreadPool(settings.getProducers() + settings.getConsumers());
+        List<Future<?>> tasks = new ArrayList<>();
+        long start = System.nanoTime();
+        try {
+            for (int i = 0; i < settings.getProducers(); i++) {
+                tasks.add(executor.submit(() -> produce(settings, padding, nextSeq, sent, sendLatency, deadline)));
+            }
+            for (int i = 0; i < settings.getConsumers(); i++) {
+                tasks.add(executor.submit(() -> consume(settings, consumed, readLatency, endToEndLatency, deadline)));
+            }
+            for (var task : tasks) {
+                try {
+                    task.get();
+                } catch (ExecutionException e) {
+                    throw new PQUEException("Load test failed", e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+        long elapsedMs = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        var latencies = new LinkedHashMap<String, LoadReport.Latency>();
+        latencies.put("send", LoadReport.Latency.of(sendLatency));
+        latencies.put("read", LoadReport.Latency.of(readLatency));
+        latencies.put("endToEnd", LoadReport.Latency.of(endToEndLatency));
+        var report = new LoadReport(settings.getQueue(), settings.getProducers(), settings.getConsumers(),
+                settings.getBatchSize(), sent.get(), consumed.get(), elapsedMs,
+                sent.get() * 1000.0 / elapsedMs, consumed.get() * 1000.0 / elapsedMs,
+                consumed.get() >= settings.getMessages(), latencies);
+        log.info("{}", report);
+        return report;
+    }
+
+    private void produce(Settings settings, String padding, AtomicLong nextSeq, AtomicLong sent,
+            Histogram sendLatency, long deadline) {
+        while (System.nanoTime() < deadline) {
+            long first = nextSeq.getAndAdd(settings.getBatchSize());
+            if (first >= settings.getMessages()) {
+                return;
+            }
+            int count = (int) Math.min(settings.getBatchSize(), settings.getMessages() - first);
+            long begin = System.nanoTime();
+            if (count == 1) {
+                pqueClient.send(settings.getQueue(), new LoadMessage(first, begin, padding));
+            } else {
+                List<LoadMessage> batch = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    batch.add(new LoadMessage(first + i, begin, padding));
+                }
+                pqueClient.sendBatch(settings.getQueue(), batch);
+            }
+            sendLatency.recordValue(micros(System.nanoTime() - begin));
+            sent.addAndGet(count);
+        }
+    }
+
+    private void consume(Settings settings, AtomicLong consumed, Histogram readLatency,
+            Histogram endToEndLatency, long deadline) {
+        var visibilityTimeout = new PQUEVisiblityTimeout(30);
+        while (consumed.get() < settings.getMessages() && System.nanoTime() < deadline) {
+            long begin = System.nanoTime();
+            List<PQUEMessage> messages = pqueClient.readBatch(settings.getQueue(), visibilityTimeout, settings.getBatchSize());
+            long readAt = System.nanoTime();
+            if (messages.isEmpty()) {
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                continue;
+            }
+            readLatency.recordValue(micros(readAt - begin));
+            for (var message : messages) {
+                try {
+                    var loadMessage = jsonProcessor.fromJson(message.getJsonMessage(), LoadMessage.class);
+                    if (loadMessage.getSentAtNanos() != 0) {
+                        endToEndLatency.recordValue(micros(readAt - loadMessage.getSentAtNanos()));
+                    }
+                } catch (PQUEException notOurs) {
+                    log.debug("Message {} was not sent by the load test", message.id());
+                }
+            }
+            pqueClient.deleteBatch(settings.getQueue(), messages.stream().map(PQUEMessage::id).collect(Collectors.toList()));
+            consumed.addAndGet(messages.size());
+        }
+    }
+
+    private static long micros(long nanos) {
+        return Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+}
@@ -0,0 +1,51 @@
+package com.gioorgi.pque.load;
+
+import java.util.Map;
+
+import org.HdrHistogram.Histogram;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Result of a {@link LoadHarness} run. Latencies are in microseconds.
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class LoadReport {
+
+    @Getter
+    @ToString
+    @AllArgsConstructor
+    public static class Latency {
+        long count;
+        double mean;
+        long p50;
+        long p90;
+        long p99;
+        long p999;
+        long max;
+
+        static Latency of(Histogram h) {
+            return new Latency(h.getTotalCount(), h.getMean(),
+                    h.getValueAtPercentile(50), h.getValueAtPercentile(90),
+                    h.getValueAtPercentile(99), h.getValueAtPercentile(99.9),
+                    h.getMaxValue());
+        }
+    }
+
+    String queue;
+    int producers;
+    int consumers;
+    int batchSize;
+    long sent;
+    long consumed;
+    long elapsedMs;
+    double sentPerSec;
+    double consumedPerSec;
+    boolean completed;
+    /** send, read and end-to-end (send to read) latencies */
+    Map<String, Latency> latencies;
+}
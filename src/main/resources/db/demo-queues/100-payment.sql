@@ -4,7 +4,18 @@
 
 select pque_drop_queue('market_request');
 select pque_drop_queue('market_response');
+select pque_drop_queue('load_test');
+select pque_drop_queue('market_quote_reply');
 -- Super fast unlogged: faster but not replicated and not crash safe
-select pque_create_unlogged('market_request');
+-- high-churn profile: HOT updates on read and eager autovacuum
+select pque_create_unlogged('market_request', 'high-churn');
 -- select pque_create('market_request');
+-- Unlogged, but a crash loses only the messages since the last checkpoint (pque.checkpointIntervalMs)
+-- select pque_create_hybrid('market_request', 'high-churn');
+-- Quotes are valid 5 minutes (FIXRequest.validUntilTime): stale ones are never delivered
+select pque_set_ttl('market_request', 300);
 select pque_create('market_response');
+-- Used only by the load test harness (/v1/loadtest/harness)
+select pque_create('load_test', 'high-churn');
+-- Replies of the RPC quotes (/v1/market/quote)
+select pque_create('market_quote_reply');
@@ -14,3 +14,104 @@ CREATE TABLE if not exists t_pque_meta (
     is_unlogged BOOLEAN NOT NULL,
     created_at TIMESTAMP WITH TIME ZONE DEFAULT now() NOT NULL
 );
+
+-- changeset GG:2 runOnChange:false
+-- comment: Pque storage profiles
+
+-- Storage profile of the queue tables: fillfactor, index layout and autovacuum tuning.
+-- Profiles are (re)loaded in 035-pque-storage-profile.sql
+CREATE TABLE if not exists t_pque_storage_profile (
+    profile_name VARCHAR PRIMARY KEY,
+    fillfactor INTEGER NOT NULL DEFAULT 100 CHECK (fillfactor BETWEEN 10 AND 100),
+    index_layout VARCHAR NOT NULL DEFAULT 'vt' CHECK (index_layout IN ('vt', 'vt_msg_id', 'msg_id')),
+    autovacuum_vacuum_scale_factor REAL,
+    autovacuum_vacuum_threshold INTEGER,
+    autovacuum_analyze_scale_factor REAL,
+    autovacuum_vacuum_cost_delay INTEGER,
+    description TEXT
+);
+
+ALTER TABLE t_pque_meta ADD COLUMN IF NOT EXISTS storage_profile VARCHAR DEFAULT 'default' NOT NULL;
+
+-- changeset GG:3 runOnChange:false
+-- comment: Pque topic subscriptions
+
+-- Queues bound to a topic: pque_publish sends a copy of the message to each of them,
+-- if the message contains the filter (an empty filter matches everything)
+CREATE TABLE if not exists t_pque_topic_subscription (
+    topic_name VARCHAR NOT NULL,
+    queue_name VARCHAR NOT NULL REFERENCES t_pque_meta (queue_name) ON DELETE CASCADE,
+    filter JSONB DEFAULT '{}' NOT NULL,
+    created_at TIMESTAMP WITH TIME ZONE DEFAULT now() NOT NULL,
+    PRIMARY KEY (topic_name, queue_name)
+);
+
+-- changeset GG:4 runOnChange:false splitStatements:false
+-- comment: Pque message expiry
+
+-- Default time to live of the messages of the queue in seconds (NULL: never expire),
+-- and the number of messages expired so far. See 085-pque-expiry.sql
+ALTER TABLE t_pque_meta ADD COLUMN IF NOT EXISTS ttl INTEGER;
+ALTER TABLE t_pque_meta ADD COLUMN IF NOT EXISTS expired_ct BIGINT DEFAULT 0 NOT NULL;
+
+-- Expired messages met by the reads, appended without locking t_pque_meta and folded into
+-- t_pque_meta.expired_ct by pque_expire, see 085-pque-expiry.sql.
+-- Unlogged: a crash only loses the counts not folded yet
+CREATE UNLOGGED TABLE IF NOT EXISTS t_pque_expired (
+    queue_name VARCHAR NOT NULL,
+    expired BIGINT NOT NULL
+);
+CREATE INDEX IF NOT EXISTS t_pque_expired_queue_idx ON t_pque_expired (queue_name);
+
+-- Queues created before get the expiry column, and its index for pque_expire
+DO $$
+DECLARE
+    row_name RECORD;
+    qtable TEXT;
+BEGIN
+    FOR row_name IN SELECT queue_name FROM t_pque_meta LOOP
+        qtable := lower('q_' || row_name.queue_name);
+        EXECUTE FORMAT('ALTER TABLE pque_%I ADD COLUMN IF NOT EXISTS expires_at TIMESTAMP WITH TIME ZONE', qtable);
+        EXECUTE FORMAT('CREATE INDEX IF NOT EXISTS %I ON pque_%I (expires_at) WHERE expires_at IS NOT NULL',
+            'expires_at_idx_' || row_name.queue_name, qtable);
+    END LOOP;
+END;
+$$;
+
+-- changeset GG:5 runOnChange:false
+-- comment: Pque claim check
+
+-- Messages bigger than claim_check_bytes are stored in the payload table of the queue (NULL: never).
+-- See 090-pque-claim-check.sql
+ALTER TABLE t_pque_meta ADD COLUMN IF NOT EXISTS claim_check_bytes INTEGER;
+
+-- changeset GG:6 runOnChange:false
+-- comment: Pque hybrid queues
+
+-- Hybrid queue: unlogged queue table with a logged shadow copy, see 095-pque-hybrid.sql
+ALTER TABLE t_pque_meta ADD COLUMN IF NOT EXISTS is_hybrid BOOLEAN DEFAULT FALSE NOT NULL;
+ALTER TABLE t_pque_meta ADD COLUMN IF NOT EXISTS checkpoint_at TIMESTAMP WITH TIME ZONE;
+
+-- Unlogged on purpose: a crash truncates it together with the hybrid queue tables,
+-- so a missing row tells that the queue must be restored from its shadow
+CREATE UNLOGGED TABLE IF NOT EXISTS t_pque_hybrid_alive (
+    queue_name VARCHAR PRIMARY KEY
+);
+
+-- changeset GG:7 runOnChange:false
+-- comment: Pque scheduled messages
+
+-- Delays longer than schedule_after seconds go to the schedule table, see 098-pque-schedule.sql
+ALTER TABLE t_pque_meta ADD COLUMN IF NOT EXISTS schedule_after INTEGER;
+
+-- changeset GG:8 runOnChange:false
+-- comment: Pque consumer registry
+
+-- Consumers of pque_read_partitioned, see 099-pque-consumer-slots.sql.
+-- Unlogged: heartbeats write no WAL, and after a crash the consumers register again
+CREATE UNLOGGED TABLE IF NOT EXISTS t_pque_consumer (
+    queue_name VARCHAR NOT NULL,
+    consumer_id VARCHAR NOT NULL,
+    heartbeat_at TIMESTAMP WITH TIME ZONE DEFAULT now() NOT NULL,
+    PRIMARY KEY (queue_name, consumer_id)
+);
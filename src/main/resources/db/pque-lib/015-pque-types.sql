@@ -29,3 +29,26 @@ CREATE TYPE pque_metrics_result AS (
     total_messages bigint,
     scrape_time timestamp with time zone
 );
+
+-- changeset GG:2 runOnChange:false
+-- comment: Pque multi queue read type
+
+-- returned by pque_read_multi(): a message with its queue
+CREATE TYPE pque_multi_message_record AS (
+    queue_name TEXT,
+    msg_id BIGINT,
+    read_ct INTEGER,
+    enqueued_at TIMESTAMP WITH TIME ZONE,
+    vt TIMESTAMP WITH TIME ZONE,
+    message JSONB
+);
+
+-- changeset GG:3 runOnChange:false
+-- comment: Pque expired messages metric
+
+ALTER TYPE pque_metrics_result ADD ATTRIBUTE expired_messages BIGINT;
+
+-- changeset GG:4 runOnChange:false
+-- comment: Pque scheduled messages metric
+
+ALTER TYPE pque_metrics_result ADD ATTRIBUTE scheduled_messages BIGINT;
@@ -26,96 +26,168 @@ BEGIN
 END;
 $$ LANGUAGE plpgsql;
 
--- read
--- reads a number of messages from a queue, setting a visibility timeout on them
-CREATE OR REPLACE FUNCTION pque_read(
-    queue_name TEXT,
-    vt INTEGER,
-    qty INTEGER
-)
-RETURNS SETOF pque_message_record AS $$
+-- GG: predicate of the optional conditional (JSONB containment) of read and pop.
+-- Empty when there is no condition, so the plan is the same as before; see pque_create_filter_index.
+-- With the queue name, claim checked messages (NULL message) are matched on their payload
+DROP FUNCTION IF EXISTS pque_conditional_predicate(JSONB);
+CREATE OR REPLACE FUNCTION pque_conditional_predicate(conditional JSONB, queue_name TEXT DEFAULT NULL)
+RETURNS TEXT AS $$
+DECLARE
+    qtable TEXT;
+BEGIN
+    IF conditional IS NULL OR conditional = '{}'::jsonb THEN
+        RETURN '';
+    END IF;
+    IF queue_name IS NULL THEN
+        RETURN FORMAT('AND message @> %L::jsonb', conditional);
+    END IF;
+    qtable := pque_format_table_name(queue_name, 'q');
+    RETURN FORMAT(
+        $QUERY$
+        AND (message @> %L::jsonb
+            OR (message IS NULL AND EXISTS (
+                SELECT 1 FROM pque_%I p WHERE p.msg_id = pque_%I.msg_id AND p.payload @> %L::jsonb)))
+        $QUERY$,
+        conditional, pque_format_table_name(queue_name, 'p'), qtable, conditional
+    );
+END;
+$$ LANGUAGE plpgsql IMMUTABLE;
+
+-- GG: lease statement of pque_read and pque_read_with_poll, $1 is the quantity.
+-- Expired messages among the first visible ones are deleted instead of leased:
+-- each row tells if it was leased or discarded (expired true, no payload).
+-- Claim checked payloads are joined back, see 090-pque-claim-check.sql.
+-- slot_predicate narrows the read to a consumer slot, see 099-pque-consumer-slots.sql
+DROP FUNCTION IF EXISTS pque_read_statement(TEXT, INTEGER, JSONB);
+CREATE OR REPLACE FUNCTION pque_read_statement(queue_name TEXT, vt INTEGER, conditional JSONB, slot_predicate TEXT DEFAULT '')
+RETURNS TEXT AS $$
 DECLARE
-    sql TEXT;
     qtable TEXT := pque_format_table_name(queue_name, 'q');
+    ptable TEXT := pque_format_table_name(queue_name, 'p');
 BEGIN
-    sql := FORMAT(
+    RETURN FORMAT(
         $QUERY$
         WITH cte AS
         (
-            SELECT msg_id
+            SELECT msg_id, expires_at <= clock_timestamp() AS expired
             FROM pque_%I
-            WHERE vt <= clock_timestamp()
+            WHERE vt <= clock_timestamp() %s %s
             ORDER BY msg_id ASC
             LIMIT $1
             FOR UPDATE SKIP LOCKED
+        ),
+        discarded AS (
+            DELETE FROM pque_%I m
+            USING cte
+            WHERE m.msg_id = cte.msg_id AND cte.expired
+            RETURNING m.msg_id
+        ),
+        leased AS (
+            UPDATE pque_%I m
+            SET
+                vt = clock_timestamp() + %L,
+                read_ct = read_ct + 1
+            FROM cte
+            WHERE m.msg_id = cte.msg_id AND cte.expired IS NOT TRUE
+            RETURNING m.msg_id, m.read_ct, m.enqueued_at, m.vt, m.message
         )
-        UPDATE pque_%I m
-        SET
-            vt = clock_timestamp() + %L,
-            read_ct = read_ct + 1
-        FROM cte
-        WHERE m.msg_id = cte.msg_id
-        RETURNING m.msg_id, m.read_ct, m.enqueued_at, m.vt, m.message;
+        SELECT FALSE AS expired, l.msg_id, l.read_ct, l.enqueued_at, l.vt, COALESCE(l.message, p.payload) AS message
+        FROM leased l
+        LEFT JOIN pque_%I p ON l.message IS NULL AND p.msg_id = l.msg_id
+        UNION ALL
+        SELECT TRUE, msg_id, NULL, NULL, NULL, NULL FROM discarded;
         $QUERY$,
-        qtable, qtable, make_interval(secs => vt)
+        qtable, pque_conditional_predicate(conditional, queue_name), slot_predicate, qtable, qtable, make_interval(secs => vt), ptable
     );
-    RETURN QUERY EXECUTE sql USING qty;
+END;
+$$ LANGUAGE plpgsql;
+
+-- read
+-- reads a number of messages from a queue, setting a visibility timeout on them
+-- GG: only the messages containing conditional, if not empty.
+-- Expired messages are deleted on the way, and the read goes on to fill qty
+DROP FUNCTION IF EXISTS pque_read(TEXT, INTEGER, INTEGER);
+CREATE OR REPLACE FUNCTION pque_read(
+    queue_name TEXT,
+    vt INTEGER,
+    qty INTEGER,
+    conditional JSONB DEFAULT '{}'
+)
+RETURNS SETOF pque_message_record AS $$
+DECLARE
+    r RECORD;
+    wanted INTEGER := qty;
+    expired INTEGER;
+    sql TEXT := pque_read_statement(queue_name, vt, conditional);
+BEGIN
+    LOOP
+        expired := 0;
+        FOR r IN EXECUTE sql USING wanted LOOP
+            IF r.expired THEN
+                expired := expired + 1;
+            ELSE
+                wanted := wanted - 1;
+                RETURN NEXT ROW(r.msg_id, r.read_ct, r.enqueued_at, r.vt, r.message)::pque_message_record;
+            END IF;
+        END LOOP;
+        EXIT WHEN expired = 0;
+        PERFORM pque_count_expired(queue_name, expired);
+        EXIT WHEN wanted <= 0;
+    END LOOP;
 END;
 $$ LANGUAGE plpgsql;
 
 ---- read_with_poll
 ---- reads a number of messages from a queue, setting a visibility timeout on them
+---- GG: waits poll_interval_ms between attempts, up to max_poll_seconds.
+---- The division is done in numeric: in integer any interval below 1000ms became pg_sleep(0),
+---- and the loop was spinning the backend at 100% CPU.
+---- An attempt finding only expired messages is retried without waiting
+DROP FUNCTION IF EXISTS pque_read_with_poll(TEXT, INTEGER, INTEGER, INTEGER, INTEGER);
 CREATE OR REPLACE FUNCTION pque_read_with_poll(
     queue_name TEXT,
     vt INTEGER,
     qty INTEGER,
     max_poll_seconds INTEGER DEFAULT 5,
-    poll_interval_ms INTEGER DEFAULT 100
+    poll_interval_ms INTEGER DEFAULT 100,
+    conditional JSONB DEFAULT '{}'
 )
 RETURNS SETOF pque_message_record AS $$
 DECLARE
-    r pque_message_record;
-    stop_at TIMESTAMP;
+    r RECORD;
+    stop_at TIMESTAMP WITH TIME ZONE;
+    leased INTEGER;
+    expired INTEGER;
     sql TEXT;
-    qtable TEXT := pque_format_table_name(queue_name, 'q');
 BEGIN
+    IF poll_interval_ms <= 0 THEN
+        RAISE EXCEPTION 'poll_interval_ms must be greater than zero';
+    END IF;
+    -- The statement does not change between iterations: build it once
+    sql := pque_read_statement(queue_name, vt, conditional);
     stop_at := clock_timestamp() + make_interval(secs => max_poll_seconds);
     LOOP
-      IF (SELECT clock_timestamp() >= stop_at) THEN
-        RETURN;
-      END IF;
-
-      sql := FORMAT(
-          $QUERY$
-          WITH cte AS
-          (
-              SELECT msg_id
-              FROM pque_%I
-              WHERE vt <= clock_timestamp()
-              ORDER BY msg_id ASC
-              LIMIT $1
-              FOR UPDATE SKIP LOCKED
-          )
-          UPDATE pque_%I m
-          SET
-              vt = clock_timestamp() + %L,
-              read_ct = read_ct + 1
-          FROM cte
-          WHERE m.msg_id = cte.msg_id
-          RETURNING m.msg_id, m.read_ct, m.enqueued_at, m.vt, m.message;
-          $QUERY$,
-          qtable, qtable, make_interval(secs => vt)
-      );
-
+      leased := 0;
+      expired := 0;
       FOR r IN
         EXECUTE sql USING qty
       LOOP
-        RETURN NEXT r;
+        IF r.expired THEN
+          expired := expired + 1;
+        ELSE
+          leased := leased + 1;
+          RETURN NEXT ROW(r.msg_id, r.read_ct, r.enqueued_at, r.vt, r.message)::pque_message_record;
+        END IF;
       END LOOP;
-      IF FOUND THEN
+      IF expired > 0 THEN
+        PERFORM pque_count_expired(queue_name, expired);
+      END IF;
+      IF leased > 0 OR clock_timestamp() >= stop_at THEN
         RETURN;
-      ELSE
-        PERFORM pg_sleep(poll_interval_ms / 1000);
+      END IF;
+      IF expired = 0 THEN
+        PERFORM pg_sleep(LEAST(poll_interval_ms / 1000.0,
+                               EXTRACT(epoch FROM (stop_at - clock_timestamp()))));
       END IF;
     END LOOP;
 END;
@@ -134,6 +206,7 @@ DECLARE
     result BIGINT;
     qtable TEXT := pque_format_table_name(queue_name, 'q');
     atable TEXT := pque_format_table_name(queue_name, 'a');
+    ptable TEXT := pque_format_table_name(queue_name, 'p');
 BEGIN
     sql := FORMAT(
         $QUERY$
@@ -143,11 +216,12 @@ BEGIN
             RETURNING msg_id, vt, read_ct, enqueued_at, message
         )
         INSERT INTO pque_%I (msg_id, vt, read_ct, enqueued_at, message)
-        SELECT msg_id, vt, read_ct, enqueued_at, message
-        FROM archived
+        SELECT a.msg_id, a.vt, a.read_ct, a.enqueued_at, COALESCE(a.message, p.payload)
+        FROM archived a
+        LEFT JOIN pque_%I p ON a.message IS NULL AND p.msg_id = a.msg_id
         RETURNING msg_id;
         $QUERY$,
-        qtable, atable
+        qtable, atable, ptable
     );
     EXECUTE sql USING msg_id INTO result;
     RETURN NOT (result IS NULL);
@@ -166,6 +240,7 @@ DECLARE
     sql TEXT;
     qtable TEXT := pque_format_table_name(queue_name, 'q');
     atable TEXT := pque_format_table_name(queue_name, 'a');
+    ptable TEXT := pque_format_table_name(queue_name, 'p');
 BEGIN
     sql := FORMAT(
         $QUERY$
@@ -175,11 +250,12 @@ BEGIN
             RETURNING msg_id, vt, read_ct, enqueued_at, message
         )
         INSERT INTO pque_%I (msg_id, vt, read_ct, enqueued_at, message)
-        SELECT msg_id, vt, read_ct, enqueued_at, message
-        FROM archived
+        SELECT a.msg_id, a.vt, a.read_ct, a.enqueued_at, COALESCE(a.message, p.payload)
+        FROM archived a
+        LEFT JOIN pque_%I p ON a.message IS NULL AND p.msg_id = a.msg_id
         RETURNING msg_id;
         $QUERY$,
-        qtable, atable
+        qtable, atable, ptable
     );
     RETURN QUERY EXECUTE sql USING msg_ids;
 END;
@@ -235,47 +311,91 @@ $$ LANGUAGE plpgsql;
 
 -- send
 -- sends a message to a queue, optionally with a delay
+-- GG: and a time to live in seconds, NULL or 0 for the queue default (see pque_set_ttl).
+-- A message bigger than the claim check size goes to the payload table,
+-- a delay over schedule_after to the schedule table (see pque_set_schedule_after)
+DROP FUNCTION IF EXISTS pque_send(TEXT, JSONB, INTEGER);
 CREATE OR REPLACE FUNCTION pque_send(
     queue_name TEXT,
     msg JSONB,
-    delay INTEGER DEFAULT 0
+    delay INTEGER DEFAULT 0,
+    ttl INTEGER DEFAULT NULL
 ) RETURNS SETOF BIGINT AS $$
 DECLARE
     sql TEXT;
+    min_bytes INTEGER;
+    schedule_after INTEGER;
+    expires_at TIMESTAMP WITH TIME ZONE;
     qtable TEXT := pque_format_table_name(queue_name, 'q');
 BEGIN
+    -- One lookup of the queue settings, the time to live included (see pque_expires_at)
+    SELECT m.claim_check_bytes, m.schedule_after,
+        clock_timestamp() + make_interval(secs => COALESCE(NULLIF(pque_send.ttl, 0), m.ttl))
+    INTO min_bytes, schedule_after, expires_at
+    FROM t_pque_meta m WHERE m.queue_name = pque_send.queue_name;
+    IF delay > schedule_after THEN
+        RETURN QUERY EXECUTE pque_schedule_statement(queue_name, delay)
+            USING ARRAY[msg], expires_at;
+        RETURN;
+    END IF;
+    IF pg_column_size(msg) > min_bytes THEN
+        RETURN QUERY EXECUTE pque_claim_check_statement(queue_name, delay)
+            USING ARRAY[msg], expires_at, min_bytes;
+        RETURN;
+    END IF;
     sql := FORMAT(
         $QUERY$
-        INSERT INTO pque_%I (vt, message)
-        VALUES ((clock_timestamp() + %L), $1)
+        INSERT INTO pque_%I (vt, expires_at, message)
+        VALUES ((clock_timestamp() + %L), $2, $1)
         RETURNING msg_id;
         $QUERY$,
         qtable, make_interval(secs => delay)
     );
-    RETURN QUERY EXECUTE sql USING msg;
+    RETURN QUERY EXECUTE sql USING msg, expires_at;
 END;
 $$ LANGUAGE plpgsql;
 
 -- send_batch
 -- sends an array of list of messages to a queue, optionally with a delay
+-- GG: and a time to live, claim check and schedule, like pque_send
+DROP FUNCTION IF EXISTS pque_send_batch(TEXT, JSONB[], INTEGER);
 CREATE OR REPLACE FUNCTION pque_send_batch(
     queue_name TEXT,
     msgs JSONB[],
-    delay INTEGER DEFAULT 0
+    delay INTEGER DEFAULT 0,
+    ttl INTEGER DEFAULT NULL
 ) RETURNS SETOF BIGINT AS $$
 DECLARE
     sql TEXT;
+    min_bytes INTEGER;
+    schedule_after INTEGER;
+    expires_at TIMESTAMP WITH TIME ZONE;
     qtable TEXT := pque_format_table_name(queue_name, 'q');
 BEGIN
+    -- One lookup of the queue settings, the time to live included (see pque_expires_at)
+    SELECT m.claim_check_bytes, m.schedule_after,
+        clock_timestamp() + make_interval(secs => COALESCE(NULLIF(pque_send_batch.ttl, 0), m.ttl))
+    INTO min_bytes, schedule_after, expires_at
+    FROM t_pque_meta m WHERE m.queue_name = pque_send_batch.queue_name;
+    IF delay > schedule_after THEN
+        RETURN QUERY EXECUTE pque_schedule_statement(queue_name, delay)
+            USING msgs, expires_at;
+        RETURN;
+    END IF;
+    IF min_bytes IS NOT NULL THEN
+        RETURN QUERY EXECUTE pque_claim_check_statement(queue_name, delay)
+            USING msgs, expires_at, min_bytes;
+        RETURN;
+    END IF;
     sql := FORMAT(
         $QUERY$
-        INSERT INTO pque_%I (vt, message)
-        SELECT clock_timestamp() + %L, unnest($1)
+        INSERT INTO pque_%I (vt, expires_at, message)
+        SELECT clock_timestamp() + %L, $2, unnest($1)
         RETURNING msg_id;
         $QUERY$,
         qtable, make_interval(secs => delay)
     );
-    RETURN QUERY EXECUTE sql USING msgs;
+    RETURN QUERY EXECUTE sql USING msgs, expires_at;
 END;
 $$ LANGUAGE plpgsql;
 
@@ -287,6 +407,7 @@ DECLARE
     result_row pque_metrics_result;
     query TEXT;
     qtable TEXT := pque_format_table_name(queue_name, 'q');
+    dtable TEXT := pque_format_table_name(queue_name, 'd');
 BEGIN
     query := FORMAT(
         $QUERY$
@@ -297,6 +418,8 @@ BEGIN
                 EXTRACT(epoch FROM (NOW() - min(enqueued_at)))::int as oldest_msg_age_sec,
                 NOW() as scrape_time
             FROM pque_%I
+            -- GG: lazily archived messages are no more in the queue
+            WHERE vt <> 'infinity'
         ),
         all_metrics AS (
             SELECT CASE
@@ -310,10 +433,16 @@ BEGIN
             q_summary.newest_msg_age_sec,
             q_summary.oldest_msg_age_sec,
             all_metrics.total_messages,
-            q_summary.scrape_time
-        FROM q_summary, all_metrics
+            q_summary.scrape_time,
+            pque_expired_count(m.queue_name) as expired_messages,
+            -- GG: counted only when scheduling is on, else the planner estimate of the leftovers
+            CASE WHEN m.schedule_after IS NOT NULL THEN (SELECT count(*) FROM pque_%I)
+                ELSE (SELECT GREATEST(c.reltuples, 0)::BIGINT FROM pg_class c WHERE c.oid = %L::regclass)
+                END as scheduled_messages
+        FROM q_summary, all_metrics, t_pque_meta m
+        WHERE m.queue_name = %L
         $QUERY$,
-        qtable, qtable || '_msg_id_seq', queue_name
+        qtable, qtable || '_msg_id_seq', queue_name, dtable, format('pque_%I', dtable), queue_name
     );
     EXECUTE query INTO result_row;
     RETURN result_row;
@@ -338,7 +467,7 @@ $$ LANGUAGE plpgsql;
 CREATE OR REPLACE FUNCTION pque_list_queues()
 RETURNS SETOF pque_queue_record AS $$
 BEGIN
-  RETURN QUERY SELECT * FROM t_pque_meta;
+  RETURN QUERY SELECT m.queue_name, m.is_partitioned, m.is_unlogged, m.created_at FROM t_pque_meta m;
 END
 $$ LANGUAGE plpgsql;
 
@@ -351,6 +480,12 @@ DECLARE
 BEGIN
   EXECUTE format('DELETE FROM pque_%I', qtable);
   GET DIAGNOSTICS deleted_count = ROW_COUNT;
+  EXECUTE format('DELETE FROM pque_%I', pque_format_table_name(queue_name, 'p'));
+  EXECUTE format('DELETE FROM pque_%I', pque_format_table_name(queue_name, 'd'));
+  -- hybrid queue: a restore must not bring the messages back
+  IF to_regclass('pque_' || pque_format_table_name(queue_name, 's')) IS NOT NULL THEN
+    EXECUTE format('DELETE FROM pque_%I', pque_format_table_name(queue_name, 's'));
+  END IF;
   RETURN deleted_count;
 END
 $$ LANGUAGE plpgsql;
@@ -366,12 +501,18 @@ END
 $$ LANGUAGE plpgsql;
 
 -- pop a single message
-CREATE OR REPLACE FUNCTION pque_pop(queue_name TEXT)
+-- GG: only a message containing conditional, if not empty.
+-- Expired messages are deleted on the way, until a valid one is found
+DROP FUNCTION IF EXISTS pque_pop(TEXT);
+CREATE OR REPLACE FUNCTION pque_pop(queue_name TEXT, conditional JSONB DEFAULT '{}')
 RETURNS SETOF pque_message_record AS $$
 DECLARE
     sql TEXT;
-    result pque_message_record;
+    r RECORD;
+    expired INTEGER := 0;
+    done BOOLEAN;
     qtable TEXT := pque_format_table_name(queue_name, 'q');
+    ptable TEXT := pque_format_table_name(queue_name, 'p');
 BEGIN
     sql := FORMAT(
         $QUERY$
@@ -379,18 +520,38 @@ BEGIN
             (
                 SELECT msg_id
                 FROM pque_%I
-                WHERE vt <= now()
+                WHERE vt <= now() %s
                 ORDER BY msg_id ASC
                 LIMIT 1
                 FOR UPDATE SKIP LOCKED
-            )
-        DELETE from pque_%I
-        WHERE msg_id = (select msg_id from cte)
-        RETURNING *;
+            ),
+        popped AS (
+            DELETE from pque_%I m
+            USING cte
+            WHERE m.msg_id = cte.msg_id
+            RETURNING m.expires_at <= clock_timestamp() AS expired, m.msg_id, m.read_ct, m.enqueued_at, m.vt, m.message
+        )
+        SELECT d.expired, d.msg_id, d.read_ct, d.enqueued_at, d.vt, COALESCE(d.message, p.payload) AS message
+        FROM popped d
+        LEFT JOIN pque_%I p ON d.message IS NULL AND p.msg_id = d.msg_id;
         $QUERY$,
-        qtable, qtable
+        qtable, pque_conditional_predicate(conditional, queue_name), qtable, ptable
     );
-    RETURN QUERY EXECUTE sql;
+    LOOP
+        done := TRUE;
+        FOR r IN EXECUTE sql LOOP
+            IF r.expired THEN
+                expired := expired + 1;
+                done := FALSE;
+            ELSE
+                RETURN NEXT ROW(r.msg_id, r.read_ct, r.enqueued_at, r.vt, r.message)::pque_message_record;
+            END IF;
+        END LOOP;
+        EXIT WHEN done;
+    END LOOP;
+    IF expired > 0 THEN
+        PERFORM pque_count_expired(queue_name, expired);
+    END IF;
 END;
 $$ LANGUAGE plpgsql;
 
@@ -406,8 +567,8 @@ BEGIN
         $QUERY$
         UPDATE pque_%I
         SET vt = (now() + %L)
-        WHERE msg_id = %L
-        RETURNING *;
+        WHERE msg_id = %L AND vt <> 'infinity'
+        RETURNING msg_id, read_ct, enqueued_at, vt, message;
         $QUERY$,
         qtable, make_interval(secs => vt), msg_id
     );
@@ -438,6 +599,27 @@ BEGIN
         atable
     );
 
+    EXECUTE FORMAT(
+        $QUERY$
+        DROP TABLE IF EXISTS pque_%I
+        $QUERY$,
+        pque_format_table_name(queue_name, 'p')
+    );
+
+    EXECUTE FORMAT(
+        $QUERY$
+        DROP TABLE IF EXISTS pque_%I
+        $QUERY$,
+        pque_format_table_name(queue_name, 's')
+    );
+
+    EXECUTE FORMAT(
+        $QUERY$
+        DROP TABLE IF EXISTS pque_%I
+        $QUERY$,
+        pque_format_table_name(queue_name, 'd')
+    );
+
      IF EXISTS (
           SELECT 1
           FROM information_schema.tables
@@ -451,6 +633,30 @@ BEGIN
         );
      END IF;
 
+     IF EXISTS (
+          SELECT 1
+          FROM information_schema.tables
+          WHERE table_name = 't_pque_hybrid_alive'
+     ) THEN
+        DELETE FROM t_pque_hybrid_alive a WHERE a.queue_name = pque_drop_queue.queue_name;
+     END IF;
+
+     IF EXISTS (
+          SELECT 1
+          FROM information_schema.tables
+          WHERE table_name = 't_pque_consumer'
+     ) THEN
+        DELETE FROM t_pque_consumer c WHERE c.queue_name = pque_drop_queue.queue_name;
+     END IF;
+
+     IF EXISTS (
+          SELECT 1
+          FROM information_schema.tables
+          WHERE table_name = 't_pque_expired'
+     ) THEN
+        DELETE FROM t_pque_expired e WHERE e.queue_name = pque_drop_queue.queue_name;
+     END IF;
+
      IF partitioned THEN
         EXECUTE FORMAT(
           $QUERY$
@@ -475,7 +681,9 @@ $$ LANGUAGE plpgsql;
 
 -- FIXME: Useless, removed belongs_to_pgmq
 
-CREATE OR REPLACE FUNCTION pque_create_non_partitioned(queue_name TEXT)
+-- GG: storage_profile added, see 035-pque-storage-profile.sql
+DROP FUNCTION IF EXISTS pque_create_non_partitioned(TEXT);
+CREATE OR REPLACE FUNCTION pque_create_non_partitioned(queue_name TEXT, storage_profile TEXT DEFAULT 'default')
 RETURNS void AS $$
 DECLARE
   qtable TEXT := pque_format_table_name(queue_name, 'q');
@@ -490,7 +698,8 @@ BEGIN
         read_ct INT DEFAULT 0 NOT NULL,
         enqueued_at TIMESTAMP WITH TIME ZONE DEFAULT now() NOT NULL,
         vt TIMESTAMP WITH TIME ZONE NOT NULL,
-        message JSONB
+        message JSONB,
+        expires_at TIMESTAMP WITH TIME ZONE
     )
     $QUERY$,
     qtable
@@ -514,16 +723,17 @@ BEGIN
 
   EXECUTE FORMAT(
     $QUERY$
-    CREATE INDEX IF NOT EXISTS %I ON pque_%I (vt ASC);
+    CREATE INDEX IF NOT EXISTS %I ON pque_%I (archived_at);
     $QUERY$,
-    qtable || '_vt_idx', qtable
+    'archived_at_idx_' || queue_name, atable
   );
 
+  -- GG: expired messages lookup of pque_expire, only the messages with a time to live
   EXECUTE FORMAT(
     $QUERY$
-    CREATE INDEX IF NOT EXISTS %I ON pque_%I (archived_at);
+    CREATE INDEX IF NOT EXISTS %I ON pque_%I (expires_at) WHERE expires_at IS NOT NULL;
     $QUERY$,
-    'archived_at_idx_' || queue_name, atable
+    'expires_at_idx_' || queue_name, qtable
   );
 
   EXECUTE FORMAT(
@@ -535,6 +745,14 @@ BEGIN
     $QUERY$,
     queue_name
   );
+
+  -- vt index, fillfactor and autovacuum settings
+  PERFORM pque_set_storage_profile(queue_name, storage_profile);
+
+  -- GG: large messages, see 090-pque-claim-check.sql
+  PERFORM pque_create_payload_table(queue_name);
+  -- GG: long delays, see 098-pque-schedule.sql
+  PERFORM pque_create_schedule_table(queue_name);
 END;
 $$ LANGUAGE plpgsql;
 
@@ -545,10 +763,11 @@ $$ LANGUAGE plpgsql;
 
 
 
-CREATE OR REPLACE FUNCTION pque_create(queue_name TEXT)
+DROP FUNCTION IF EXISTS pque_create(TEXT);
+CREATE OR REPLACE FUNCTION pque_create(queue_name TEXT, storage_profile TEXT DEFAULT 'default')
 RETURNS void AS $$
 BEGIN
-    PERFORM pque_create_non_partitioned(queue_name);
+    PERFORM pque_create_non_partitioned(queue_name, storage_profile);
 END;
 $$ LANGUAGE plpgsql;
 
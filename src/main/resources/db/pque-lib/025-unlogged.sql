@@ -4,7 +4,8 @@
 
 -- GG: Data written to unlogged tables is not written to the write-ahead log.
 -- They are faster but not replicated and not crash safe. see https://www.postgresql.org/docs/current/sql-createtable.html
-CREATE OR REPLACE FUNCTION pque_create_unlogged(queue_name TEXT)
+DROP FUNCTION IF EXISTS pque_create_unlogged(TEXT);
+CREATE OR REPLACE FUNCTION pque_create_unlogged(queue_name TEXT, storage_profile TEXT DEFAULT 'default')
 RETURNS void AS $$
 DECLARE
   qtable TEXT := pque_format_table_name(queue_name, 'q');
@@ -18,7 +19,8 @@ BEGIN
         read_ct INT DEFAULT 0 NOT NULL,
         enqueued_at TIMESTAMP WITH TIME ZONE DEFAULT now() NOT NULL,
         vt TIMESTAMP WITH TIME ZONE NOT NULL,
-        message JSONB
+        message JSONB,
+        expires_at TIMESTAMP WITH TIME ZONE
     )
     $QUERY$,
     qtable
@@ -43,16 +45,17 @@ BEGIN
 
   EXECUTE FORMAT(
     $QUERY$
-    CREATE INDEX IF NOT EXISTS %I ON pque_%I (vt ASC);
+    CREATE INDEX IF NOT EXISTS %I ON pque_%I (archived_at);
     $QUERY$,
-    qtable || '_vt_idx', qtable
+    'archived_at_idx_' || queue_name, atable
   );
 
+  -- expired messages lookup of pque_expire
   EXECUTE FORMAT(
     $QUERY$
-    CREATE INDEX IF NOT EXISTS %I ON pque_%I (archived_at);
+    CREATE INDEX IF NOT EXISTS %I ON pque_%I (expires_at) WHERE expires_at IS NOT NULL;
     $QUERY$,
-    'archived_at_idx_' || queue_name, atable
+    'expires_at_idx_' || queue_name, qtable
   );
 
   EXECUTE FORMAT(
@@ -64,5 +67,13 @@ BEGIN
     $QUERY$,
     queue_name
   );
+
+  -- vt index, fillfactor and autovacuum settings
+  PERFORM pque_set_storage_profile(queue_name, storage_profile);
+
+  -- large messages, unlogged too
+  PERFORM pque_create_payload_table(queue_name);
+  -- long delays, unlogged too
+  PERFORM pque_create_schedule_table(queue_name);
 END;
 $$ LANGUAGE plpgsql;
\ No newline at end of file
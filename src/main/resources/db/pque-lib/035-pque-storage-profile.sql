@@ -0,0 +1,95 @@
+-- liquibase formatted sql
+-- changeset GG:1 runOnChange:true splitStatements:false
+-- comment: Pque storage profiles
+
+-- GG: every read updates vt and read_ct. When vt is indexed, those updates can never be HOT
+-- (Heap Only Tuple) updates, so every read leaves a dead tuple in the table AND in the indexes.
+-- A profile picks:
+--  fillfactor:   free space left in each page, so the updated row version can stay in the same page
+--  index_layout: 'vt'        index on vt, as pgmq (good when many messages are delayed or leased)
+--                'vt_msg_id' composite index on (vt, msg_id)
+--                'msg_id'    no vt index: the read walks the primary key, and vt/read_ct updates are HOT
+--  autovacuum_*: per table thresholds, so the dead tuples are reclaimed before the table bloats
+-- see https://www.postgresql.org/docs/current/storage-hot.html
+INSERT INTO t_pque_storage_profile (profile_name, fillfactor, index_layout,
+    autovacuum_vacuum_scale_factor, autovacuum_vacuum_threshold,
+    autovacuum_analyze_scale_factor, autovacuum_vacuum_cost_delay, description)
+VALUES
+    ('default',     100, 'vt',        NULL, NULL,  NULL, NULL, 'pgmq layout, database autovacuum settings'),
+    ('high-churn',   70, 'msg_id',    0.0,  1000,  0.02, 0,    'Short backlog, many reads: HOT updates and eager vacuum'),
+    ('bulk',        100, 'vt_msg_id', 0.05, 10000, 0.05, NULL, 'Large backlog loaded in batch, read once'),
+    ('low-latency',  50, 'msg_id',    0.0,  200,   0.01, 0,    'Small queue, very frequent reads: vacuum as soon as possible')
+ON CONFLICT (profile_name) DO UPDATE SET
+    fillfactor = EXCLUDED.fillfactor,
+    index_layout = EXCLUDED.index_layout,
+    autovacuum_vacuum_scale_factor = EXCLUDED.autovacuum_vacuum_scale_factor,
+    autovacuum_vacuum_threshold = EXCLUDED.autovacuum_vacuum_threshold,
+    autovacuum_analyze_scale_factor = EXCLUDED.autovacuum_analyze_scale_factor,
+    autovacuum_vacuum_cost_delay = EXCLUDED.autovacuum_vacuum_cost_delay,
+    description = EXCLUDED.description;
+
+-- Apply a storage profile to the queue table, and record it in t_pque_meta.
+-- Can be called on an existing queue: the new fillfactor applies only to the pages written from now on.
+CREATE OR REPLACE FUNCTION pque_set_storage_profile(queue_name TEXT, storage_profile TEXT)
+RETURNS void AS $$
+DECLARE
+  qtable TEXT := pque_format_table_name(queue_name, 'q');
+  p t_pque_storage_profile%ROWTYPE;
+  options TEXT;
+BEGIN
+  SELECT * INTO p FROM t_pque_storage_profile WHERE profile_name = storage_profile;
+  IF NOT FOUND THEN
+    RAISE EXCEPTION 'unknown storage profile: %', storage_profile;
+  END IF;
+
+  options := FORMAT('fillfactor = %s', p.fillfactor);
+  IF p.autovacuum_vacuum_scale_factor IS NOT NULL THEN
+    options := options || FORMAT(', autovacuum_vacuum_scale_factor = %s', p.autovacuum_vacuum_scale_factor);
+  END IF;
+  IF p.autovacuum_vacuum_threshold IS NOT NULL THEN
+    options := options || FORMAT(', autovacuum_vacuum_threshold = %s', p.autovacuum_vacuum_threshold);
+  END IF;
+  IF p.autovacuum_analyze_scale_factor IS NOT NULL THEN
+    options := options || FORMAT(', autovacuum_analyze_scale_factor = %s', p.autovacuum_analyze_scale_factor);
+  END IF;
+  IF p.autovacuum_vacuum_cost_delay IS NOT NULL THEN
+    options := options || FORMAT(', autovacuum_vacuum_cost_delay = %s', p.autovacuum_vacuum_cost_delay);
+  END IF;
+
+  -- Reset first, so switching profile does not keep the settings of the previous one
+  EXECUTE FORMAT(
+    $QUERY$
+    ALTER TABLE pque_%I RESET (autovacuum_vacuum_scale_factor, autovacuum_vacuum_threshold,
+        autovacuum_analyze_scale_factor, autovacuum_vacuum_cost_delay)
+    $QUERY$,
+    qtable
+  );
+  EXECUTE FORMAT('ALTER TABLE pque_%I SET (%s)', qtable, options);
+
+  IF p.index_layout <> 'vt' THEN
+    EXECUTE FORMAT('DROP INDEX IF EXISTS %I', qtable || '_vt_idx');
+  END IF;
+  IF p.index_layout <> 'vt_msg_id' THEN
+    EXECUTE FORMAT('DROP INDEX IF EXISTS %I', qtable || '_vt_msg_id_idx');
+  END IF;
+
+  IF p.index_layout = 'vt' THEN
+    EXECUTE FORMAT(
+      $QUERY$
+      CREATE INDEX IF NOT EXISTS %I ON pque_%I (vt ASC);
+      $QUERY$,
+      qtable || '_vt_idx', qtable
+    );
+  ELSIF p.index_layout = 'vt_msg_id' THEN
+    EXECUTE FORMAT(
+      $QUERY$
+      CREATE INDEX IF NOT EXISTS %I ON pque_%I (vt ASC, msg_id ASC);
+      $QUERY$,
+      qtable || '_vt_msg_id_idx', qtable
+    );
+  END IF;
+
+  UPDATE t_pque_meta m SET storage_profile = p.profile_name
+  WHERE m.queue_name = pque_set_storage_profile.queue_name;
+END;
+$$ LANGUAGE plpgsql;
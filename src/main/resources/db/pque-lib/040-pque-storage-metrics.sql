@@ -0,0 +1,66 @@
+-- liquibase formatted sql
+-- changeset GG:1 runOnChange:false
+-- comment: Pque storage metrics type
+
+-- returned by pque_storage_metrics() and pque_storage_metrics_all(): one row for the queue table
+-- and one for the archive table
+CREATE TYPE pque_storage_metrics_result AS (
+    queue_name text,
+    relation_kind text,
+    relation_name text,
+    live_tuples bigint,
+    dead_tuples bigint,
+    updated_tuples bigint,
+    hot_updated_tuples bigint,
+    table_bytes bigint,
+    index_bytes bigint,
+    last_vacuum timestamp with time zone,
+    last_autovacuum timestamp with time zone,
+    scrape_time timestamp with time zone
+);
+
+-- changeset GG:2 runOnChange:true splitStatements:false
+-- comment: Pque storage metrics
+
+-- GG: dead tuples, size and vacuum activity of the queue, archive, payload, shadow and schedule tables.
+-- A growing dead_tuples with an old last_autovacuum is what predicts a throughput collapse.
+-- updated_tuples vs hot_updated_tuples tells if the reads are HOT updates (see storage profiles)
+CREATE OR REPLACE FUNCTION pque_storage_metrics(queue_name TEXT)
+RETURNS SETOF pque_storage_metrics_result AS $$
+DECLARE
+    qtable regclass := to_regclass('pque_' || pque_format_table_name(queue_name, 'q'));
+    atable regclass := to_regclass('pque_' || pque_format_table_name(queue_name, 'a'));
+    ptable regclass := to_regclass('pque_' || pque_format_table_name(queue_name, 'p'));
+    stable regclass := to_regclass('pque_' || pque_format_table_name(queue_name, 's'));
+    dtable regclass := to_regclass('pque_' || pque_format_table_name(queue_name, 'd'));
+BEGIN
+    RETURN QUERY
+    SELECT
+        pque_storage_metrics.queue_name,
+        CASE WHEN s.relid = qtable THEN 'queue' WHEN s.relid = ptable THEN 'payload' WHEN s.relid = stable THEN 'shadow' WHEN s.relid = dtable THEN 'schedule' ELSE 'archive' END,
+        s.relname::text,
+        s.n_live_tup,
+        s.n_dead_tup,
+        s.n_tup_upd,
+        s.n_tup_hot_upd,
+        pg_table_size(s.relid),
+        pg_indexes_size(s.relid),
+        s.last_vacuum,
+        s.last_autovacuum,
+        now()
+    FROM pg_stat_user_tables s
+    WHERE s.relid IN (qtable, atable, ptable, stable, dtable)
+    ORDER BY s.relid = qtable DESC, s.relid = atable DESC;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION pque_storage_metrics_all()
+RETURNS SETOF pque_storage_metrics_result AS $$
+DECLARE
+    row_name RECORD;
+BEGIN
+    FOR row_name IN SELECT queue_name FROM t_pque_meta ORDER BY queue_name LOOP
+        RETURN QUERY SELECT * FROM pque_storage_metrics(row_name.queue_name);
+    END LOOP;
+END;
+$$ LANGUAGE plpgsql;
@@ -0,0 +1,32 @@
+-- liquibase formatted sql
+-- changeset GG:1 runOnChange:true splitStatements:false
+-- comment: Pque server-side load generator
+
+-- GG: fill a queue with msg_count copies of payload_template, in a single statement.
+-- Each message gets a "load_seq" key (1..msg_count), so the copies are distinguishable.
+-- Loading from the database avoids measuring the round trip of the client that is loading.
+CREATE OR REPLACE FUNCTION pque_generate_load(
+    queue_name TEXT,
+    msg_count INTEGER,
+    payload_template JSONB DEFAULT '{}'
+)
+RETURNS BIGINT AS $$
+DECLARE
+    inserted BIGINT;
+    qtable TEXT := pque_format_table_name(queue_name, 'q');
+BEGIN
+    IF jsonb_typeof(payload_template) <> 'object' THEN
+        RAISE EXCEPTION 'payload_template must be a JSON object';
+    END IF;
+    EXECUTE FORMAT(
+        $QUERY$
+        INSERT INTO pque_%I (vt, expires_at, message)
+        SELECT clock_timestamp(), $3, $1 || jsonb_build_object('load_seq', g)
+        FROM generate_series(1, $2) g
+        $QUERY$,
+        qtable
+    ) USING payload_template, msg_count, pque_expires_at(queue_name);
+    GET DIAGNOSTICS inserted = ROW_COUNT;
+    RETURN inserted;
+END;
+$$ LANGUAGE plpgsql;
@@ -0,0 +1,25 @@
+-- liquibase formatted sql
+-- changeset GG:1 runOnChange:true splitStatements:false
+-- comment: Pque lease management
+
+-- Sets vt of an array of messages, returns them.
+-- vt = 0 makes the messages visible again immediately (release).
+-- Messages lazily archived (vt = 'infinity') are left alone
+CREATE OR REPLACE FUNCTION pque_set_vt(queue_name TEXT, msg_ids BIGINT[], vt INTEGER)
+RETURNS SETOF pque_message_record AS $$
+DECLARE
+    sql TEXT;
+    qtable TEXT := pque_format_table_name(queue_name, 'q');
+BEGIN
+    sql := FORMAT(
+        $QUERY$
+        UPDATE pque_%I
+        SET vt = (clock_timestamp() + %L)
+        WHERE msg_id = ANY($1) AND vt <> 'infinity'
+        RETURNING msg_id, read_ct, enqueued_at, vt, message;
+        $QUERY$,
+        qtable, make_interval(secs => vt)
+    );
+    RETURN QUERY EXECUTE sql USING msg_ids;
+END;
+$$ LANGUAGE plpgsql;
@@ -0,0 +1,110 @@
+-- liquibase formatted sql
+-- changeset GG:1 runOnChange:true splitStatements:false
+-- comment: Pque lazy archive
+
+-- Lazy archive: the ack only marks the message as done (vt = 'infinity'), so it is never read again,
+-- and pque_archive_flush moves the marked messages to the archive later, in msg_id order.
+-- The hot path pays a single row update instead of a DELETE plus an INSERT.
+-- archived_at is the flush time.
+
+CREATE OR REPLACE FUNCTION pque_archive_lazy(
+    queue_name TEXT,
+    msg_id BIGINT
+)
+RETURNS BOOLEAN AS $$
+DECLARE
+    sql TEXT;
+    result BIGINT;
+    qtable TEXT := pque_format_table_name(queue_name, 'q');
+BEGIN
+    sql := FORMAT(
+        $QUERY$
+        UPDATE pque_%I
+        SET vt = 'infinity'
+        WHERE msg_id = $1 AND vt <> 'infinity'
+        RETURNING msg_id;
+        $QUERY$,
+        qtable
+    );
+    EXECUTE sql USING msg_id INTO result;
+    RETURN NOT (result IS NULL);
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION pque_archive_lazy(
+    queue_name TEXT,
+    msg_ids BIGINT[]
+)
+RETURNS SETOF BIGINT AS $$
+DECLARE
+    sql TEXT;
+    qtable TEXT := pque_format_table_name(queue_name, 'q');
+BEGIN
+    sql := FORMAT(
+        $QUERY$
+        UPDATE pque_%I
+        SET vt = 'infinity'
+        WHERE msg_id = ANY($1) AND vt <> 'infinity'
+        RETURNING msg_id;
+        $QUERY$,
+        qtable
+    );
+    RETURN QUERY EXECUTE sql USING msg_ids;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Moves up to max_rows marked messages to the archive, returns how many were moved.
+-- Rows locked by a concurrent flush are skipped.
+CREATE OR REPLACE FUNCTION pque_archive_flush(
+    queue_name TEXT,
+    max_rows INTEGER DEFAULT 10000
+)
+RETURNS BIGINT AS $$
+DECLARE
+    moved BIGINT;
+    qtable TEXT := pque_format_table_name(queue_name, 'q');
+    atable TEXT := pque_format_table_name(queue_name, 'a');
+    ptable TEXT := pque_format_table_name(queue_name, 'p');
+BEGIN
+    EXECUTE FORMAT(
+        $QUERY$
+        WITH done AS (
+            SELECT msg_id
+            FROM pque_%I
+            WHERE vt = 'infinity'
+            ORDER BY msg_id
+            LIMIT $1
+            FOR UPDATE SKIP LOCKED
+        ),
+        archived AS (
+            DELETE FROM pque_%I q
+            USING done
+            WHERE q.msg_id = done.msg_id
+            RETURNING q.msg_id, q.vt, q.read_ct, q.enqueued_at, q.message
+        )
+        INSERT INTO pque_%I (msg_id, vt, read_ct, enqueued_at, message)
+        SELECT a.msg_id, a.vt, a.read_ct, a.enqueued_at, COALESCE(a.message, p.payload)
+        FROM archived a
+        LEFT JOIN pque_%I p ON a.message IS NULL AND p.msg_id = a.msg_id
+        ORDER BY a.msg_id;
+        $QUERY$,
+        qtable, qtable, atable, ptable
+    ) USING max_rows;
+    GET DIAGNOSTICS moved = ROW_COUNT;
+    RETURN moved;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Flush all the queues, up to max_rows each
+CREATE OR REPLACE FUNCTION pque_archive_flush_all(max_rows INTEGER DEFAULT 10000)
+RETURNS BIGINT AS $$
+DECLARE
+    row_name RECORD;
+    moved BIGINT := 0;
+BEGIN
+    FOR row_name IN SELECT queue_name FROM t_pque_meta LOOP
+        moved := moved + pque_archive_flush(row_name.queue_name, max_rows);
+    END LOOP;
+    RETURN moved;
+END;
+$$ LANGUAGE plpgsql;
@@ -0,0 +1,99 @@
+-- liquibase formatted sql
+-- changeset GG:1 runOnChange:true splitStatements:false
+-- comment: Pque forward
+
+-- Forward: removes (deletes, or archives if archive is true) a message from src_queue
+-- and sends new_msg to dst_queue, in the same transaction.
+-- Returns the id of the new message, or NULL (and sends nothing) if msg_id is no more in src_queue,
+-- so a reply is never lost nor sent twice.
+CREATE OR REPLACE FUNCTION pque_forward(
+    src_queue TEXT,
+    msg_id BIGINT,
+    dst_queue TEXT,
+    new_msg JSONB,
+    archive BOOLEAN DEFAULT FALSE,
+    delay INTEGER DEFAULT 0
+)
+RETURNS BIGINT AS $$
+DECLARE
+    result BIGINT;
+BEGIN
+    SELECT f.msg_id INTO result
+    FROM pque_forward_batch(src_queue, ARRAY[pque_forward.msg_id], dst_queue, ARRAY[new_msg], archive, delay) f;
+    RETURN result;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Batch forward: msg_ids[i] is replaced by new_msgs[i].
+-- Returns the pairs (source message id, new message id) of the forwarded messages.
+-- Expired and lazily archived requests are not answered.
+-- The replies are sent by pque_send_batch: time to live, claim check and schedule of dst_queue apply
+CREATE OR REPLACE FUNCTION pque_forward_batch(
+    src_queue TEXT,
+    msg_ids BIGINT[],
+    dst_queue TEXT,
+    new_msgs JSONB[],
+    archive BOOLEAN DEFAULT FALSE,
+    delay INTEGER DEFAULT 0
+)
+RETURNS TABLE (src_msg_id BIGINT, msg_id BIGINT) AS $$
+DECLARE
+    sql TEXT;
+    archive_sql TEXT := '';
+    src_ids BIGINT[];
+    replies JSONB[];
+    src_table TEXT := pque_format_table_name(src_queue, 'q');
+    arc_table TEXT := pque_format_table_name(src_queue, 'a');
+    payload_table TEXT := pque_format_table_name(src_queue, 'p');
+BEGIN
+    IF cardinality(msg_ids) <> cardinality(new_msgs) THEN
+        RAISE EXCEPTION 'msg_ids and new_msgs must have the same length';
+    END IF;
+    IF archive THEN
+        archive_sql := FORMAT(
+            $QUERY$
+            archived AS (
+                INSERT INTO pque_%I (msg_id, vt, read_ct, enqueued_at, message)
+                SELECT src.msg_id, src.vt, src.read_ct, src.enqueued_at, COALESCE(src.message, p.payload)
+                FROM src
+                LEFT JOIN pque_%I p ON src.message IS NULL AND p.msg_id = src.msg_id
+            ),
+            $QUERY$,
+            arc_table, payload_table
+        );
+    END IF;
+    sql := FORMAT(
+        $QUERY$
+        WITH pairs AS (
+            SELECT DISTINCT ON (p.src_id) p.src_id, p.msg
+            FROM unnest($1, $2) AS p(src_id, msg)
+            ORDER BY p.src_id
+        ),
+        src AS (
+            DELETE FROM pque_%I q
+            USING pairs
+            WHERE q.msg_id = pairs.src_id
+              AND q.vt <> 'infinity'
+              AND (q.expires_at IS NULL OR q.expires_at > clock_timestamp())
+            RETURNING q.msg_id, q.vt, q.read_ct, q.enqueued_at, q.message
+        ),
+        %s
+        fwd AS (
+            SELECT src.msg_id AS src_id, pairs.msg
+            FROM src JOIN pairs ON pairs.src_id = src.msg_id
+        )
+        SELECT array_agg(src_id ORDER BY src_id), array_agg(msg ORDER BY src_id) FROM fwd;
+        $QUERY$,
+        src_table, archive_sql
+    );
+    EXECUTE sql INTO src_ids, replies USING msg_ids, new_msgs;
+    IF src_ids IS NULL THEN
+        RETURN;
+    END IF;
+    RETURN QUERY
+        SELECT s.src_id, d.msg_id
+        FROM unnest(src_ids) WITH ORDINALITY AS s(src_id, ord)
+        JOIN pque_send_batch(dst_queue, replies, delay) WITH ORDINALITY AS d(msg_id, ord) ON d.ord = s.ord
+        ORDER BY s.src_id;
+END;
+$$ LANGUAGE plpgsql;
@@ -0,0 +1,47 @@
+-- liquibase formatted sql
+-- changeset GG:1 runOnChange:true splitStatements:false
+-- comment: Pque filter index
+
+-- GIN index on the message, used by the conditional (message @> conditional) of pque_read and pque_pop.
+-- jsonb_path_ops supports only containment, but it is smaller and faster than the default GIN opclass.
+-- The message is never updated, so reads stay HOT updates when the storage profile allows them.
+-- Claim checked messages are matched on their payload: a partial index on them, and the payload
+-- one, keep the conditional an index scan (BitmapOr) with a claim check too.
+CREATE OR REPLACE FUNCTION pque_create_filter_index(queue_name TEXT)
+RETURNS VOID AS $$
+DECLARE
+  qtable TEXT := pque_format_table_name(queue_name, 'q');
+  ptable TEXT := pque_format_table_name(queue_name, 'p');
+BEGIN
+  EXECUTE FORMAT(
+    $QUERY$
+    CREATE INDEX IF NOT EXISTS %I ON pque_%I USING GIN (message jsonb_path_ops);
+    $QUERY$,
+    qtable || '_message_idx', qtable
+  );
+  EXECUTE FORMAT(
+    $QUERY$
+    CREATE INDEX IF NOT EXISTS %I ON pque_%I (msg_id) WHERE message IS NULL;
+    $QUERY$,
+    qtable || '_claimed_idx', qtable
+  );
+  EXECUTE FORMAT(
+    $QUERY$
+    CREATE INDEX IF NOT EXISTS %I ON pque_%I USING GIN (payload jsonb_path_ops);
+    $QUERY$,
+    ptable || '_payload_idx', ptable
+  );
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION pque_drop_filter_index(queue_name TEXT)
+RETURNS VOID AS $$
+DECLARE
+  qtable TEXT := pque_format_table_name(queue_name, 'q');
+  ptable TEXT := pque_format_table_name(queue_name, 'p');
+BEGIN
+  EXECUTE FORMAT('DROP INDEX IF EXISTS %I', qtable || '_message_idx');
+  EXECUTE FORMAT('DROP INDEX IF EXISTS %I', qtable || '_claimed_idx');
+  EXECUTE FORMAT('DROP INDEX IF EXISTS %I', ptable || '_payload_idx');
+END;
+$$ LANGUAGE plpgsql;
@@ -0,0 +1,57 @@
+-- liquibase formatted sql
+-- changeset GG:1 runOnChange:true splitStatements:false
+-- comment: Pque topics
+
+-- Bind a queue to a topic, optionally only for the messages containing filter.
+-- Subscribing again replaces the filter
+CREATE OR REPLACE FUNCTION pque_subscribe(topic_name TEXT, queue_name TEXT, filter JSONB DEFAULT '{}')
+RETURNS VOID AS $$
+BEGIN
+  INSERT INTO t_pque_topic_subscription (topic_name, queue_name, filter)
+  VALUES (topic_name, queue_name, COALESCE(filter, '{}'))
+  ON CONFLICT ON CONSTRAINT t_pque_topic_subscription_pkey
+  DO UPDATE SET filter = EXCLUDED.filter;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION pque_unsubscribe(topic_name TEXT, queue_name TEXT)
+RETURNS BOOLEAN AS $$
+BEGIN
+  DELETE FROM t_pque_topic_subscription s
+  WHERE s.topic_name = pque_unsubscribe.topic_name AND s.queue_name = pque_unsubscribe.queue_name;
+  RETURN FOUND;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Publish: sends every message to all the queues subscribed to the topic, in one call
+-- whatever the number of subscribers. Each queue gets its matching messages with pque_send_batch,
+-- so its time to live, claim check and schedule apply.
+-- Returns the queue and the id of every message sent.
+-- Queues are written in name order, so concurrent publishers do not deadlock.
+CREATE OR REPLACE FUNCTION pque_publish_batch(topic_name TEXT, msgs JSONB[], delay INTEGER DEFAULT 0)
+RETURNS TABLE (queue_name TEXT, msg_id BIGINT) AS $$
+DECLARE
+  sub RECORD;
+  matching JSONB[];
+BEGIN
+  FOR sub IN
+    SELECT s.queue_name, s.filter
+    FROM t_pque_topic_subscription s
+    WHERE s.topic_name = pque_publish_batch.topic_name
+    ORDER BY s.queue_name
+  LOOP
+    SELECT array_agg(t.msg ORDER BY t.ord) INTO matching
+    FROM unnest(msgs) WITH ORDINALITY AS t(msg, ord)
+    WHERE sub.filter = '{}'::jsonb OR t.msg @> sub.filter;
+    CONTINUE WHEN matching IS NULL;
+    RETURN QUERY SELECT sub.queue_name::TEXT, s.id FROM pque_send_batch(sub.queue_name, matching, delay) AS s(id);
+  END LOOP;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION pque_publish(topic_name TEXT, msg JSONB, delay INTEGER DEFAULT 0)
+RETURNS TABLE (queue_name TEXT, msg_id BIGINT) AS $$
+BEGIN
+  RETURN QUERY SELECT * FROM pque_publish_batch(topic_name, ARRAY[msg], delay);
+END;
+$$ LANGUAGE plpgsql;
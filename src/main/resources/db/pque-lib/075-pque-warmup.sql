@@ -0,0 +1,17 @@
+-- liquibase formatted sql
+-- changeset GG:1 runOnChange:true splitStatements:false
+-- comment: Pque warm-up
+
+-- Calls the queue functions once without touching any message,
+-- so PL/pgSQL compiles them and caches their plans in the calling backend.
+-- pque_send is left out: it would consume a msg_id.
+CREATE OR REPLACE FUNCTION pque_warmup(queue_name TEXT)
+RETURNS VOID AS $$
+BEGIN
+  PERFORM pque_read(queue_name, 0, 0);
+  PERFORM pque_set_vt(queue_name, ARRAY[]::BIGINT[], 0);
+  PERFORM pque_delete(queue_name, ARRAY[]::BIGINT[]);
+  PERFORM pque_archive(queue_name, ARRAY[]::BIGINT[]);
+  PERFORM pque_metrics(queue_name);
+END;
+$$ LANGUAGE plpgsql;
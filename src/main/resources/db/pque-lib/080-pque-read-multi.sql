@@ -0,0 +1,69 @@
+-- liquibase formatted sql
+-- changeset GG:1 runOnChange:true splitStatements:false
+-- comment: Pque weighted multi queue read
+
+-- Reads up to qty messages from several queues in one call, returning the queue of each message.
+-- Each queue gets a share of qty proportional to its weight, rounded down; the slots left by the
+-- rounding go one each to the queues by decreasing weight. The share left unused by a queue
+-- with fewer visible messages is then filled from the other queues, heaviest first.
+-- A queue with weight 0 is read only when the others do not fill the batch.
+CREATE OR REPLACE FUNCTION pque_read_multi(queue_names TEXT[], weights INTEGER[], vt INTEGER, qty INTEGER)
+RETURNS SETOF pque_multi_message_record AS $$
+DECLARE
+  n INTEGER := COALESCE(array_length(queue_names, 1), 0);
+  total_weight BIGINT;
+  quotas INTEGER[];
+  exhausted BOOLEAN[];
+  remaining INTEGER := qty;
+  got INTEGER;
+  q RECORD;
+BEGIN
+  IF n <> COALESCE(array_length(weights, 1), 0) THEN
+    RAISE EXCEPTION 'one weight for each queue is required';
+  END IF;
+  IF n = 0 OR qty <= 0 THEN
+    RETURN;
+  END IF;
+  IF EXISTS (SELECT 1 FROM unnest(weights) w WHERE w IS NULL OR w < 0) THEN
+    RAISE EXCEPTION 'weights must not be negative';
+  END IF;
+  SELECT sum(w) INTO total_weight FROM unnest(weights) w;
+  IF total_weight = 0 THEN
+    RAISE EXCEPTION 'at least one weight must be positive';
+  END IF;
+
+  quotas := array_fill(0, ARRAY[n]);
+  exhausted := array_fill(false, ARRAY[n]);
+  FOR i IN 1..n LOOP
+    quotas[i] := (qty::BIGINT * weights[i] / total_weight)::INTEGER;
+    remaining := remaining - quotas[i];
+  END LOOP;
+  FOR q IN SELECT o.i FROM unnest(weights) WITH ORDINALITY AS o(w, i) ORDER BY o.w DESC, o.i LOOP
+    EXIT WHEN remaining = 0;
+    quotas[q.i] := quotas[q.i] + 1;
+    remaining := remaining - 1;
+  END LOOP;
+
+  -- Weighted shares
+  FOR i IN 1..n LOOP
+    CONTINUE WHEN quotas[i] = 0;
+    RETURN QUERY
+      SELECT queue_names[i], r.msg_id, r.read_ct, r.enqueued_at, r.vt, r.message
+      FROM pque_read(queue_names[i], pque_read_multi.vt, quotas[i]) r;
+    GET DIAGNOSTICS got = ROW_COUNT;
+    exhausted[i] := got < quotas[i];
+    remaining := remaining + quotas[i] - got;
+  END LOOP;
+
+  -- Unused shares, heaviest queues first
+  FOR q IN SELECT o.i FROM unnest(weights) WITH ORDINALITY AS o(w, i) ORDER BY o.w DESC, o.i LOOP
+    EXIT WHEN remaining = 0;
+    CONTINUE WHEN exhausted[q.i];
+    RETURN QUERY
+      SELECT queue_names[q.i], r.msg_id, r.read_ct, r.enqueued_at, r.vt, r.message
+      FROM pque_read(queue_names[q.i], pque_read_multi.vt, remaining) r;
+    GET DIAGNOSTICS got = ROW_COUNT;
+    remaining := remaining - got;
+  END LOOP;
+END;
+$$ LANGUAGE plpgsql;
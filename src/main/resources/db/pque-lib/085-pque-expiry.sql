@@ -0,0 +1,121 @@
+-- liquibase formatted sql
+-- changeset GG:1 runOnChange:true splitStatements:false
+-- comment: Pque message expiry
+
+-- A message with expires_at in the past is never delivered: pque_read and pque_pop delete it
+-- when they meet it, pque_expire deletes the ones they do not reach.
+-- Messages being processed (leased) are left to their consumer.
+-- The time to live counts from the send, a delay does not extend it.
+
+-- Expiry of a message sent now: ttl seconds, or the queue default when ttl is NULL or 0.
+-- NULL if the message never expires. pque_send and pque_send_batch compute it inline,
+-- with the other settings of the queue they read anyway
+CREATE OR REPLACE FUNCTION pque_expires_at(queue_name TEXT, ttl INTEGER DEFAULT NULL)
+RETURNS TIMESTAMP WITH TIME ZONE AS $$
+DECLARE
+    seconds INTEGER := NULLIF(pque_expires_at.ttl, 0);
+BEGIN
+    IF seconds IS NULL THEN
+        SELECT m.ttl INTO seconds
+        FROM t_pque_meta m
+        WHERE m.queue_name = pque_expires_at.queue_name;
+    END IF;
+    RETURN clock_timestamp() + make_interval(secs => seconds);
+END;
+$$ LANGUAGE plpgsql;
+
+-- Default time to live of the queue messages, in seconds. NULL or 0: never expire.
+-- Only the messages sent afterwards are affected
+CREATE OR REPLACE FUNCTION pque_set_ttl(queue_name TEXT, ttl INTEGER)
+RETURNS VOID AS $$
+BEGIN
+    IF ttl < 0 THEN
+        RAISE EXCEPTION 'ttl must not be negative';
+    END IF;
+    UPDATE t_pque_meta m
+    SET ttl = NULLIF(pque_set_ttl.ttl, 0)
+    WHERE m.queue_name = pque_set_ttl.queue_name;
+    IF NOT FOUND THEN
+        RAISE EXCEPTION 'queue % does not exist', queue_name;
+    END IF;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Adds to the expired messages counter reported by pque_metrics.
+-- Called by the reads: an insert, so that concurrent readers do not queue up on the t_pque_meta row
+CREATE OR REPLACE FUNCTION pque_count_expired(queue_name TEXT, expired BIGINT)
+RETURNS VOID AS $$
+BEGIN
+    INSERT INTO t_pque_expired (queue_name, expired)
+    VALUES (pque_count_expired.queue_name, pque_count_expired.expired);
+END;
+$$ LANGUAGE plpgsql;
+
+-- Expired messages counted so far, folded or not
+CREATE OR REPLACE FUNCTION pque_expired_count(queue_name TEXT)
+RETURNS BIGINT AS $$
+    SELECT m.expired_ct + COALESCE((
+        SELECT sum(e.expired) FROM t_pque_expired e WHERE e.queue_name = pque_expired_count.queue_name
+    ), 0)
+    FROM t_pque_meta m
+    WHERE m.queue_name = pque_expired_count.queue_name;
+$$ LANGUAGE sql;
+
+-- Deletes up to max_rows expired messages, returns how many were deleted.
+-- Leased messages and rows locked by a concurrent reader are skipped.
+-- The expired counter is updated here only, with the counts appended by the reads
+CREATE OR REPLACE FUNCTION pque_expire(
+    queue_name TEXT,
+    max_rows INTEGER DEFAULT 10000
+)
+RETURNS BIGINT AS $$
+DECLARE
+    deleted BIGINT;
+    counted BIGINT;
+    qtable TEXT := pque_format_table_name(queue_name, 'q');
+BEGIN
+    EXECUTE FORMAT(
+        $QUERY$
+        WITH expired AS (
+            SELECT msg_id
+            FROM pque_%I
+            WHERE expires_at <= clock_timestamp() AND vt <= clock_timestamp()
+            ORDER BY expires_at
+            LIMIT $1
+            FOR UPDATE SKIP LOCKED
+        )
+        DELETE FROM pque_%I q
+        USING expired
+        WHERE q.msg_id = expired.msg_id;
+        $QUERY$,
+        qtable, qtable
+    ) USING max_rows;
+    GET DIAGNOSTICS deleted = ROW_COUNT;
+    WITH folded AS (
+        DELETE FROM t_pque_expired e
+        WHERE e.queue_name = pque_expire.queue_name
+        RETURNING e.expired
+    )
+    SELECT COALESCE(sum(expired), 0) INTO counted FROM folded;
+    IF deleted + counted > 0 THEN
+        UPDATE t_pque_meta m
+        SET expired_ct = m.expired_ct + deleted + counted
+        WHERE m.queue_name = pque_expire.queue_name;
+    END IF;
+    RETURN deleted;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Expire all the queues, up to max_rows each
+CREATE OR REPLACE FUNCTION pque_expire_all(max_rows INTEGER DEFAULT 10000)
+RETURNS BIGINT AS $$
+DECLARE
+    row_name RECORD;
+    deleted BIGINT := 0;
+BEGIN
+    FOR row_name IN SELECT queue_name FROM t_pque_meta LOOP
+        deleted := deleted + pque_expire(row_name.queue_name, max_rows);
+    END LOOP;
+    RETURN deleted;
+END;
+$$ LANGUAGE plpgsql;
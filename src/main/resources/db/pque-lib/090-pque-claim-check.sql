@@ -0,0 +1,122 @@
+-- liquibase formatted sql
+-- changeset GG:1 runOnChange:true splitStatements:false
+-- comment: Pque claim check
+
+-- Claim check: a message bigger than the claim_check_bytes of its queue is stored in the payload
+-- table pque_p_[queue], keyed by msg_id, and its queue row keeps a NULL message.
+-- The queue row stays narrow: the lease updates of pque_read rewrite a small tuple, and scans skip
+-- the large payloads. Reads and pops get the payload back with a join in the same statement,
+-- archives store it inline. Payloads of removed messages are deleted by pque_payload_gc.
+-- Filtered reads match the payload of the claim checked messages, see pque_conditional_predicate.
+
+-- Payload table of a queue, unlogged like the queue.
+-- Payloads are compressed by TOAST, with lz4 when the server supports it
+CREATE OR REPLACE FUNCTION pque_create_payload_table(queue_name TEXT)
+RETURNS VOID AS $$
+DECLARE
+    ptable TEXT := pque_format_table_name(queue_name, 'p');
+    unlogged BOOLEAN;
+BEGIN
+    SELECT m.is_unlogged INTO unlogged
+    FROM t_pque_meta m
+    WHERE m.queue_name = pque_create_payload_table.queue_name;
+    EXECUTE FORMAT(
+        $QUERY$
+        CREATE %s TABLE IF NOT EXISTS pque_%I (
+            msg_id BIGINT PRIMARY KEY,
+            payload JSONB NOT NULL
+        )
+        $QUERY$,
+        CASE WHEN unlogged THEN 'UNLOGGED' ELSE '' END, ptable
+    );
+    BEGIN
+        EXECUTE FORMAT('ALTER TABLE pque_%I ALTER COLUMN payload SET COMPRESSION lz4', ptable);
+    EXCEPTION WHEN OTHERS THEN
+        -- Before PostgreSQL 14, or built without lz4: pglz
+        NULL;
+    END;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Messages of the queue bigger than min_bytes (as stored JSONB) go to the payload table.
+-- NULL or 0 disables the claim check; messages already sent stay where they are
+CREATE OR REPLACE FUNCTION pque_set_claim_check(queue_name TEXT, min_bytes INTEGER)
+RETURNS VOID AS $$
+BEGIN
+    IF min_bytes < 0 THEN
+        RAISE EXCEPTION 'min_bytes must not be negative';
+    END IF;
+    UPDATE t_pque_meta m
+    SET claim_check_bytes = NULLIF(pque_set_claim_check.min_bytes, 0)
+    WHERE m.queue_name = pque_set_claim_check.queue_name;
+    IF NOT FOUND THEN
+        RAISE EXCEPTION 'queue % does not exist', queue_name;
+    END IF;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Insert statement of pque_send and pque_send_batch when the queue has a claim check:
+-- $1 messages, $2 expires_at, $3 claim_check_bytes. Returns the msg_ids in the messages order
+CREATE OR REPLACE FUNCTION pque_claim_check_statement(queue_name TEXT, delay INTEGER)
+RETURNS TEXT AS $$
+DECLARE
+    qtable TEXT := pque_format_table_name(queue_name, 'q');
+    ptable TEXT := pque_format_table_name(queue_name, 'p');
+BEGIN
+    RETURN FORMAT(
+        $QUERY$
+        WITH input AS (
+            SELECT nextval(%L) AS msg_id, t.msg, pg_column_size(t.msg) > $3 AS large
+            FROM unnest($1) WITH ORDINALITY AS t(msg, ord)
+            ORDER BY t.ord
+        ),
+        stored AS (
+            INSERT INTO pque_%I (msg_id, payload)
+            SELECT msg_id, msg FROM input WHERE large
+        )
+        INSERT INTO pque_%I (msg_id, vt, expires_at, message) OVERRIDING SYSTEM VALUE
+        SELECT msg_id, clock_timestamp() + %L, $2, CASE WHEN large THEN NULL ELSE msg END
+        FROM input
+        ORDER BY msg_id
+        RETURNING msg_id;
+        $QUERY$,
+        quote_ident('pque_' || qtable || '_msg_id_seq'), ptable, qtable, make_interval(secs => delay)
+    );
+END;
+$$ LANGUAGE plpgsql;
+
+-- Deletes up to max_rows payloads whose message is no more in the queue, returns how many were deleted
+CREATE OR REPLACE FUNCTION pque_payload_gc(
+    queue_name TEXT,
+    max_rows INTEGER DEFAULT 10000
+)
+RETURNS BIGINT AS $$
+DECLARE
+    deleted BIGINT;
+    qtable TEXT := pque_format_table_name(queue_name, 'q');
+    ptable TEXT := pque_format_table_name(queue_name, 'p');
+BEGIN
+    EXECUTE FORMAT(
+        $QUERY$
+        WITH orphans AS (
+            SELECT p.msg_id
+            FROM pque_%I p
+            WHERE NOT EXISTS (SELECT 1 FROM pque_%I q WHERE q.msg_id = p.msg_id)
+            LIMIT $1
+            FOR UPDATE SKIP LOCKED
+        )
+        DELETE FROM pque_%I p
+        USING orphans
+        WHERE p.msg_id = orphans.msg_id;
+        $QUERY$,
+        ptable, qtable, ptable
+    ) USING max_rows;
+    GET DIAGNOSTICS deleted = ROW_COUNT;
+    RETURN deleted;
+END;
+$$ LANGUAGE plpgsql;
+
+-- changeset GG:2 runOnChange:false
+-- comment: Pque payload tables of the existing queues
+
+SELECT pque_create_payload_table(queue_name) FROM t_pque_meta;
@@ -0,0 +1,168 @@
+-- liquibase formatted sql
+-- changeset GG:1 runOnChange:true splitStatements:false
+-- comment: Pque hybrid queues
+
+-- Hybrid queue: the queue table is unlogged (no WAL on send and read), and pque_checkpoint
+-- copies the messages not yet consumed to the logged shadow table pque_s_[queue].
+-- After a crash the queue table is empty: the next pque_checkpoint (or pque_restore) sends
+-- the shadow messages again, with new msg_ids, visible at once.
+-- What is lost is bounded by the checkpoint interval: the messages sent after the last checkpoint.
+-- Messages consumed after the last checkpoint are delivered again.
+
+-- Same tables of pque_create_unlogged, plus the shadow table
+CREATE OR REPLACE FUNCTION pque_create_hybrid(queue_name TEXT, storage_profile TEXT DEFAULT 'default')
+RETURNS VOID AS $$
+DECLARE
+    stable TEXT := pque_format_table_name(queue_name, 's');
+BEGIN
+    PERFORM pque_create_unlogged(queue_name, storage_profile);
+    EXECUTE FORMAT(
+        $QUERY$
+        CREATE TABLE IF NOT EXISTS pque_%I (
+            msg_id BIGINT PRIMARY KEY,
+            read_ct INT DEFAULT 0 NOT NULL,
+            enqueued_at TIMESTAMP WITH TIME ZONE NOT NULL,
+            message JSONB NOT NULL,
+            expires_at TIMESTAMP WITH TIME ZONE
+        )
+        $QUERY$,
+        stable
+    );
+    UPDATE t_pque_meta m
+    SET is_hybrid = TRUE
+    WHERE m.queue_name = pque_create_hybrid.queue_name;
+    -- Scheduled messages wait long: they are not checkpointed, so they are logged
+    EXECUTE FORMAT('ALTER TABLE pque_%I SET LOGGED', pque_format_table_name(queue_name, 'd'));
+    INSERT INTO t_pque_hybrid_alive (queue_name)
+    VALUES (queue_name)
+    ON CONFLICT DO NOTHING;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Sends again the shadow messages, if the queue table was lost in a crash.
+-- Returns the number of restored messages, 0 if there was nothing to restore.
+-- New msg_ids are used: after a crash the msg_id sequence may start again, so it is first moved
+-- past the msg_ids of the logged tables (shadow and schedule), or they would be handed out twice
+CREATE OR REPLACE FUNCTION pque_restore(queue_name TEXT)
+RETURNS BIGINT AS $$
+DECLARE
+    restored BIGINT;
+    last_id BIGINT;
+    qtable TEXT := pque_format_table_name(queue_name, 'q');
+    stable TEXT := pque_format_table_name(queue_name, 's');
+    dtable TEXT := pque_format_table_name(queue_name, 'd');
+    seq TEXT := format('pque_%I', qtable || '_msg_id_seq');
+BEGIN
+    PERFORM pg_advisory_xact_lock(hashtext('pque_checkpoint'), hashtext(queue_name));
+    IF EXISTS (SELECT 1 FROM t_pque_hybrid_alive a WHERE a.queue_name = pque_restore.queue_name) THEN
+        RETURN 0;
+    END IF;
+    EXECUTE FORMAT(
+        $QUERY$
+        SELECT GREATEST((SELECT max(msg_id) FROM pque_%I), (SELECT max(msg_id) FROM pque_%I))
+        $QUERY$,
+        stable, dtable
+    ) INTO last_id;
+    IF last_id IS NOT NULL THEN
+        EXECUTE FORMAT('SELECT setval(%L, GREATEST($1, last_value)) FROM %s', seq, seq) USING last_id;
+    END IF;
+    EXECUTE FORMAT(
+        $QUERY$
+        INSERT INTO pque_%I (vt, read_ct, enqueued_at, message, expires_at)
+        SELECT clock_timestamp(), read_ct, enqueued_at, message, expires_at
+        FROM pque_%I
+        ORDER BY msg_id
+        $QUERY$,
+        qtable, stable
+    );
+    GET DIAGNOSTICS restored = ROW_COUNT;
+    -- The shadow now follows the new msg_ids
+    EXECUTE FORMAT('DELETE FROM pque_%I', stable);
+    PERFORM pque_copy_to_shadow(queue_name);
+    INSERT INTO t_pque_hybrid_alive (queue_name)
+    VALUES (queue_name)
+    ON CONFLICT DO NOTHING;
+    UPDATE t_pque_meta m
+    SET checkpoint_at = clock_timestamp()
+    WHERE m.queue_name = pque_restore.queue_name;
+    RAISE WARNING 'pque: queue % lost in a crash, % messages restored', queue_name, restored;
+    RETURN restored;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Copies to the shadow the messages not yet there, payloads inline.
+-- Lazily archived and expired messages are left out. Returns the number of copied messages
+CREATE OR REPLACE FUNCTION pque_copy_to_shadow(queue_name TEXT)
+RETURNS BIGINT AS $$
+DECLARE
+    copied BIGINT;
+    qtable TEXT := pque_format_table_name(queue_name, 'q');
+    ptable TEXT := pque_format_table_name(queue_name, 'p');
+    stable TEXT := pque_format_table_name(queue_name, 's');
+BEGIN
+    EXECUTE FORMAT(
+        $QUERY$
+        INSERT INTO pque_%I (msg_id, read_ct, enqueued_at, message, expires_at)
+        SELECT q.msg_id, q.read_ct, q.enqueued_at, COALESCE(q.message, p.payload), q.expires_at
+        FROM pque_%I q
+        LEFT JOIN pque_%I p ON q.message IS NULL AND p.msg_id = q.msg_id
+        WHERE q.vt <> 'infinity'
+          AND (q.expires_at IS NULL OR q.expires_at > clock_timestamp())
+          AND NOT EXISTS (SELECT 1 FROM pque_%I s WHERE s.msg_id = q.msg_id)
+        ON CONFLICT DO NOTHING
+        $QUERY$,
+        stable, qtable, ptable, stable
+    );
+    GET DIAGNOSTICS copied = ROW_COUNT;
+    RETURN copied;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Checkpoint of a hybrid queue: the shadow drops the consumed messages and gets the new ones.
+-- If the queue was lost in a crash it is restored instead.
+-- A checkpoint already running on the queue (i.e. from another instance) is not waited for.
+-- Returns the number of copied (or restored) messages
+CREATE OR REPLACE FUNCTION pque_checkpoint(queue_name TEXT)
+RETURNS BIGINT AS $$
+DECLARE
+    copied BIGINT;
+    qtable TEXT := pque_format_table_name(queue_name, 'q');
+    stable TEXT := pque_format_table_name(queue_name, 's');
+BEGIN
+    IF NOT EXISTS (SELECT 1 FROM t_pque_meta m WHERE m.queue_name = pque_checkpoint.queue_name AND m.is_hybrid) THEN
+        RAISE EXCEPTION 'queue % is not a hybrid queue', queue_name;
+    END IF;
+    IF NOT pg_try_advisory_xact_lock(hashtext('pque_checkpoint'), hashtext(queue_name)) THEN
+        RETURN 0;
+    END IF;
+    IF NOT EXISTS (SELECT 1 FROM t_pque_hybrid_alive a WHERE a.queue_name = pque_checkpoint.queue_name) THEN
+        RETURN pque_restore(queue_name);
+    END IF;
+    EXECUTE FORMAT(
+        $QUERY$
+        DELETE FROM pque_%I s
+        WHERE NOT EXISTS (SELECT 1 FROM pque_%I q WHERE q.msg_id = s.msg_id AND q.vt <> 'infinity')
+        $QUERY$,
+        stable, qtable
+    );
+    copied := pque_copy_to_shadow(queue_name);
+    UPDATE t_pque_meta m
+    SET checkpoint_at = clock_timestamp()
+    WHERE m.queue_name = pque_checkpoint.queue_name;
+    RETURN copied;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Checkpoint all the hybrid queues
+CREATE OR REPLACE FUNCTION pque_checkpoint_all()
+RETURNS BIGINT AS $$
+DECLARE
+    row_name RECORD;
+    copied BIGINT := 0;
+BEGIN
+    FOR row_name IN SELECT queue_name FROM t_pque_meta WHERE is_hybrid ORDER BY queue_name LOOP
+        copied := copied + pque_checkpoint(row_name.queue_name);
+    END LOOP;
+    RETURN copied;
+END;
+$$ LANGUAGE plpgsql;
@@ -0,0 +1,140 @@
+-- liquibase formatted sql
+-- changeset GG:1 runOnChange:true splitStatements:false
+-- comment: Pque scheduled messages
+
+-- A message sent with a delay longer than the schedule_after seconds of its queue goes to the
+-- schedule table pque_d_[queue], not to the queue table: far future messages do not bloat the
+-- heap and the vt index scanned by the consumers, nor slow down their vacuum.
+-- pque_promote moves the due messages to the queue in bulk; the msg_id is taken from the queue
+-- sequence at send time and kept, so the producer gets the final msg_id.
+-- A message is visible when it is promoted, so at most one promote interval after its delay.
+
+-- Schedule table of a queue, unlogged like the queue (but logged for hybrid queues)
+CREATE OR REPLACE FUNCTION pque_create_schedule_table(queue_name TEXT)
+RETURNS VOID AS $$
+DECLARE
+    dtable TEXT := pque_format_table_name(queue_name, 'd');
+    unlogged BOOLEAN;
+BEGIN
+    SELECT m.is_unlogged AND NOT m.is_hybrid INTO unlogged
+    FROM t_pque_meta m
+    WHERE m.queue_name = pque_create_schedule_table.queue_name;
+    EXECUTE FORMAT(
+        $QUERY$
+        CREATE %s TABLE IF NOT EXISTS pque_%I (
+            msg_id BIGINT PRIMARY KEY,
+            deliver_at TIMESTAMP WITH TIME ZONE NOT NULL,
+            enqueued_at TIMESTAMP WITH TIME ZONE DEFAULT now() NOT NULL,
+            expires_at TIMESTAMP WITH TIME ZONE,
+            message JSONB NOT NULL
+        )
+        $QUERY$,
+        CASE WHEN unlogged THEN 'UNLOGGED' ELSE '' END, dtable
+    );
+    EXECUTE FORMAT(
+        $QUERY$
+        CREATE INDEX IF NOT EXISTS %I ON pque_%I (deliver_at)
+        $QUERY$,
+        'deliver_at_idx_' || queue_name, dtable
+    );
+END;
+$$ LANGUAGE plpgsql;
+
+-- Messages sent with a delay over schedule_after seconds go to the schedule table.
+-- NULL or 0 disables it; messages already sent stay where they are
+CREATE OR REPLACE FUNCTION pque_set_schedule_after(queue_name TEXT, schedule_after INTEGER)
+RETURNS VOID AS $$
+BEGIN
+    IF schedule_after < 0 THEN
+        RAISE EXCEPTION 'schedule_after must not be negative';
+    END IF;
+    UPDATE t_pque_meta m
+    SET schedule_after = NULLIF(pque_set_schedule_after.schedule_after, 0)
+    WHERE m.queue_name = pque_set_schedule_after.queue_name;
+    IF NOT FOUND THEN
+        RAISE EXCEPTION 'queue % does not exist', queue_name;
+    END IF;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Insert statement of pque_send and pque_send_batch for a delay over schedule_after:
+-- $1 messages, $2 expires_at. Returns the msg_ids in the messages order
+CREATE OR REPLACE FUNCTION pque_schedule_statement(queue_name TEXT, delay INTEGER)
+RETURNS TEXT AS $$
+DECLARE
+    qtable TEXT := pque_format_table_name(queue_name, 'q');
+    dtable TEXT := pque_format_table_name(queue_name, 'd');
+BEGIN
+    RETURN FORMAT(
+        $QUERY$
+        INSERT INTO pque_%I (msg_id, deliver_at, expires_at, message)
+        SELECT nextval(%L), clock_timestamp() + %L, $2, t.msg
+        FROM unnest($1) WITH ORDINALITY AS t(msg, ord)
+        ORDER BY t.ord
+        RETURNING msg_id;
+        $QUERY$,
+        dtable, quote_ident('pque_' || qtable || '_msg_id_seq'), make_interval(secs => delay)
+    );
+END;
+$$ LANGUAGE plpgsql;
+
+-- Moves up to max_rows due messages to the queue, returns how many were moved.
+-- vt is the scheduled time, so the order among due messages is kept.
+-- The claim check of the queue applies at this point.
+-- Due messages already expired are deleted and counted instead, see pque_count_expired
+CREATE OR REPLACE FUNCTION pque_promote(
+    queue_name TEXT,
+    max_rows INTEGER DEFAULT 10000
+)
+RETURNS BIGINT AS $$
+DECLARE
+    moved BIGINT;
+    expired BIGINT;
+    min_bytes INTEGER;
+    qtable TEXT := pque_format_table_name(queue_name, 'q');
+    dtable TEXT := pque_format_table_name(queue_name, 'd');
+    ptable TEXT := pque_format_table_name(queue_name, 'p');
+BEGIN
+    SELECT m.claim_check_bytes INTO min_bytes FROM t_pque_meta m WHERE m.queue_name = pque_promote.queue_name;
+    EXECUTE FORMAT(
+        $QUERY$
+        WITH due AS (
+            DELETE FROM pque_%I d
+            WHERE d.msg_id IN (
+                SELECT msg_id
+                FROM pque_%I
+                WHERE deliver_at <= clock_timestamp()
+                ORDER BY deliver_at
+                LIMIT $1
+                FOR UPDATE SKIP LOCKED
+            )
+            RETURNING d.msg_id, d.deliver_at, d.enqueued_at, d.expires_at, d.message,
+                pg_column_size(d.message) > $2 AS large,
+                COALESCE(d.expires_at <= clock_timestamp(), FALSE) AS expired
+        ),
+        stored AS (
+            INSERT INTO pque_%I (msg_id, payload)
+            SELECT msg_id, message FROM due WHERE large AND NOT expired
+        ),
+        sent AS (
+            INSERT INTO pque_%I (msg_id, vt, enqueued_at, expires_at, message) OVERRIDING SYSTEM VALUE
+            SELECT msg_id, deliver_at, enqueued_at, expires_at, CASE WHEN large THEN NULL ELSE message END
+            FROM due
+            WHERE NOT expired
+            RETURNING msg_id
+        )
+        SELECT (SELECT count(*) FROM sent), (SELECT count(*) FROM due WHERE expired)
+        $QUERY$,
+        dtable, dtable, ptable, qtable
+    ) INTO moved, expired USING max_rows, min_bytes;
+    IF expired > 0 THEN
+        PERFORM pque_count_expired(queue_name, expired);
+    END IF;
+    RETURN moved;
+END;
+$$ LANGUAGE plpgsql;
+
+-- changeset GG:2 runOnChange:false
+-- comment: Pque schedule tables of the existing queues
+
+SELECT pque_create_schedule_table(queue_name) FROM t_pque_meta;
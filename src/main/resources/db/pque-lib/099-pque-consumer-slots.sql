@@ -0,0 +1,98 @@
+-- liquibase formatted sql
+-- changeset GG:1 runOnChange:true splitStatements:false
+-- comment: Pque partitioned consumer claims
+
+-- Many consumers reading the same queue all race on its first visible rows: with SKIP LOCKED each
+-- one steps over the rows locked by the others, and the wasted work grows with the consumers.
+-- With partitioned claims the live consumers of a queue (t_pque_consumer, kept by heartbeats)
+-- are numbered 0..slots-1 by consumer_id: consumer slot first reads the messages with
+-- msg_id % slots = slot, and steals from the other slots only when its own cannot fill the read.
+-- While the membership changes two consumers may share a slot, or a slot may have no owner:
+-- SKIP LOCKED still leases every message once, and stealing reaches the orphaned slots.
+
+-- Registers (or refreshes) a consumer and forgets the ones silent for more than timeout seconds.
+-- Returns the slot of the consumer and the number of slots
+CREATE OR REPLACE FUNCTION pque_consumer_heartbeat(
+    queue_name TEXT,
+    consumer_id TEXT,
+    timeout INTEGER DEFAULT 30
+)
+RETURNS TABLE (slot INTEGER, slots INTEGER) AS $$
+BEGIN
+    INSERT INTO t_pque_consumer AS c (queue_name, consumer_id, heartbeat_at)
+    VALUES (pque_consumer_heartbeat.queue_name, pque_consumer_heartbeat.consumer_id, clock_timestamp())
+    ON CONFLICT ON CONSTRAINT t_pque_consumer_pkey
+    DO UPDATE SET heartbeat_at = EXCLUDED.heartbeat_at;
+    DELETE FROM t_pque_consumer c
+    WHERE c.queue_name = pque_consumer_heartbeat.queue_name
+      AND c.heartbeat_at < clock_timestamp() - make_interval(secs => pque_consumer_heartbeat.timeout);
+    RETURN QUERY
+    SELECT (ranked.rn - 1)::INTEGER, ranked.total::INTEGER
+    FROM (
+        SELECT c.consumer_id,
+            row_number() OVER (ORDER BY c.consumer_id) AS rn,
+            count(*) OVER () AS total
+        FROM t_pque_consumer c
+        WHERE c.queue_name = pque_consumer_heartbeat.queue_name
+    ) ranked
+    WHERE ranked.consumer_id = pque_consumer_heartbeat.consumer_id;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Unregisters a consumer: the others take over its slot at their next heartbeat
+CREATE OR REPLACE FUNCTION pque_consumer_leave(queue_name TEXT, consumer_id TEXT)
+RETURNS BOOLEAN AS $$
+BEGIN
+    DELETE FROM t_pque_consumer c
+    WHERE c.queue_name = pque_consumer_leave.queue_name
+      AND c.consumer_id = pque_consumer_leave.consumer_id;
+    RETURN FOUND;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Like pque_read, but the messages of the slot (msg_id % slots = slot) first.
+-- Only if they are not enough, any visible message
+CREATE OR REPLACE FUNCTION pque_read_partitioned(
+    queue_name TEXT,
+    vt INTEGER,
+    qty INTEGER,
+    slot INTEGER,
+    slots INTEGER,
+    conditional JSONB DEFAULT '{}'
+)
+RETURNS SETOF pque_message_record AS $$
+DECLARE
+    r RECORD;
+    wanted INTEGER := qty;
+    expired INTEGER;
+    sql TEXT;
+BEGIN
+    IF slots < 1 OR slot < 0 OR slot >= slots THEN
+        RAISE EXCEPTION 'slot % is not between 0 and %', slot, slots - 1;
+    END IF;
+    IF slots = 1 THEN
+        RETURN QUERY SELECT * FROM pque_read(queue_name, vt, qty, conditional);
+        RETURN;
+    END IF;
+    FOREACH sql IN ARRAY ARRAY[
+        pque_read_statement(queue_name, vt, conditional, FORMAT('AND msg_id %% %s = %s', slots, slot)),
+        pque_read_statement(queue_name, vt, conditional)
+    ] LOOP
+        LOOP
+            expired := 0;
+            FOR r IN EXECUTE sql USING wanted LOOP
+                IF r.expired THEN
+                    expired := expired + 1;
+                ELSE
+                    wanted := wanted - 1;
+                    RETURN NEXT ROW(r.msg_id, r.read_ct, r.enqueued_at, r.vt, r.message)::pque_message_record;
+                END IF;
+            END LOOP;
+            EXIT WHEN expired = 0;
+            PERFORM pque_count_expired(queue_name, expired);
+            EXIT WHEN wanted <= 0;
+        END LOOP;
+        EXIT WHEN wanted <= 0;
+    END LOOP;
+END;
+$$ LANGUAGE plpgsql;
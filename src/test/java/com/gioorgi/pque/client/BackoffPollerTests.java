@@ -0,0 +1,38 @@
+package com.gioorgi.pque.client;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+@DisplayName("Backoff poller")
+class BackoffPollerTests {
+
+    @Test
+    @DisplayName("Backoff doubles on empty reads, up to the maximum")
+    void backoffGrows() throws InterruptedException {
+        var poller = new PQUEBackoffPoller<String>(List::of, Duration.ofMillis(1), Duration.ofMillis(4));
+
+        assertThat(poller.poll()).isEmpty();
+        assertThat(poller.getCurrentBackoff()).isEqualTo(Duration.ofMillis(2));
+        poller.poll();
+        assertThat(poller.getCurrentBackoff()).isEqualTo(Duration.ofMillis(4));
+        poller.poll();
+        assertThat(poller.getCurrentBackoff()).isEqualTo(Duration.ofMillis(4));
+    }
+
+    @Test
+    @DisplayName("Backoff is reset by a non-empty read")
+    void backoffReset() throws InterruptedException {
+        Deque<List<String>> results = new ArrayDeque<>(List.of(List.of(), List.of(), List.of("msg")));
+        var poller = new PQUEBackoffPoller<String>(results::pop, Duration.ofMillis(1), Duration.ofMillis(100));
+
+        assertThat(poller.poll(Duration.ofSeconds(5))).containsExactly("msg");
+        assertThat(poller.getCurrentBackoff()).isEqualTo(Duration.ofMillis(1));
+    }
+}
@@ -6,6 +6,7 @@ import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 
 import com.gioorgi.pque.client.config.PQUEConfiguration;
+import com.gioorgi.pque.client.config.PQUEQueueConfiguration;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertThrows;
@@ -80,4 +81,71 @@ class ConfigurationsTests {
             assertThat(configuration.getVisibilityTimeout().getSeconds()).isEqualTo(10);
         }
     }
+
+    @Nested
+    @DisplayName("Queue overrides")
+    class QueueOverridesTests {
+        @Test
+        @DisplayName("Unknown queue uses default values")
+        void defaultValues() {
+            var configuration = new PQUEConfiguration();
+
+            assertThat(configuration.getVisibilityTimeout("unknown").getSeconds()).isEqualTo(30);
+            assertThat(configuration.getDelay("unknown").getSeconds()).isZero();
+            assertThat(configuration.getBatchSize("unknown")).isEqualTo(10);
+        }
+
+        @Test
+        @DisplayName("Queue values override the default ones")
+        void overriddenValues() {
+            var configuration = new PQUEConfiguration();
+            var queueConfiguration = new PQUEQueueConfiguration();
+            queueConfiguration.setVisibilityTimeout(5);
+            queueConfiguration.setBatchSize(50);
+            configuration.getQueues().put("market_request", queueConfiguration);
+
+            assertThat(configuration.getVisibilityTimeout("market_request").getSeconds()).isEqualTo(5);
+            assertThat(configuration.getBatchSize("market_request")).isEqualTo(50);
+            // Not overridden
+            assertThat(configuration.getDelay("market_request").getSeconds()).isZero();
+        }
+
+        @Test
+        @DisplayName("Invalid queue values are rejected at binding, like the default ones")
+        void invalidValues() {
+            var queueConfiguration = new PQUEQueueConfiguration();
+
+            assertThrows(IllegalArgumentException.class, () -> queueConfiguration.setVisibilityTimeout(-1));
+            assertThrows(IllegalArgumentException.class, () -> queueConfiguration.setDelay(-1));
+            assertThrows(IllegalArgumentException.class, () -> queueConfiguration.setBatchSize(0));
+            assertThrows(IllegalArgumentException.class, () -> queueConfiguration.setBatchSize(-1));
+
+            // null restores the default
+            queueConfiguration.setBatchSize(null);
+            assertThat(queueConfiguration.getBatchSize()).isNull();
+        }
+    }
+
+    @Nested
+    @DisplayName("Warm-up")
+    class WarmupTests {
+        @Test
+        @DisplayName("Warm-up is disabled by default")
+        void defaultWarmup() {
+            var configuration = new PQUEConfiguration();
+
+            assertThat(configuration.getWarmup().isEnabled()).isFalse();
+            assertThat(configuration.getWarmup().getQueues()).isEmpty();
+            assertThat(configuration.getWarmup().getConnections()).isEqualTo(10);
+        }
+
+        @Test
+        @DisplayName("Warm-up connections must be positive")
+        void negativeConnections() {
+            var configuration = new PQUEConfiguration();
+
+            assertThrows(IllegalArgumentException.class,
+                    () -> configuration.getWarmup().setConnections(0));
+        }
+    }
 }
@@ -0,0 +1,72 @@
+package com.gioorgi.pque.client;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gioorgi.pque.client.backend.PQUEInMemoryBackend;
+import com.gioorgi.pque.client.config.PQUEConfiguration;
+import com.gioorgi.pque.client.json.PQUEJsonProcessorJackson;
+
+@DisplayName("Consumer autoscaler")
+class ConsumerAutoscalerTests {
+
+    private PQUEConsumerAutoscaler autoscaler;
+
+    @BeforeEach
+    void setUp() {
+        var backend = new PQUEInMemoryBackend();
+        backend.createQueue("scaled_queue");
+        var configuration = new PQUEConfiguration();
+        // Defaults: target lag 10s, 2 samples to scale up, 6 to scale down
+        var client = new PQUEClient(backend, configuration, new PQUEJsonProcessorJackson(new ObjectMapper()));
+        var container = client.consumerContainer("scaled_queue", 2, message -> { });
+        autoscaler = client.autoscaler(container, 2, 10, () -> false);
+    }
+
+    @Test
+    @DisplayName("Scales up by half after two samples behind, up to the maximum")
+    void scaleUp() {
+        assertThat(autoscaler.target(4, 1000, 30, 10, false)).isEqualTo(4);
+        assertThat(autoscaler.target(4, 1000, 30, 10, false)).isEqualTo(6);
+        autoscaler.target(8, 1000, 30, 10, false);
+        assertThat(autoscaler.target(8, 1000, 30, 10, false)).isEqualTo(10);
+    }
+
+    @Test
+    @DisplayName("A slow drain is behind even with young messages")
+    void slowDrain() {
+        autoscaler.target(2, 500, 1, 10, false);
+        assertThat(autoscaler.target(2, 500, 1, 10, false)).isEqualTo(3);
+    }
+
+    @Test
+    @DisplayName("Hysteresis: a good sample resets the count")
+    void hysteresis() {
+        autoscaler.target(4, 1000, 30, 10, false);
+        autoscaler.target(4, 10, 1, 100, false);
+        assertThat(autoscaler.target(4, 1000, 30, 10, false)).isEqualTo(4);
+    }
+
+    @Test
+    @DisplayName("Does not grow when the pool is saturated")
+    void saturated() {
+        autoscaler.target(4, 1000, 30, 10, true);
+        assertThat(autoscaler.target(4, 1000, 30, 10, true)).isEqualTo(4);
+    }
+
+    @Test
+    @DisplayName("Scales down by one after six idle samples, down to the minimum")
+    void scaleDown() {
+        for (int i = 0; i < 5; i++) {
+            assertThat(autoscaler.target(3, 0, 0, 0, false)).isEqualTo(3);
+        }
+        assertThat(autoscaler.target(3, 0, 0, 0, false)).isEqualTo(2);
+        for (int i = 0; i < 6; i++) {
+            assertThat(autoscaler.target(2, 0, 0, 0, false)).isEqualTo(2);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.gioorgi.pque.client;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.OffsetDateTime;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+@DisplayName("Consumer metrics")
+class ConsumerMetricsTests {
+
+    private static PQUEMessage enqueuedSecondsAgo(long seconds, long readCounter) {
+        var enqueuedAt = OffsetDateTime.now().minusSeconds(seconds);
+        return new PQUEMessage(1L, readCounter, enqueuedAt, enqueuedAt, "{}");
+    }
+
+    @Test
+    @DisplayName("Unknown queue has no statistics")
+    void unknownQueue() {
+        assertThat(new PQUEConsumerMetrics().getStats("unknown")).isNull();
+    }
+
+    @Test
+    @DisplayName("Wait time, handler time and read count are recorded per queue")
+    void recordPerQueue() {
+        var metrics = new PQUEConsumerMetrics();
+        metrics.recordDequeue("market_request", enqueuedSecondsAgo(2, 1));
+        metrics.recordDequeue("market_request", enqueuedSecondsAgo(4, 3));
+        metrics.recordHandlerTime("market_request", TimeUnit.MILLISECONDS.toNanos(5));
+        metrics.recordDequeue("market_response", enqueuedSecondsAgo(1, 1));
+
+        var stats = metrics.getStats("market_request");
+        assertThat(stats.getWaitTime().getCount()).isEqualTo(2);
+        assertThat(stats.getWaitTime().getMax()).isGreaterThanOrEqualTo(4_000_000L);
+        assertThat(stats.getHandlerTime().getCount()).isEqualTo(1);
+        assertThat(stats.getReadCount().getMax()).isEqualTo(3);
+        assertThat(metrics.getStats()).containsOnlyKeys("market_request", "market_response");
+    }
+
+    @Test
+    @DisplayName("Snapshots are cumulative until reset")
+    void cumulativeSnapshot() {
+        var metrics = new PQUEConsumerMetrics();
+        metrics.recordDequeue("q", enqueuedSecondsAgo(1, 1));
+        metrics.getStats("q");
+        metrics.recordDequeue("q", enqueuedSecondsAgo(1, 1));
+
+        assertThat(metrics.getStats("q").getWaitTime().getCount()).isEqualTo(2);
+        metrics.reset();
+        assertThat(metrics.getStats("q").getWaitTime().getCount()).isZero();
+    }
+}
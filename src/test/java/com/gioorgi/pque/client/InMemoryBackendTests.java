@@ -0,0 +1,352 @@
+package com.gioorgi.pque.client;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.actuate.health.Status;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.gioorgi.pque.client.actuator.PQUEStorageHealthIndicator;
+import com.gioorgi.pque.client.backend.PQUEInMemoryBackend;
+import com.gioorgi.pque.client.backend.PQUEVirtualClock;
+import com.gioorgi.pque.client.config.PQUEConfiguration;
+import com.gioorgi.pque.client.config.PQUEDelay;
+import com.gioorgi.pque.client.config.PQUEQueueConfiguration;
+import com.gioorgi.pque.client.config.PQUEVisiblityTimeout;
+import com.gioorgi.pque.client.json.PQUEJsonProcessorJackson;
+
+@DisplayName("In memory backend")
+class InMemoryBackendTests {
+
+    private static final String QUEUE = "memory_queue";
+
+    private PQUEVirtualClock clock;
+    private PQUEInMemoryBackend backend;
+    private PQUEConfiguration configuration;
+    private PQUEClient client;
+
+    @BeforeEach
+    void setUp() {
+        clock = new PQUEVirtualClock();
+        backend = new PQUEInMemoryBackend(clock);
+        backend.createQueue(QUEUE);
+        configuration = new PQUEConfiguration();
+        client = new PQUEClient(backend, configuration, new PQUEJsonProcessorJackson(new ObjectMapper()));
+    }
+
+    @Test
+    @DisplayName("A read message is invisible until the visibility timeout expires")
+    void visibilityTimeout() {
+        long id = client.send(QUEUE, "{\"n\":1}");
+
+        var first = client.read(QUEUE, new PQUEVisiblityTimeout(30));
+        assertThat(first).isPresent();
+        assertThat(first.get().getId()).isEqualTo(id);
+        assertThat(first.get().getReadCounter()).isEqualTo(1);
+        assertThat(client.read(QUEUE)).isEmpty();
+
+        clock.advance(Duration.ofSeconds(30));
+        var again = client.read(QUEUE);
+        assertThat(again).isPresent();
+        assertThat(again.get().getReadCounter()).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("Read message again if not deleted")
+    void readMessageWithoutDelete() {
+        long id = client.send(QUEUE, "{\"customer_name\": \"John\"}");
+
+        assertThat(client.read(QUEUE, new PQUEVisiblityTimeout(1))).map(PQUEMessage::getId).contains(id);
+        clock.advance(Duration.ofSeconds(2));
+        assertThat(client.read(QUEUE)).map(PQUEMessage::getId).contains(id);
+    }
+
+    @Test
+    @DisplayName("A delayed message is visible after the delay")
+    void delay() {
+        client.sendWithDelay(QUEUE, "{\"n\":1}", new PQUEDelay(10));
+
+        assertThat(client.read(QUEUE)).isEmpty();
+        clock.advance(Duration.ofSeconds(10));
+        assertThat(client.read(QUEUE)).isPresent();
+    }
+
+    @Test
+    @DisplayName("Batch read returns the visible messages in order")
+    void readBatch() {
+        var ids = client.sendBatch(QUEUE, List.of("{\"n\":1}", "{\"n\":2}", "{\"n\":3}"));
+
+        var read = client.readBatch(QUEUE, 2);
+        assertThat(read).extracting(PQUEMessage::getId).containsExactly(ids.get(0), ids.get(1));
+        assertThat(client.readBatch(QUEUE, 10)).extracting(PQUEMessage::getId).containsExactly(ids.get(2));
+    }
+
+    @Test
+    @DisplayName("Lean read and typed pop parse the payload")
+    void leanRead() {
+        var ids = client.sendBatch(QUEUE, List.of(Map.of("n", 1), Map.of("n", 2), Map.of("n", 3)));
+
+        var read = new ArrayList<Long>();
+        assertThat(client.readEach(QUEUE, new PQUEVisiblityTimeout(30), 2, Map.class, (id, payload) -> read.add(id)))
+                .isEqualTo(2);
+        assertThat(read).containsExactly(ids.get(0), ids.get(1));
+        assertThat(client.pop(QUEUE, Map.class)).contains(Map.of("n", 3));
+        assertThat(client.pop(QUEUE, Map.class)).isEmpty();
+    }
+
+    @Test
+    @DisplayName("Weighted multi queue read, weight 0 only when the others are empty")
+    void readMulti() {
+        backend.createQueue("memory_background");
+        var urgent = client.sendBatch(QUEUE, List.of("{\"n\":1}", "{\"n\":2}"));
+        var background = client.sendBatch("memory_background", List.of("{\"n\":3}", "{\"n\":4}"));
+        var weighted = new LinkedHashMap<String, Integer>();
+        weighted.put(QUEUE, 1);
+        weighted.put("memory_background", 0);
+
+        var read = client.readBatch(weighted, new PQUEVisiblityTimeout(30), 1);
+        assertThat(read.get(QUEUE)).extracting(PQUEMessage::getId).containsExactly(urgent.get(0));
+        assertThat(read.get("memory_background")).isEmpty();
+
+        read = client.readBatch(weighted, new PQUEVisiblityTimeout(30), 3);
+        assertThat(read.get(QUEUE)).extracting(PQUEMessage::getId).containsExactly(urgent.get(1));
+        assertThat(read.get("memory_background")).extracting(PQUEMessage::getId).containsExactlyElementsOf(background);
+    }
+
+    @Test
+    @DisplayName("Partitioned reader has a single slot, the whole queue")
+    void partitionedReader() {
+        var ids = client.sendBatch(QUEUE, List.of("{\"n\":1}", "{\"n\":2}"));
+        var reader = client.partitionedReader(QUEUE);
+
+        assertThat(reader.read(new PQUEVisiblityTimeout(30), 10)).extracting(PQUEMessage::getId).containsExactlyElementsOf(ids);
+        assertThat(reader.getSlot().getSlots()).isEqualTo(1);
+        reader.leave();
+        assertThat(reader.getSlot()).isNull();
+    }
+
+    @Test
+    @DisplayName("Expired messages are never delivered")
+    void expiry() {
+        client.setTimeToLive(QUEUE, Duration.ofSeconds(10));
+        var stale = client.sendBatch(QUEUE, List.of("{\"n\":1}", "{\"n\":2}"));
+        long fresh = client.sendWithTtl(QUEUE, "{\"n\":3}", new PQUEDelay(0), Duration.ofSeconds(60));
+
+        clock.advance(Duration.ofSeconds(10));
+        assertThat(client.readBatch(QUEUE, 1)).extracting(PQUEMessage::getId).containsExactly(fresh);
+        assertThat(client.getMetrics(QUEUE).getExpiredMessages()).isEqualTo(stale.size());
+
+        client.send(QUEUE, "{\"n\":4}");
+        clock.advance(Duration.ofSeconds(10));
+        assertThat(client.expire(QUEUE, 100)).isEqualTo(1);
+        assertThat(client.getMetrics(QUEUE).getExpiredMessages()).isEqualTo(3);
+    }
+
+    @Test
+    @DisplayName("Expired message is discarded by the read")
+    void expiredMessage() {
+        long expired = client.sendWithTtl(QUEUE, "{\"quote\": 1}", new PQUEDelay(0), Duration.ofSeconds(1));
+        long valid = client.send(QUEUE, "{\"quote\": 2}");
+        clock.advance(Duration.ofMillis(1100));
+
+        assertThat(client.readBatch(QUEUE, new PQUEVisiblityTimeout(30), 10)).extracting(PQUEMessage::getId)
+                .containsExactly(valid);
+        assertThat(client.delete(QUEUE, expired)).isFalse();
+        assertThat(client.getMetrics(QUEUE).getExpiredMessages()).isEqualTo(1);
+    }
+
+    @Test
+    @DisplayName("Filtered read and pop only take the messages containing the filter")
+    void readFiltered() {
+        var ids = client.sendBatch(QUEUE, List.of(
+                Map.of("msgType", "D", "qty", 1, "tags", List.of("a", "b")),
+                Map.of("msgType", "S", "qty", 2.0),
+                Map.of("msgType", "D", "qty", 3, "tags", List.of("b"))));
+
+        assertThat(client.readBatch(QUEUE, new PQUEVisiblityTimeout(30), 10, Map.of("msgType", "D")))
+                .extracting(PQUEMessage::getId)
+                .containsExactly(ids.get(0), ids.get(2));
+        clock.advance(Duration.ofSeconds(30));
+        assertThat(client.readBatch(QUEUE, new PQUEVisiblityTimeout(30), 10, Map.of("tags", List.of("a"))))
+                .extracting(PQUEMessage::getId)
+                .containsExactly(ids.get(0));
+        assertThat(client.popMsg(QUEUE, Map.of("qty", 2))).map(PQUEMessage::getId).contains(ids.get(1));
+        assertThat(client.popMsg(QUEUE, Map.of("msgType", "X"))).isEmpty();
+        assertThatThrownBy(() -> backend.read(QUEUE, 30, 10, "{not json"))
+                .isInstanceOf(PQUEException.class);
+    }
+
+    @Test
+    @DisplayName("Lazily archived messages are hidden until the flush moves them")
+    void lazyArchive() {
+        configuration.setLazyArchive(true);
+        var ids = client.sendBatch(QUEUE, List.of("{\"n\":1}", "{\"n\":2}"));
+        assertThat(client.archive(QUEUE, ids.get(0))).isTrue();
+        assertThat(client.archive(QUEUE, ids.get(0))).isFalse();
+        assertThat(client.archiveBatch(QUEUE, ids)).containsExactly(ids.get(1));
+
+        assertThat(client.read(QUEUE)).isEmpty();
+        assertThat(client.release(QUEUE, ids)).isEmpty();
+        assertThat(client.getMetrics(QUEUE).getQueueLength()).isZero();
+        assertThat(backend.getArchived(QUEUE)).isEmpty();
+
+        assertThat(client.flushArchive(QUEUE, 1)).isEqualTo(1);
+        assertThat(client.flushArchive(QUEUE, 10)).isEqualTo(1);
+        assertThat(client.flushArchive(QUEUE, 10)).isZero();
+        assertThat(backend.getArchived(QUEUE)).extracting(PQUEMessage::getId).containsExactlyElementsOf(ids);
+    }
+
+    @Test
+    @DisplayName("Delete, archive and pop remove the message")
+    void deleteArchivePop() {
+        var ids = client.sendBatch(QUEUE, List.of("{\"n\":1}", "{\"n\":2}", "{\"n\":3}"));
+
+        assertThat(client.delete(QUEUE, ids.get(0))).isTrue();
+        assertThat(client.delete(QUEUE, ids.get(0))).isFalse();
+        assertThat(client.archive(QUEUE, ids.get(1))).isTrue();
+        assertThat(backend.getArchived(QUEUE)).extracting(PQUEMessage::getId).containsExactly(ids.get(1));
+
+        var popped = client.popMsg(QUEUE);
+        assertThat(popped).isPresent();
+        assertThat(popped.get().getId()).isEqualTo(ids.get(2));
+        assertThat(client.popMsg(QUEUE)).isEmpty();
+        assertThat(client.getMetrics(QUEUE).getQueueLength()).isZero();
+        assertThat(client.getMetrics(QUEUE).getTotalMessages()).isEqualTo(3);
+    }
+
+    @Test
+    @DisplayName("Released messages are visible again immediately")
+    void release() {
+        long id = client.send(QUEUE, "{\"n\":1}");
+        client.read(QUEUE, new PQUEVisiblityTimeout(60));
+
+        assertThat(client.release(QUEUE, List.of(id, 999L))).containsExactly(id);
+        assertThat(client.read(QUEUE)).isPresent();
+    }
+
+    @Test
+    @DisplayName("Metrics report the message ages")
+    void metrics() {
+        client.send(QUEUE, "{\"n\":1}");
+        clock.advance(Duration.ofSeconds(20));
+        client.send(QUEUE, "{\"n\":2}");
+        clock.advance(Duration.ofSeconds(5));
+
+        var metric = client.getMetrics(QUEUE);
+        assertThat(metric.getQueueLength()).isEqualTo(2);
+        assertThat(metric.getOldestMsgAgeSec()).isEqualTo(25);
+        assertThat(metric.getNewestMsgAgeSec()).isEqualTo(5);
+    }
+
+    @Test
+    @DisplayName("Forward replaces the message with its reply, only once")
+    void forward() {
+        backend.createQueue("memory_reply");
+        long id = client.send(QUEUE, "{\"n\":1}");
+
+        var replyId = client.forward(QUEUE, id, "memory_reply", Map.of("reply", 1));
+        assertThat(replyId).isPresent();
+        assertThat(client.forward(QUEUE, id, "memory_reply", Map.of("reply", 2))).isEmpty();
+        assertThat(client.readBatch(QUEUE, 10)).isEmpty();
+        assertThat(client.readBatch("memory_reply", 10)).extracting(PQUEMessage::getId).containsExactly(replyId.get());
+    }
+
+    @Test
+    @DisplayName("Consumer container releases the unprocessed messages on stop")
+    void consumerContainerShutdown() throws InterruptedException {
+        configuration.setShutdownTimeoutMs(100);
+        var ids = client.sendBatch(QUEUE, List.of("{\"n\":1}", "{\"n\":2}", "{\"n\":3}"));
+        var started = new CountDownLatch(1);
+        var container = client.consumerContainer(QUEUE, 1, message -> {
+            started.countDown();
+            try {
+                // Stuck handler, interrupted at the shutdown deadline
+                Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        container.start();
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+        container.stop();
+
+        assertThat(container.isRunning()).isFalse();
+        assertThat(client.readBatch(QUEUE, 10)).extracting(PQUEMessage::getId).containsExactlyElementsOf(ids);
+    }
+
+    @Test
+    @DisplayName("Per queue settings apply to every overload, null messages rejected on every path")
+    void perQueueSettings() {
+        var overrides = new PQUEQueueConfiguration();
+        overrides.setDelay(5);
+        overrides.setVisibilityTimeout(60);
+        configuration.getQueues().put(QUEUE, overrides);
+
+        client.send(QUEUE, "{\"n\":1}");
+        assertThat(client.read(QUEUE)).isEmpty();
+        clock.advance(Duration.ofSeconds(5));
+        assertThat(client.read(QUEUE)).isPresent();
+        clock.advance(Duration.ofSeconds(30));
+        assertThat(client.readBatch(QUEUE, 10)).isEmpty();
+
+        assertThatThrownBy(() -> client.send(QUEUE, null)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> client.queue(QUEUE).send(null)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    @DisplayName("Prefetch consumer does not lease again the messages it released")
+    void prefetchRelease() throws InterruptedException {
+        long id = client.send(QUEUE, "{\"n\":1}");
+        try (var prefetcher = new PQUEPrefetchConsumer(client, QUEUE, 2, 1, new PQUEVisiblityTimeout(1),
+                Duration.ofMillis(500), false)) {
+            assertThat(waitBuffered(prefetcher, 1)).isTrue();
+            assertThat(waitBuffered(prefetcher, 0)).isTrue();
+            // A few maintenance rounds after the release
+            Thread.sleep(1000);
+            assertThat(prefetcher.getBuffered()).isZero();
+
+            var message = client.read(QUEUE);
+            assertThat(message).isPresent();
+            assertThat(message.get().getId()).isEqualTo(id);
+            assertThat(message.get().getReadCounter()).isEqualTo(2);
+        }
+    }
+
+    private static boolean waitBuffered(PQUEPrefetchConsumer prefetcher, int buffered) throws InterruptedException {
+        long stopAt = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (prefetcher.getBuffered() != buffered) {
+            if (System.nanoTime() - stopAt > 0) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    @Test
+    @DisplayName("Storage health is unknown without storage metrics")
+    void storageHealth() {
+        var health = new PQUEStorageHealthIndicator(client, configuration).health();
+        assertThat(health.getStatus()).isEqualTo(Status.UNKNOWN);
+    }
+
+    @Test
+    @DisplayName("Unknown queues are rejected")
+    void unknownQueue() {
+        assertThatThrownBy(() -> client.send("no_such_queue", "{}")).isInstanceOf(PQUEException.class);
+        assertThatThrownBy(() -> client.queue("no_such_queue")).isInstanceOf(PQUEException.class);
+        assertThat(client.queue(QUEUE).getName()).isEqualTo(QUEUE);
+    }
+}
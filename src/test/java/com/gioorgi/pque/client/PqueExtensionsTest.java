@@ -1,10 +1,17 @@
 package com.gioorgi.pque.client;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcOperations;
 import org.springframework.test.context.jdbc.Sql;
 
 import lombok.extern.slf4j.Slf4j;
@@ -17,11 +24,14 @@ public class PqueExtensionsTest {
     @Autowired
     PQUEClient pqueClient;
 
+    @Autowired
+    JdbcOperations jdbcOperations;
+
     @Test
     public void listQueueWorks(){
 
         log.info("{}", pqueClient.listQueues());
-        assertEquals(7+2 /* test+demo */,
+        assertEquals(10+4 /* test+demo */,
             pqueClient.listQueues().size());
     }
 
@@ -40,4 +50,38 @@ public class PqueExtensionsTest {
             log.info("{}",metric);
         }
     }
+
+    @Test
+    public void getStorageMetrics(){
+        var metrics=pqueClient.getStorageMetrics("empty_queue");
+        log.info("{}",metrics);
+        var kinds=metrics.stream().map(PQUEClient.PQUEStorageMetric::getRelationKind).collect(Collectors.toList());
+        // Queue and archive first, then the other tables of the queue
+        assertEquals(4, kinds.size());
+        assertEquals(List.of("queue", "archive"), kinds.subList(0, 2));
+        assertEquals(Set.of("payload", "schedule"), Set.copyOf(kinds.subList(2, 4)));
+        assertEquals(0, metrics.get(0).getDeadTupleRatio());
+    }
+
+    @Test
+    public void expiredCount(){
+        long id=pqueClient.send("empty_queue", "{}");
+        jdbcOperations.update("UPDATE pque_q_empty_queue SET expires_at = now() - interval '1 second' WHERE msg_id = ?", id);
+
+        assertTrue(pqueClient.read("empty_queue").isEmpty());
+        assertEquals(1, pqueClient.getMetrics("empty_queue").getExpiredMessages());
+        // The sweeper folds the counts of the reads into t_pque_meta
+        assertEquals(0, pqueClient.expire("empty_queue", 100));
+        assertEquals(1, pqueClient.getMetrics("empty_queue").getExpiredMessages());
+        assertEquals(0L, (long) jdbcOperations.queryForObject(
+            "SELECT count(*) FROM t_pque_expired WHERE queue_name = 'empty_queue'", Long.class));
+    }
+
+    @Test
+    public void generateLoad(){
+        long loaded=pqueClient.generateLoad("empty_queue", 100, Map.of("symbol","EURUSD"));
+        assertEquals(100, loaded);
+        assertEquals(100, pqueClient.getMetrics("empty_queue").getQueueLength());
+        assertTrue(pqueClient.popMsg("empty_queue").orElseThrow().getJsonMessage().contains("\"load_seq\": 1"));
+    }
 }
@@ -7,7 +7,14 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 import java.time.Duration;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.DisplayName;
@@ -15,11 +22,13 @@ import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcOperations;
 import org.springframework.test.context.jdbc.Sql;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.support.TransactionTemplate;
 
 import com.gioorgi.pque.client.config.PQUEConfiguration;
+import com.gioorgi.pque.client.config.PQUEDelay;
 import com.gioorgi.pque.client.config.PQUEVisiblityTimeout;
 import com.gioorgi.pque.client.json.PQUEJsonProcessor;
 
@@ -54,24 +63,250 @@ class UseCasesTests {
     @Autowired
     PQUEJsonProcessor jsonProcessor;
 
+    @Autowired
+    JdbcOperations jdbcOperations;
+
     @Nested
     @DisplayName("Read")
     class Read {
         @Test
         @DisplayName("Read message again if not deleted")
-        void readMessageWithoutDelete() throws InterruptedException {
+        void readMessageWithoutDelete() {
             final String queue="without_delete_queue";
 
             long messageId = pqueClient.send(queue, "{\"customer_name\": \"John\"}");
 
-            PQUEMessage message = pqueClient.read(queue, new PQUEVisiblityTimeout(1)).orElseThrow();
+            PQUEMessage message = pqueClient.read(queue, new PQUEVisiblityTimeout(30)).orElseThrow();
             Assertions.assertEquals(messageId, message.id());
+            assertThat(pqueClient.read(queue)).isEmpty();
 
-            Thread.sleep(Duration.ofSeconds(2).toMillis()); // sorry for delay
-
+            // The visibility timeout is over
+            jdbcOperations.update("update pque_q_without_delete_queue set vt = now() - interval '1 second' where msg_id = ?", messageId);
             PQUEMessage sameMessage = pqueClient.read(queue).orElseThrow();
             Assertions.assertEquals(messageId, sameMessage.id());
+            assertThat(sameMessage.getReadCounter()).isEqualTo(2L);
+        }
+
+        @Test
+        @DisplayName("Long poll waits for a delayed message")
+        void readWithPoll() {
+            final String queue="without_delete_queue";
+
+            long messageId = pqueClient.sendWithDelay(queue, "{\"customer_name\": \"John\"}", new PQUEDelay(1));
+
+            List<PQUEMessage> messages = pqueClient.readWithPoll(queue, new PQUEVisiblityTimeout(30), 1, Duration.ofSeconds(3));
+            assertThat(messages).extracting(PQUEMessage::id).containsExactly(messageId);
+        }
+
+        @Test
+        @DisplayName("Long poll on an empty queue")
+        void readWithPollEmpty() {
+            final String queue="empty_queue";
+
+            List<PQUEMessage> messages = pqueClient.readWithPoll(queue, new PQUEVisiblityTimeout(30), 1, Duration.ofMillis(500));
+            assertThat(messages).isEmpty();
+        }
+
+        @Test
+        @DisplayName("Filtered read and pop")
+        void readFiltered() {
+            final String queue="batch_queue";
+            pqueClient.createFilterIndex(queue);
+
+            List<Long> ids = pqueClient.sendBatch(queue, List.of(
+                    Map.of("msgType", "D", "qty", 1),
+                    Map.of("msgType", "S", "qty", 2),
+                    Map.of("msgType", "D", "qty", 3)));
+
+            assertThat(pqueClient.readBatch(queue, new PQUEVisiblityTimeout(30), 10, Map.of("msgType", "D")))
+                .extracting(PQUEMessage::id)
+                .containsExactly(ids.get(0), ids.get(2));
+            assertThat(pqueClient.popMsg(queue, Map.of("msgType", "S"))).map(PQUEMessage::id).contains(ids.get(1));
+            assertThat(pqueClient.popMsg(queue, Map.of("msgType", "X"))).isEmpty();
+        }
+
+        @Test
+        @DisplayName("Lean read gives typed payloads to the handler")
+        void readEach() {
+            final String queue="batch_queue";
+            Customer john = new Customer("John", LocalDate.of(1990, 2, 1), LocalDateTime.now(), 34);
+            Customer jane = new Customer("Jane", LocalDate.of(1991, 3, 2), LocalDateTime.now(), 33);
+            List<Long> ids = pqueClient.sendBatch(queue, List.of(john, jane));
+
+            var read = new ArrayList<Customer>();
+            var readIds = new ArrayList<Long>();
+            int count = pqueClient.readEach(queue, new PQUEVisiblityTimeout(30), 10, Customer.class, (id, customer) -> {
+                readIds.add(id);
+                read.add(customer);
+            });
+
+            assertThat(count).isEqualTo(2);
+            assertThat(readIds).containsExactlyElementsOf(ids);
+            assertThat(read).containsExactly(john, jane);
+            assertThat(pqueClient.readEach(queue, new PQUEVisiblityTimeout(30), 10, Customer.class, (id, customer) -> {})).isZero();
+        }
+
+        @Test
+        @DisplayName("Weighted read from several queues")
+        void readMulti() {
+            var urgent = pqueClient.sendBatch("batch_queue", List.of(Map.of("n", 1), Map.of("n", 2), Map.of("n", 3), Map.of("n", 4)));
+            var normal = pqueClient.sendBatch("delete_queue", List.of(Map.of("n", 5), Map.of("n", 6), Map.of("n", 7), Map.of("n", 8)));
+
+            var weighted = new LinkedHashMap<String, Integer>();
+            weighted.put("batch_queue", 3);
+            weighted.put("delete_queue", 1);
+            var read = pqueClient.readBatch(weighted, new PQUEVisiblityTimeout(30), 4);
+            assertThat(read.get("batch_queue")).extracting(PQUEMessage::id).containsExactlyElementsOf(urgent.subList(0, 3));
+            assertThat(read.get("delete_queue")).extracting(PQUEMessage::id).containsExactly(normal.get(0));
+
+            // The unused share of batch_queue goes to delete_queue
+            read = pqueClient.readBatch(weighted, new PQUEVisiblityTimeout(30), 4);
+            assertThat(read.get("batch_queue")).extracting(PQUEMessage::id).containsExactly(urgent.get(3));
+            assertThat(read.get("delete_queue")).extracting(PQUEMessage::id).containsExactlyElementsOf(normal.subList(1, 4));
+        }
+
+        @Test
+        @DisplayName("Large message is stored apart and read back whole")
+        void claimCheck() {
+            final String queue="empty_queue";
+            pqueClient.setClaimCheck(queue, 200);
+
+            var large = Map.of("payload", "x".repeat(1000));
+            var ids = pqueClient.sendBatch(queue, List.of(Map.of("n", 1), large));
+            assertThat(jdbcOperations.queryForList("select msg_id from pque_q_empty_queue where message is null", Long.class))
+                .containsExactly(ids.get(1));
+
+            // Filters match the claim checked payload
+            pqueClient.createFilterIndex(queue);
+            assertThat(pqueClient.readBatch(queue, new PQUEVisiblityTimeout(0), 10, Map.of("payload", "x".repeat(1000))))
+                .extracting(PQUEMessage::id)
+                .containsExactly(ids.get(1));
+
+            var read = pqueClient.readBatch(queue, new PQUEVisiblityTimeout(30), 10);
+            assertThat(read).extracting(PQUEMessage::id).containsExactlyInAnyOrderElementsOf(ids);
+            var readLarge = read.stream().filter(m -> m.id().equals(ids.get(1))).findFirst().orElseThrow();
+            assertThat(jsonProcessor.fromJson(readLarge.getJsonMessage(), Map.class)).isEqualTo(large);
+
+            assertThat(pqueClient.delete(queue, ids.get(1))).isTrue();
+            assertThat(pqueClient.collectPayloads(queue, 100)).isEqualTo(1);
+        }
+
+        @Test
+        @DisplayName("Partitioned consumers read their own slot first, then steal")
+        void partitionedRead() {
+            final String queue="batch_queue";
+            var first = pqueClient.heartbeat(queue, "consumer-a", 30);
+            var second = pqueClient.heartbeat(queue, "consumer-b", 30);
+            assertThat(second.getSlot()).isEqualTo(1);
+            assertThat(second.getSlots()).isEqualTo(2);
+            first = pqueClient.heartbeat(queue, "consumer-a", 30);
+            assertThat(first.getSlot()).isZero();
+            assertThat(first.getSlots()).isEqualTo(2);
+
+            var ids = pqueClient.sendBatch(queue, List.of(Map.of("n", 1), Map.of("n", 2), Map.of("n", 3), Map.of("n", 4)));
+            var own = pqueClient.readPartitioned(queue, new PQUEVisiblityTimeout(30), 2, second);
+            assertThat(own).extracting(PQUEMessage::id).allMatch(id -> id % 2 == 1);
+            assertThat(own).hasSize(2);
+
+            // Slot 1 is empty now: the other slot is stolen
+            var stolen = pqueClient.readPartitioned(queue, new PQUEVisiblityTimeout(30), 10, second);
+            assertThat(stolen).extracting(PQUEMessage::id).allMatch(id -> id % 2 == 0);
+            assertThat(own.size() + stolen.size()).isEqualTo(ids.size());
+
+            pqueClient.leave(queue, "consumer-b");
+            assertThat(pqueClient.heartbeat(queue, "consumer-a", 30).getSlots()).isEqualTo(1);
+        }
+
+        @Test
+        @DisplayName("Long delayed message waits in the schedule table until promoted")
+        void scheduledMessage() {
+            final String queue="empty_queue";
+            pqueClient.setScheduleAfter(queue, Duration.ofMinutes(1));
+
+            long shortDelay = pqueClient.sendWithDelay(queue, "{\"n\": 1}", new PQUEDelay(30));
+            long longDelay = pqueClient.sendWithDelay(queue, "{\"n\": 2}", new PQUEDelay(3600));
+            assertThat(jdbcOperations.queryForList("select msg_id from pque_d_empty_queue", Long.class))
+                .containsExactly(longDelay);
+            assertThat(pqueClient.getMetrics(queue).getQueueLength()).isEqualTo(1);
+            assertThat(pqueClient.getMetrics(queue).getScheduledMessages()).isEqualTo(1);
+            assertThat(pqueClient.promote(queue, 100)).isZero();
+
+            jdbcOperations.update("update pque_d_empty_queue set deliver_at = now() - interval '1 second'");
+            assertThat(pqueClient.promote(queue, 100)).isEqualTo(1);
+            assertThat(pqueClient.read(queue)).map(PQUEMessage::id).contains(longDelay);
+            assertThat(pqueClient.read(queue)).isEmpty();
+            assertThat(shortDelay).isLessThan(longDelay);
+
+            // Expired while scheduled: deleted and counted by the promote
+            long expiring = pqueClient.sendWithTtl(queue, "{\"n\": 3}", new PQUEDelay(3600), Duration.ofHours(2));
+            jdbcOperations.update("update pque_d_empty_queue set deliver_at = now() - interval '1 second',"
+                + " expires_at = now() - interval '1 second' where msg_id = ?", expiring);
+            assertThat(pqueClient.promote(queue, 100)).isZero();
+            assertThat(pqueClient.getMetrics(queue).getScheduledMessages()).isZero();
+            assertThat(pqueClient.getMetrics(queue).getExpiredMessages()).isEqualTo(1);
+        }
+
+        @Test
+        @DisplayName("Hybrid queue is restored from its checkpoint after a crash")
+        void hybridRestore() {
+            final String queue="hybrid_queue";
+            assertThat(pqueClient.queue(queue).getType()).isEqualTo(PQUEQueue.QueueType.HYBRID);
+
+            pqueClient.setScheduleAfter(queue, Duration.ofMinutes(1));
+
+            var ids = pqueClient.sendBatch(queue, List.of(Map.of("n", 1), Map.of("n", 2), Map.of("n", 3)));
+            long scheduled = pqueClient.sendWithDelay(queue, Map.of("n", 4), new PQUEDelay(3600));
+            assertThat(pqueClient.delete(queue, ids.get(0))).isTrue();
+            assertThat(pqueClient.checkpoint(queue)).isEqualTo(2);
+            assertThat(pqueClient.delete(queue, ids.get(1))).isTrue();
+            assertThat(pqueClient.checkpoint(queue)).isZero();
+
+            // What crash recovery does to the unlogged tables, their msg_id sequence included
+            jdbcOperations.execute("truncate pque_q_hybrid_queue, t_pque_hybrid_alive restart identity");
+            assertThat(pqueClient.checkpoint(queue)).isEqualTo(1);
+
+            var read = pqueClient.readBatch(queue, new PQUEVisiblityTimeout(30), 10);
+            assertThat(read).hasSize(1);
+            assertThat(jsonProcessor.fromJson(read.get(0).getJsonMessage(), Map.class)).isEqualTo(Map.of("n", 3));
+            assertThat(read.get(0).id()).isGreaterThan(scheduled);
+            assertThat(pqueClient.checkpoint(queue)).isZero();
+
+            // The scheduled message survived the crash with its msg_id, still unique
+            assertThat(pqueClient.send(queue, Map.of("n", 5))).isGreaterThan(read.get(0).id());
+            jdbcOperations.update("update pque_d_hybrid_queue set deliver_at = now() - interval '1 second'");
+            assertThat(pqueClient.promote(queue, 100)).isEqualTo(1);
+            assertThat(pqueClient.readBatch(queue, new PQUEVisiblityTimeout(30), 10))
+                .extracting(PQUEMessage::id)
+                .contains(scheduled);
+        }
+
+        @Test
+        @DisplayName("Released message is visible again")
+        void release() {
+            final String queue="without_delete_queue";
+
+            long messageId = pqueClient.send(queue, "{\"customer_name\": \"John\"}");
+            pqueClient.read(queue, new PQUEVisiblityTimeout(30)).orElseThrow();
+            assertThat(pqueClient.read(queue)).isEmpty();
 
+            assertThat(pqueClient.release(queue, List.of(messageId, -1L))).containsExactly(messageId);
+            assertThat(pqueClient.read(queue)).map(PQUEMessage::id).contains(messageId);
+        }
+
+        @Test
+        @DisplayName("Prefetch consumer releases buffered messages on close")
+        void prefetchConsumer() throws InterruptedException {
+            final String queue="batch_queue";
+
+            List<Long> ids = pqueClient.sendBatch(queue, List.of("{\"n\": 1}", "{\"n\": 2}", "{\"n\": 3}"));
+            try (var consumer = pqueClient.prefetchConsumer(queue, 3, true)) {
+                PQUEMessage first = consumer.take(Duration.ofSeconds(2)).orElseThrow();
+                assertThat(first.id()).isEqualTo(ids.get(0));
+                pqueClient.delete(queue, first.id());
+            }
+            assertThat(pqueClient.readBatch(queue, new PQUEVisiblityTimeout(30), 10))
+                .extracting(PQUEMessage::id)
+                .containsExactlyInAnyOrder(ids.get(1), ids.get(2));
         }
     }
 
@@ -148,6 +383,27 @@ class UseCasesTests {
 
             }
         }
+
+        @Nested
+        @DisplayName("Async")
+        class Async {
+            @Test
+            @DisplayName("Acks are flushed and missing ones reported")
+            void ackCollector() {
+                final String queue="delete_queue";
+                List<Long> batchMessages = pqueClient.sendBatch(queue, List.of("{\"n\": 1}", "{\"n\": 2}"));
+                List<Long> failed = new ArrayList<>();
+
+                try (var acks = pqueClient.ackCollector((q, operation, messageIds, cause) -> failed.addAll(messageIds))) {
+                    acks.delete(queue, batchMessages.get(0));
+                    acks.archive(queue, batchMessages.get(1));
+                    acks.delete(queue, Long.MAX_VALUE);
+                }
+
+                assertThat(failed).containsExactly(Long.MAX_VALUE);
+                assertThat(pqueClient.getMetrics(queue).getQueueLength()).isZero();
+            }
+        }
     }
 
     @Nested
@@ -219,6 +475,131 @@ class UseCasesTests {
                 assertThat(archived).isFalse();
             }
         }
+
+        @Nested
+        @DisplayName("Lazy")
+        class Lazy {
+            @Test
+            @DisplayName("Marked messages are moved by the flush")
+            void lazyArchive() {
+                final String queue="lazy_archive_queue";
+
+                List<Long> batchMessages = pqueClient.sendBatch(queue, List.of("{\"n\": 1}", "{\"n\": 2}"));
+                assertThat(pqueClient.archive(queue, batchMessages.get(0))).isTrue();
+                assertThat(pqueClient.archiveBatch(queue, batchMessages)).containsExactly(batchMessages.get(1));
+
+                assertThat(pqueClient.read(queue)).isEmpty();
+                assertThat(pqueClient.getMetrics(queue).getQueueLength()).isZero();
+
+                assertThat(pqueClient.flushArchive(queue, 1)).isEqualTo(1);
+                assertThat(pqueClient.flushArchive(queue, 10)).isEqualTo(1);
+                assertThat(pqueClient.flushArchive(queue, 10)).isZero();
+            }
+        }
+    }
+
+    @Nested
+    @DisplayName("Forward")
+    class Forward {
+        @Test
+        @DisplayName("Reply replaces the request only once")
+        void forward() {
+            long messageId = pqueClient.send("delete_queue", "{\"request\": 1}");
+
+            var replyId = pqueClient.forward("delete_queue", messageId, "batch_queue", "{\"reply\": 1}");
+            assertThat(replyId).isPresent();
+            assertThat(pqueClient.forward("delete_queue", messageId, "batch_queue", "{\"reply\": 1}")).isEmpty();
+
+            assertThat(pqueClient.read("delete_queue")).isEmpty();
+            assertThat(pqueClient.read("batch_queue")).map(PQUEMessage::id).isEqualTo(replyId);
+        }
+
+        @Test
+        @DisplayName("Reply gets the destination time to live, an expired request is not answered")
+        void forwardWithTtl() {
+            pqueClient.setTimeToLive("batch_queue", Duration.ofMinutes(1));
+
+            long request = pqueClient.send("delete_queue", "{\"request\": 1}");
+            long reply = pqueClient.forward("delete_queue", request, "batch_queue", "{\"reply\": 1}").orElseThrow();
+            assertThat(jdbcOperations.queryForObject(
+                "select expires_at > now() from pque_q_batch_queue where msg_id = ?", Boolean.class, reply)).isTrue();
+
+            long expired = pqueClient.send("delete_queue", "{\"request\": 2}");
+            jdbcOperations.update("update pque_q_delete_queue set expires_at = now() - interval '1 second' where msg_id = ?", expired);
+            assertThat(pqueClient.forward("delete_queue", expired, "batch_queue", "{\"reply\": 2}")).isEmpty();
+            assertThat(pqueClient.readBatch("batch_queue", new PQUEVisiblityTimeout(30), 10))
+                .extracting(PQUEMessage::id)
+                .containsExactly(reply);
+        }
+
+        @Test
+        @DisplayName("Batch forward pairs requests and replies")
+        void forwardBatch() {
+            List<Long> requests = pqueClient.sendBatch("delete_queue", List.of("{\"request\": 1}", "{\"request\": 2}"));
+
+            var replies = pqueClient.forwardBatch("delete_queue",
+                    Map.of(requests.get(0), "{\"reply\": 1}", requests.get(1), "{\"reply\": 2}", Long.MAX_VALUE, "{\"reply\": 3}"),
+                    "batch_queue", true);
+            assertThat(replies).containsOnlyKeys(requests);
+
+            assertThat(pqueClient.readBatch("batch_queue", new PQUEVisiblityTimeout(30), 10))
+                .extracting(PQUEMessage::id)
+                .containsExactlyInAnyOrderElementsOf(replies.values());
+            assertThat(pqueClient.read("delete_queue")).isEmpty();
+        }
+    }
+
+    @Nested
+    @DisplayName("Topic")
+    class Topic {
+        @Test
+        @DisplayName("Publish reaches the matching subscribers")
+        void publish() {
+            pqueClient.subscribe("orders", "batch_queue", null);
+            pqueClient.subscribe("orders", "delete_queue", Map.of("msgType", "D"));
+
+            var sent = pqueClient.publish("orders", Map.of("msgType", "S"));
+            assertThat(sent).containsOnlyKeys("batch_queue");
+
+            var sentBatch = pqueClient.publishBatch("orders", List.of(Map.of("msgType", "D"), Map.of("msgType", "S")));
+            assertThat(sentBatch.get("batch_queue")).hasSize(2);
+            assertThat(sentBatch.get("delete_queue")).hasSize(1);
+
+            assertThat(pqueClient.unsubscribe("orders", "batch_queue")).isTrue();
+            assertThat(pqueClient.publish("orders", Map.of("msgType", "S"))).isEmpty();
+            assertThat(pqueClient.publish("no_subscribers", Map.of("msgType", "S"))).isEmpty();
+        }
+    }
+
+    @Nested
+    @DisplayName("RPC")
+    class Rpc {
+        @Test
+        @DisplayName("Reply completes the call")
+        void call() throws Exception {
+            try (var rpc = new PQUERpcClient(pqueClient, jsonProcessor, "batch_queue")) {
+                CompletableFuture<String> reply = rpc.call("delete_queue", "ping", String.class, Duration.ofSeconds(5));
+
+                PQUEMessage request = pqueClient.read("delete_queue").orElseThrow();
+                PQUERpcEnvelope envelope = rpc.unwrap(request).orElseThrow();
+                assertThat(rpc.payload(envelope, String.class)).isEqualTo("ping");
+                assertThat(rpc.reply("delete_queue", request.id(), envelope, "pong")).isPresent();
+
+                assertThat(reply.get(5, TimeUnit.SECONDS)).isEqualTo("pong");
+                assertThat(rpc.getPendingCalls()).isZero();
+            }
+        }
+
+        @Test
+        @DisplayName("Unanswered call times out")
+        void timeout() {
+            try (var rpc = new PQUERpcClient(pqueClient, jsonProcessor, "batch_queue")) {
+                CompletableFuture<String> reply = rpc.call("delete_queue", "ping", String.class, Duration.ofMillis(200));
+
+                var error = assertThrows(ExecutionException.class, () -> reply.get(5, TimeUnit.SECONDS));
+                assertThat(error).hasCauseInstanceOf(TimeoutException.class);
+            }
+        }
     }
 
     @Nested
@@ -265,6 +646,40 @@ class UseCasesTests {
 
         }
 
+        @Test
+        @DisplayName("Send on commit is buffered until commit")
+        void sendOnCommit() {
+            final String queue="transactional_queue";
+
+            TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+            transactionTemplate.executeWithoutResult((tx) -> {
+                pqueClient.sendOnCommit(queue, "{\"customer_name\": \"John1\"}");
+                pqueClient.sendOnCommit(queue, "{\"customer_name\": \"John2\"}");
+                // Same transaction, but nothing written yet
+                assertTrue(pqueClient.readBatch(queue, 2).isEmpty());
+            });
+
+            assertThat(pqueClient.readBatch(queue, 3)).hasSize(2);
+        }
+
+        @Test
+        @DisplayName("Send on commit is discarded on rollback")
+        void sendOnCommitRollback() {
+            final String queue="transactional_queue";
+
+            TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+            try {
+                transactionTemplate.executeWithoutResult((tx) -> {
+                    pqueClient.sendOnCommit(queue, "{\"customer_name\": \"John1\"}");
+                    throw new RuntimeException("Something wrong happened");
+                });
+            } catch (RuntimeException e) {
+                // we know it happens
+            }
+
+            assertTrue(pqueClient.readBatch(queue, 2).isEmpty());
+        }
+
         @Test
         @DisplayName("Sending batch of messages")
         void sendingBatchOfMessages() {
@@ -317,4 +732,46 @@ class UseCasesTests {
         }
     }
 
+    @Nested
+    @DisplayName("Queue handle")
+    class QueueHandleTests {
+
+        @Test
+        @DisplayName("Handle is resolved once and cached")
+        void handleIsCached() {
+            PQUEQueue queue = pqueClient.queue("batch_queue");
+
+            assertThat(queue.getType()).isEqualTo(PQUEQueue.QueueType.LOGGED);
+            assertThat(queue.getVisibilityTimeout().getSeconds()).isEqualTo(configuration.getVisibilityTimeout().getSeconds());
+            assertThat(pqueClient.queue("batch_queue")).isSameAs(queue);
+        }
+
+        @Test
+        @DisplayName("Send and pop via handle")
+        void sendAndPop() {
+            PQUEQueue queue = pqueClient.queue("batch_queue");
+            long messageId = queue.send("{\"customer_name\": \"John\"}");
+
+            PQUEMessage message = queue.popMsg().orElseThrow();
+            assertThat(message.id()).isEqualTo(messageId);
+        }
+
+        @Test
+        @DisplayName("Storage profile is resolved")
+        void storageProfile() {
+            assertThat(pqueClient.queue("batch_queue").getStorageProfile()).isEqualTo("default");
+
+            PQUEQueue queue = pqueClient.queue("churn_queue");
+            assertThat(queue.getStorageProfile()).isEqualTo("high-churn");
+            long messageId = queue.send("{\"customer_name\": \"John\"}");
+            assertThat(queue.read().orElseThrow().id()).isEqualTo(messageId);
+        }
+
+        @Test
+        @DisplayName("Unknown queue")
+        void unknownQueue() {
+            assertThrows(PQUEException.class, () -> pqueClient.queue("no_such_queue"));
+        }
+    }
+
 }
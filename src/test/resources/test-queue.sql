@@ -3,6 +3,10 @@ select pque_drop_queue('batch_queue');
 select pque_drop_queue('delete_queue');
 select pque_drop_queue('empty_queue');
 select pque_drop_queue('without_delete_queue');
+select pque_drop_queue('churn_queue');
+select pque_drop_queue('transactional_queue');
+select pque_drop_queue('lazy_archive_queue');
+select pque_drop_queue('hybrid_queue');
 
 select pque_create('empty_queue');
 select pque_create('without_delete_queue');
@@ -11,4 +15,7 @@ select pque_create('batch_queue');
 
 select pque_create('empty_message');
 select pque_create('transactional_queue');
-select pque_create('wrong_json_message');
\ No newline at end of file
+select pque_create('wrong_json_message');
+select pque_create('churn_queue', 'high-churn');
+select pque_create('lazy_archive_queue');
+select pque_create_hybrid('hybrid_queue');